@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.util.Date;
+
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+import org.springframework.scheduling.support.PeriodicTrigger;
+import org.springframework.util.Assert;
+
+/**
+ * The {@link PeriodicTrigger} counterpart which period can be changed at runtime.
+ * A new period is applied starting from the execution after the one already scheduled.
+ *
+ * @author agent
+ */
+public class AdjustablePeriodicTrigger implements Trigger {
+
+	private final long initialDelay;
+
+	private final boolean fixedRate;
+
+	private volatile long period;
+
+	/**
+	 * Create an instance with the same schedule as the provided {@link PeriodicTrigger}.
+	 * @param periodicTrigger the {@link PeriodicTrigger} to copy.
+	 */
+	public AdjustablePeriodicTrigger(PeriodicTrigger periodicTrigger) {
+		this(periodicTrigger.getTimeUnit().toMillis(periodicTrigger.getPeriod()),
+				periodicTrigger.getTimeUnit().toMillis(periodicTrigger.getInitialDelay()),
+				periodicTrigger.isFixedRate());
+	}
+
+	/**
+	 * Create an instance for the provided schedule.
+	 * @param period the period in milliseconds.
+	 * @param initialDelay the delay before the first execution in milliseconds.
+	 * @param fixedRate true to measure the period between the scheduled executions
+	 * instead of from the completion of the previous one.
+	 */
+	public AdjustablePeriodicTrigger(long period, long initialDelay, boolean fixedRate) {
+		Assert.isTrue(initialDelay >= 0, "'initialDelay' must not be negative");
+		setPeriod(period);
+		this.initialDelay = initialDelay;
+		this.fixedRate = fixedRate;
+	}
+
+	/**
+	 * Change the period of this trigger.
+	 * @param period the period in milliseconds.
+	 */
+	public void setPeriod(long period) {
+		Assert.isTrue(period > 0, "'period' must be greater than 0");
+		this.period = period;
+	}
+
+	public long getPeriod() {
+		return this.period;
+	}
+
+	public boolean isFixedRate() {
+		return this.fixedRate;
+	}
+
+	@Override
+	public Date nextExecutionTime(TriggerContext triggerContext) {
+		Date lastExecution = triggerContext.lastScheduledExecutionTime();
+		Date lastCompletion = triggerContext.lastCompletionTime();
+		if (lastExecution == null || lastCompletion == null) {
+			return new Date(System.currentTimeMillis() + this.initialDelay);
+		}
+		if (this.fixedRate) {
+			return new Date(lastExecution.getTime() + this.period);
+		}
+		return new Date(lastCompletion.getTime() + this.period);
+	}
+
+}
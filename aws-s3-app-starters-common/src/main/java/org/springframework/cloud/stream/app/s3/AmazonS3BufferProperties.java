@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the pool of the I/O buffers reused by the S3 transfers.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.buffers")
+@Validated
+public class AmazonS3BufferProperties {
+
+	/**
+	 * The size of the buffers for copying and digesting the transferred content.
+	 */
+	private int bufferSize = 64 * 1024;
+
+	/**
+	 * The maximum number of the idle buffers retained for reuse; 0 to allocate a buffer for each transfer.
+	 */
+	private int maxPooled = 32;
+
+	@Min(1024)
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	@Min(0)
+	public int getMaxPooled() {
+		return this.maxPooled;
+	}
+
+	public void setMaxPooled(int maxPooled) {
+		this.maxPooled = maxPooled;
+	}
+
+}
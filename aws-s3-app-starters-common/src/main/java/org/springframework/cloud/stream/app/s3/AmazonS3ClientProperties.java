@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Properties for the Amazon S3 client initialization on the application startup.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.client")
+public class AmazonS3ClientProperties {
+
+	/**
+	 * Build the Amazon S3 client and resolve its region and credentials off the startup path.
+	 */
+	private boolean lazyInit = false;
+
+	/**
+	 * With the lazy initialization, build the client in a background thread started on startup
+	 * instead of on the first request.
+	 */
+	private boolean backgroundInit = true;
+
+	/**
+	 * Exclude the Spring Cloud AWS auto-configurations not used by the S3 apps, and JMX unless configured explicitly.
+	 */
+	private boolean trimAutoConfiguration = false;
+
+	public boolean isLazyInit() {
+		return this.lazyInit;
+	}
+
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	public boolean isBackgroundInit() {
+		return this.backgroundInit;
+	}
+
+	public void setBackgroundInit(boolean backgroundInit) {
+		this.backgroundInit = backgroundInit;
+	}
+
+	public boolean isTrimAutoConfiguration() {
+		return this.trimAutoConfiguration;
+	}
+
+	public void setTrimAutoConfiguration(boolean trimAutoConfiguration) {
+		this.trimAutoConfiguration = trimAutoConfiguration;
+	}
+
+}
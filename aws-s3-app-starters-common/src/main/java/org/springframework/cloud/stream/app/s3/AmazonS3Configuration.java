@@ -15,31 +15,98 @@
 
 package org.springframework.cloud.stream.app.s3;
 
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.aws.context.annotation.ConditionalOnMissingAmazonClient;
 import org.springframework.cloud.aws.core.region.RegionProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.regions.Region;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 /**
  * @author Artem Bilan
  */
 @Configuration
 @ConditionalOnMissingAmazonClient(AmazonS3.class)
+@EnableConfigurationProperties({ AmazonS3RateLimitProperties.class, AmazonS3ClientProperties.class,
+		AmazonS3TransferProperties.class })
 public class AmazonS3Configuration {
 
+	private static final Log LOGGER = LogFactory.getLog(AmazonS3Configuration.class);
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.rate-limit", name = "enabled")
+	public RateLimitingRequestHandler s3RateLimitingRequestHandler(AmazonS3RateLimitProperties rateLimitProperties) {
+		RateLimitingRequestHandler rateLimitingRequestHandler =
+				new RateLimitingRequestHandler(rateLimitProperties.getRequestsPerSecond());
+		rateLimitingRequestHandler.setBurst(rateLimitProperties.getBurst());
+		rateLimitingRequestHandler.setPrefixDepth(rateLimitProperties.getPrefixDepth());
+		rateLimitingRequestHandler.setConcurrency(rateLimitProperties.getInitialConcurrency(),
+				rateLimitProperties.getMinConcurrency(), rateLimitProperties.getMaxConcurrency());
+		rateLimitingRequestHandler.setBackoffRatio(rateLimitProperties.getBackoffRatio());
+		rateLimitingRequestHandler.setStreamTimeout(rateLimitProperties.getStreamTimeout());
+		return rateLimitingRequestHandler;
+	}
+
 	@Bean
 	@ConditionalOnMissingBean
-	public AmazonS3 amazonS3(AWSCredentialsProvider awsCredentialsProvider, RegionProvider regionProvider) {
-		return AmazonS3ClientBuilder.standard()
-				.withCredentials(awsCredentialsProvider)
-				.withRegion(regionProvider.getRegion().getName())
-				.build();
+	public AmazonS3 amazonS3(AWSCredentialsProvider awsCredentialsProvider, RegionProvider regionProvider,
+			ObjectProvider<RateLimitingRequestHandler> rateLimitingRequestHandler,
+			AmazonS3ClientProperties clientProperties, AmazonS3TransferProperties transferProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+
+		RateLimitingRequestHandler requestHandler = rateLimitingRequestHandler.getIfAvailable();
+
+		Supplier<AmazonS3> amazonS3Factory = () -> {
+			AmazonS3ClientBuilder amazonS3ClientBuilder =
+					AmazonS3ClientBuilder.standard()
+							.withCredentials(awsCredentialsProvider)
+							.withRegion(regionProvider.getRegion().getName())
+							.withClientConfiguration(
+									new ClientConfiguration()
+											.withMaxConnections(transferProperties.getMaxConnections()));
+
+			if (requestHandler != null) {
+				amazonS3ClientBuilder.withRequestHandlers(requestHandler);
+			}
+
+			return amazonS3ClientBuilder.build();
+		};
+
+		if (!clientProperties.isLazyInit()) {
+			return amazonS3Factory.get();
+		}
+
+		LazyAmazonS3TargetSource targetSource = new LazyAmazonS3TargetSource(() -> {
+			AmazonS3 amazonS3 = amazonS3Factory.get();
+			try {
+				// Resolve the credentials chain before the first request
+				awsCredentialsProvider.getCredentials();
+			}
+			catch (RuntimeException ex) {
+				LOGGER.debug("The AWS credentials are not resolved on the Amazon S3 client initialization", ex);
+			}
+			return amazonS3;
+		});
+		targetSource.setMeterRegistry(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		if (clientProperties.isBackgroundInit()) {
+			targetSource.initializeInBackground();
+		}
+		return targetSource.getProxy();
 	}
 
 }
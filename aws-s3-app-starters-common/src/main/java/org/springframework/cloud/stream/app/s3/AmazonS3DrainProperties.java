@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the graceful drain of the in-flight S3 transfers on shutdown.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.drain")
+@Validated
+public class AmazonS3DrainProperties {
+
+	/**
+	 * Track in-flight transfers and wait for them on shutdown.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The time in milliseconds to wait for in-flight transfers on shutdown.
+	 */
+	private long timeout = 30000;
+
+	/**
+	 * The age in milliseconds of incomplete multipart uploads in the sink bucket to abort on startup; 0 to keep them.
+	 */
+	private long orphanedUploadAge = 86400000;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Min(0)
+	public long getTimeout() {
+		return this.timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	@Min(0)
+	public long getOrphanedUploadAge() {
+		return this.orphanedUploadAge;
+	}
+
+	public void setOrphanedUploadAge(long orphanedUploadAge) {
+		this.orphanedUploadAge = orphanedUploadAge;
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the client-side rate limiting of the Amazon S3 requests.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.rate-limit")
+@Validated
+public class AmazonS3RateLimitProperties {
+
+	/**
+	 * Limit the rate and concurrency of the Amazon S3 client requests.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The maximum number of requests per second for each key prefix.
+	 */
+	private double requestsPerSecond = 3500;
+
+	/**
+	 * The number of requests for each key prefix which can be sent at once after a quiet period.
+	 */
+	private int burst = 100;
+
+	/**
+	 * The number of leading key path segments identifying a key prefix.
+	 */
+	private int prefixDepth = 1;
+
+	/**
+	 * The initial number of concurrent requests.
+	 */
+	private int initialConcurrency = 16;
+
+	/**
+	 * The lower bound for the number of concurrent requests on throttling.
+	 */
+	private int minConcurrency = 1;
+
+	/**
+	 * The upper bound for the number of concurrent requests on success.
+	 */
+	private int maxConcurrency = 256;
+
+	/**
+	 * The ratio to multiply the number of concurrent requests by on throttling.
+	 */
+	private double backoffRatio = 0.5;
+
+	/**
+	 * The time in milliseconds after which the concurrency permit of a GetObject or SelectObjectContent
+	 * content stream which is not closed is reclaimed.
+	 */
+	private long streamTimeout = 600000;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@DecimalMin(value = "0", inclusive = false)
+	public double getRequestsPerSecond() {
+		return this.requestsPerSecond;
+	}
+
+	public void setRequestsPerSecond(double requestsPerSecond) {
+		this.requestsPerSecond = requestsPerSecond;
+	}
+
+	@Min(1)
+	public int getBurst() {
+		return this.burst;
+	}
+
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	@Min(0)
+	public int getPrefixDepth() {
+		return this.prefixDepth;
+	}
+
+	public void setPrefixDepth(int prefixDepth) {
+		this.prefixDepth = prefixDepth;
+	}
+
+	@Min(1)
+	public int getInitialConcurrency() {
+		return this.initialConcurrency;
+	}
+
+	public void setInitialConcurrency(int initialConcurrency) {
+		this.initialConcurrency = initialConcurrency;
+	}
+
+	@Min(1)
+	public int getMinConcurrency() {
+		return this.minConcurrency;
+	}
+
+	public void setMinConcurrency(int minConcurrency) {
+		this.minConcurrency = minConcurrency;
+	}
+
+	@Min(1)
+	public int getMaxConcurrency() {
+		return this.maxConcurrency;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	@DecimalMin(value = "0", inclusive = false)
+	@DecimalMax(value = "1", inclusive = false)
+	public double getBackoffRatio() {
+		return this.backoffRatio;
+	}
+
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+
+	@Min(1)
+	public long getStreamTimeout() {
+		return this.streamTimeout;
+	}
+
+	public void setStreamTimeout(long streamTimeout) {
+		this.streamTimeout = streamTimeout;
+	}
+
+	@AssertTrue(message = "'initialConcurrency' must be between 'minConcurrency' and 'maxConcurrency'")
+	public boolean isConcurrencyInRange() {
+		return this.minConcurrency <= this.initialConcurrency && this.initialConcurrency <= this.maxConcurrency;
+	}
+
+}
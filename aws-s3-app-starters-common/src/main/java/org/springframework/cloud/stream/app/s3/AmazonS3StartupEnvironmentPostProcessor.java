@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.util.StringUtils;
+
+/**
+ * The {@link EnvironmentPostProcessor} to exclude the auto-configurations not used by the
+ * S3 apps from the context refresh when {@code s3.client.trim-auto-configuration=true}.
+ * <p>
+ * The excluded auto-configurations are added to the {@code spring.autoconfigure.exclude}
+ * configured by the user; the JMX is disabled unless {@code spring.jmx.enabled} is set.
+ *
+ * @author agent
+ */
+public class AmazonS3StartupEnvironmentPostProcessor implements EnvironmentPostProcessor, Ordered {
+
+	/**
+	 * The auto-configurations excluded with {@code s3.client.trim-auto-configuration=true}.
+	 */
+	public static final List<String> EXCLUDED_AUTO_CONFIGURATIONS = Collections.unmodifiableList(Arrays.asList(
+			"org.springframework.cloud.aws.autoconfigure.context.ContextInstanceDataAutoConfiguration",
+			"org.springframework.cloud.aws.autoconfigure.cache.ElastiCacheAutoConfiguration",
+			"org.springframework.cloud.aws.autoconfigure.jdbc.AmazonRdsDatabaseAutoConfiguration",
+			"org.springframework.cloud.aws.autoconfigure.mail.MailSenderAutoConfiguration",
+			"org.springframework.cloud.aws.autoconfigure.messaging.MessagingAutoConfiguration"));
+
+	private static final String PROPERTY_SOURCE_NAME = "s3ClientTrimAutoConfiguration";
+
+	private static final String EXCLUDE_PROPERTY = "spring.autoconfigure.exclude";
+
+	private static final String JMX_ENABLED_PROPERTY = "spring.jmx.enabled";
+
+	@Override
+	public int getOrder() {
+		// After the application configuration files are loaded
+		return Ordered.LOWEST_PRECEDENCE;
+	}
+
+	@Override
+	public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+		if (!environment.getProperty("s3.client.trim-auto-configuration", Boolean.class, false)) {
+			return;
+		}
+
+		Set<String> excludes = new LinkedHashSet<>(
+				Binder.get(environment)
+						.bind(EXCLUDE_PROPERTY, Bindable.listOf(String.class))
+						.orElse(Collections.emptyList()));
+		excludes.addAll(EXCLUDED_AUTO_CONFIGURATIONS);
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put(EXCLUDE_PROPERTY, StringUtils.collectionToCommaDelimitedString(excludes));
+		if (!environment.containsProperty(JMX_ENABLED_PROPERTY)) {
+			properties.put(JMX_ENABLED_PROPERTY, "false");
+		}
+		environment.getPropertySources().addFirst(new MapPropertySource(PROPERTY_SOURCE_NAME, properties));
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * Common properties for Amazon S3 transfers.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.transfer")
+@Validated
+public class AmazonS3TransferProperties {
+
+	/**
+	 * Run transfer tasks and pollers on virtual threads when supported by the Java runtime (21+).
+	 */
+	private boolean virtualThreads = false;
+
+	/**
+	 * The maximum number of open HTTP connections of the Amazon S3 client; raise it for more concurrent transfers,
+	 * e.g. with virtual threads.
+	 */
+	private int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+
+	public boolean isVirtualThreads() {
+		return this.virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	@Min(1)
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+}
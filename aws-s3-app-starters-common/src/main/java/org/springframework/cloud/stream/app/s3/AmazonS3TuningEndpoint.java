@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * The actuator endpoint to observe and tune the S3 transfers of a running application.
+ * <p>
+ * The read operation shows the {@link TransferPool}s (concurrency, active threads, queue
+ * depth and throughput), the {@link RateLimitingRequestHandler} and the poll period of the
+ * {@link AdjustablePeriodicTrigger}, if any. The write operations change the concurrency
+ * of a transfer pool, e.g. {@code POST /actuator/s3tuning/download {"concurrency": 8}},
+ * and the rate limit and poll period, e.g. {@code POST /actuator/s3tuning {"pollPeriod": 500}}.
+ * The transfer pools which are not enabled in the application are reported as such, with
+ * the hint how to enable them, and cannot be tuned.
+ * The changes are not persisted and are lost on restart.
+ *
+ * @author agent
+ */
+@Endpoint(id = AmazonS3TuningEndpoint.ID)
+public class AmazonS3TuningEndpoint {
+
+	public static final String ID = "s3tuning";
+
+	private final Map<String, TransferPool> transferPools = new LinkedHashMap<>();
+
+	private final Map<String, String> disabledTransferPools = new LinkedHashMap<>();
+
+	private RateLimitingRequestHandler rateLimitingRequestHandler;
+
+	private AdjustablePeriodicTrigger pollTrigger;
+
+	/**
+	 * Add a {@link TransferPool} to observe and tune.
+	 * @param name the name of the pool, e.g. {@code download} or {@code upload}.
+	 * @param transferPool the {@link TransferPool}.
+	 */
+	public void addTransferPool(String name, TransferPool transferPool) {
+		Assert.hasText(name, "'name' must not be empty");
+		Assert.notNull(transferPool, "'transferPool' must not be null");
+		this.transferPools.put(name, transferPool);
+	}
+
+	/**
+	 * Add a transfer pool which is not enabled in the application.
+	 * @param name the name of the pool, e.g. {@code download} or {@code upload}.
+	 * @param hint the hint how to enable the pool.
+	 */
+	public void addDisabledTransferPool(String name, String hint) {
+		Assert.hasText(name, "'name' must not be empty");
+		Assert.hasText(hint, "'hint' must not be empty");
+		this.disabledTransferPools.put(name, hint);
+	}
+
+	public void setRateLimitingRequestHandler(RateLimitingRequestHandler rateLimitingRequestHandler) {
+		this.rateLimitingRequestHandler = rateLimitingRequestHandler;
+	}
+
+	public void setPollTrigger(AdjustablePeriodicTrigger pollTrigger) {
+		this.pollTrigger = pollTrigger;
+	}
+
+	@ReadOperation
+	public Map<String, Object> tuning() {
+		Map<String, Object> tuning = new LinkedHashMap<>();
+		Map<String, Object> pools = new LinkedHashMap<>();
+		this.transferPools.forEach((name, transferPool) -> pools.put(name, transferPool.describe()));
+		this.disabledTransferPools.forEach((name, hint) -> pools.put(name, describeDisabled(hint)));
+		tuning.put("transferPools", pools);
+		if (this.rateLimitingRequestHandler != null) {
+			Map<String, Object> rateLimit = new LinkedHashMap<>();
+			rateLimit.put("requestsPerSecond", this.rateLimitingRequestHandler.getRequestsPerSecond());
+			rateLimit.put("burst", this.rateLimitingRequestHandler.getBurst());
+			rateLimit.put("concurrencyLimit", this.rateLimitingRequestHandler.getConcurrencyLimit());
+			rateLimit.put("inFlight", this.rateLimitingRequestHandler.getInFlight());
+			tuning.put("rateLimit", rateLimit);
+		}
+		if (this.pollTrigger != null) {
+			Map<String, Object> poller = new LinkedHashMap<>();
+			poller.put("period", this.pollTrigger.getPeriod());
+			poller.put("fixedRate", this.pollTrigger.isFixedRate());
+			tuning.put("poller", poller);
+		}
+		return tuning;
+	}
+
+	@ReadOperation
+	public Map<String, Object> transferPool(@Selector String name) {
+		TransferPool transferPool = this.transferPools.get(name);
+		if (transferPool != null) {
+			return transferPool.describe();
+		}
+		String hint = this.disabledTransferPools.get(name);
+		return hint != null ? describeDisabled(hint) : null;
+	}
+
+	@WriteOperation
+	public Map<String, Object> tuneTransferPool(@Selector String name, int concurrency) {
+		TransferPool transferPool = this.transferPools.get(name);
+		if (transferPool == null) {
+			String hint = this.disabledTransferPools.get(name);
+			if (hint != null) {
+				throw new InvalidEndpointRequestException("The " + name + " transfer pool is not enabled", hint);
+			}
+			return null;
+		}
+		if (concurrency <= 0) {
+			throw new InvalidEndpointRequestException("The concurrency must be greater than 0",
+					"Invalid concurrency: " + concurrency);
+		}
+		transferPool.setConcurrency(concurrency);
+		return transferPool.describe();
+	}
+
+	@WriteOperation
+	public Map<String, Object> tune(@Nullable Double requestsPerSecond, @Nullable Integer burst,
+			@Nullable Long pollPeriod) {
+
+		if (requestsPerSecond != null || burst != null) {
+			if (this.rateLimitingRequestHandler == null) {
+				throw new InvalidEndpointRequestException("The rate limit is not enabled",
+						"Enable it with 's3.rate-limit.enabled=true'");
+			}
+			if (requestsPerSecond != null && requestsPerSecond <= 0 || burst != null && burst <= 0) {
+				throw new InvalidEndpointRequestException("The rate limit must be greater than 0",
+						"Invalid rate limit: " + requestsPerSecond + " requests per second, burst " + burst);
+			}
+		}
+		if (pollPeriod != null) {
+			if (this.pollTrigger == null) {
+				throw new InvalidEndpointRequestException("The poll period cannot be changed",
+						"No periodic poller trigger in this application");
+			}
+			if (pollPeriod <= 0) {
+				throw new InvalidEndpointRequestException("The poll period must be greater than 0",
+						"Invalid poll period: " + pollPeriod);
+			}
+		}
+
+		if (requestsPerSecond != null) {
+			this.rateLimitingRequestHandler.setRequestsPerSecond(requestsPerSecond);
+		}
+		if (burst != null) {
+			this.rateLimitingRequestHandler.setBurst(burst);
+		}
+		if (pollPeriod != null) {
+			this.pollTrigger.setPeriod(pollPeriod);
+		}
+		return tuning();
+	}
+
+	private static Map<String, Object> describeDisabled(String hint) {
+		Map<String, Object> description = new LinkedHashMap<>();
+		description.put("enabled", false);
+		description.put("hint", hint);
+		return description;
+	}
+
+}
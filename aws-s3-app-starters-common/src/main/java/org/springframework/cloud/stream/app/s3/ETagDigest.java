@@ -0,0 +1,301 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+
+import com.amazonaws.util.BinaryUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The incremental calculation of the S3 Object ETag for the content being transferred.
+ * <p>
+ * For a single part object the ETag is the hex MD5 digest of its content. For a multipart
+ * object it is the hex MD5 digest of the concatenated binary MD5 digests of its parts,
+ * followed by {@code -} and the number of parts. Both are calculated from the same pass
+ * over the content, which is fed into this object as it is transferred.
+ * <p>
+ * The ETags of the objects encrypted with SSE-KMS or SSE-C are not MD5 based and cannot
+ * be verified this way.
+ *
+ * @author agent
+ */
+public class ETagDigest {
+
+	/**
+	 * The name of the {@link Timer} for the time spent on the digest calculation.
+	 */
+	public static final String VERIFICATION_TIMER_NAME = "s3.integrity.verification";
+
+	private static final Pattern MD5_ETAG_PATTERN = Pattern.compile("\"?[0-9a-fA-F]{32}(-\\d+)?\"?");
+
+	private final long partSize;
+
+	private final MessageDigest contentDigest;
+
+	private final MessageDigest partsDigest;
+
+	private MessageDigest partDigest;
+
+	private long partBytes;
+
+	private int partCount;
+
+	private long digestNanos;
+
+	/**
+	 * Create an instance for a single part object.
+	 */
+	public ETagDigest() {
+		this(0, true);
+	}
+
+	/**
+	 * Create an instance for an object uploaded in parts of the provided size.
+	 * @param partSize the size of each part except the last one; 0 for a single part object.
+	 * @param contentMd5 whether to calculate the MD5 digest of the whole content for a multipart object.
+	 */
+	public ETagDigest(long partSize, boolean contentMd5) {
+		Assert.isTrue(partSize >= 0, "'partSize' must not be negative");
+		this.partSize = partSize;
+		this.contentDigest = partSize == 0 || contentMd5 ? md5() : null;
+		this.partsDigest = partSize > 0 ? md5() : null;
+	}
+
+	public void update(byte[] bytes, int offset, int length) {
+		long start = System.nanoTime();
+		if (this.contentDigest != null) {
+			this.contentDigest.update(bytes, offset, length);
+		}
+		if (this.partsDigest != null) {
+			int position = offset;
+			int remaining = length;
+			while (remaining > 0) {
+				if (this.partDigest == null) {
+					this.partDigest = md5();
+					this.partBytes = 0;
+				}
+				int chunk = (int) Math.min(remaining, this.partSize - this.partBytes);
+				this.partDigest.update(bytes, position, chunk);
+				this.partBytes += chunk;
+				position += chunk;
+				remaining -= chunk;
+				if (this.partBytes == this.partSize) {
+					completePart();
+				}
+			}
+		}
+		this.digestNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Append the MD5 digest of the next part calculated separately, e.g. concurrently
+	 * with the other parts. Must not be mixed with the content fed into this digest.
+	 * @param partDigest the binary MD5 digest of the part.
+	 * @param digestNanos the time spent on the part digest calculation.
+	 */
+	public void appendPart(byte[] partDigest, long digestNanos) {
+		Assert.state(this.partsDigest != null, "The parts are not digested for a single part object");
+		Assert.state(this.partDigest == null, "The content of the current part is not digested yet");
+		this.partsDigest.update(partDigest);
+		this.partCount++;
+		this.digestNanos += digestNanos;
+	}
+
+	/**
+	 * Feed the whole content of the provided {@link InputStream} into this digest.
+	 * The stream is not closed.
+	 * @param inputStream the content to digest.
+	 * @return the number of bytes digested.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public long update(InputStream inputStream) throws IOException {
+		return update(inputStream, new byte[StreamUtils.BUFFER_SIZE]);
+	}
+
+	/**
+	 * Feed the whole content of the provided {@link InputStream} into this digest
+	 * through a buffer borrowed from the {@link IoBufferPool}. The stream is not closed.
+	 * @param inputStream the content to digest.
+	 * @param bufferPool the {@link IoBufferPool} to borrow the buffer from.
+	 * @return the number of bytes digested.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public long update(InputStream inputStream, IoBufferPool bufferPool) throws IOException {
+		byte[] buffer = bufferPool.acquire();
+		try {
+			return update(inputStream, buffer);
+		}
+		finally {
+			bufferPool.release(buffer);
+		}
+	}
+
+	private long update(InputStream inputStream, byte[] buffer) throws IOException {
+		long count = 0;
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			update(buffer, 0, read);
+			count += read;
+		}
+		return count;
+	}
+
+	/**
+	 * Wrap the provided {@link OutputStream} to feed all the bytes written into it to this digest.
+	 * @param outputStream the {@link OutputStream} to wrap.
+	 * @return the digesting {@link OutputStream}.
+	 */
+	public OutputStream digesting(OutputStream outputStream) {
+		return new FilterOutputStream(outputStream) {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				this.out.write(bytes, offset, length);
+				update(bytes, offset, length);
+			}
+
+		};
+	}
+
+	/**
+	 * Return true if the MD5 digest of the whole content is calculated.
+	 * @return true if the {@link #getContentMd5()} is available.
+	 */
+	public boolean hasContentMd5() {
+		return this.contentDigest != null;
+	}
+
+	/**
+	 * Return the base64 MD5 digest of the whole content for the {@code Content-MD5} header.
+	 * @return the base64 MD5 digest.
+	 */
+	public String getContentMd5() {
+		Assert.state(this.contentDigest != null, "The content MD5 digest is not calculated");
+		return Base64.getEncoder().encodeToString(clone(this.contentDigest).digest());
+	}
+
+	/**
+	 * Return the expected ETag of the content digested so far.
+	 * @return the ETag, without quotes.
+	 */
+	public String getETag() {
+		if (this.partsDigest == null) {
+			return BinaryUtils.toHex(clone(this.contentDigest).digest());
+		}
+		MessageDigest parts = clone(this.partsDigest);
+		int count = this.partCount;
+		if (this.partDigest != null) {
+			parts.update(clone(this.partDigest).digest());
+			count++;
+		}
+		return BinaryUtils.toHex(parts.digest()) + "-" + count;
+	}
+
+	/**
+	 * Compare the provided S3 Object ETag with the ETag of the content digested so far.
+	 * @param eTag the S3 Object ETag, optionally quoted.
+	 * @return true if the ETags are equal.
+	 */
+	public boolean matches(String eTag) {
+		return eTag != null && getETag().equalsIgnoreCase(eTag.replace("\"", ""));
+	}
+
+	/**
+	 * Return the time spent on the digest calculation.
+	 * @return the time in nanoseconds.
+	 */
+	public long getDigestNanos() {
+		return this.digestNanos;
+	}
+
+	/**
+	 * Record the time spent on the digest calculation into the {@link #VERIFICATION_TIMER_NAME} timer.
+	 * @param meterRegistry the {@link MeterRegistry} to register the timer.
+	 * @param operation the transfer operation: {@code download} or {@code upload}.
+	 * @param result the verification result: {@code match}, {@code mismatch} or {@code skipped}.
+	 */
+	public void record(MeterRegistry meterRegistry, String operation, String result) {
+		Timer.builder(VERIFICATION_TIMER_NAME)
+				.description("The time spent on the checksum calculation of the transferred S3 Objects")
+				.tag("operation", operation)
+				.tag("result", result)
+				.register(meterRegistry)
+				.record(this.digestNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Check if the provided S3 Object ETag can be verified with an MD5 digest.
+	 * @param eTag the S3 Object ETag.
+	 * @return true if the ETag is an MD5 digest, optionally with the number of parts.
+	 */
+	public static boolean isMd5ETag(String eTag) {
+		return eTag != null && MD5_ETAG_PATTERN.matcher(eTag).matches();
+	}
+
+	/**
+	 * Check if the provided S3 Object ETag is of a multipart object.
+	 * @param eTag the S3 Object ETag.
+	 * @return true if the ETag contains the number of parts.
+	 */
+	public static boolean isMultipartETag(String eTag) {
+		return eTag != null && eTag.indexOf('-') > 0;
+	}
+
+	private void completePart() {
+		this.partsDigest.update(this.partDigest.digest());
+		this.partCount++;
+		this.partDigest = null;
+	}
+
+	private static MessageDigest clone(MessageDigest messageDigest) {
+		try {
+			return (MessageDigest) messageDigest.clone();
+		}
+		catch (CloneNotSupportedException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.springframework.util.Assert;
+
+/**
+ * Calculates the multipart {@link ETagDigest} of a file by reading its parts concurrently.
+ * <p>
+ * All the parts are read from the same {@link FileChannel} with positional reads, which
+ * don't share the channel position, so the digest calculation is not bound to the speed
+ * of a single sequential stream. Each part is read through a buffer borrowed from the
+ * {@link IoBufferPool}.
+ *
+ * @author agent
+ */
+public class FilePartDigester {
+
+	private final Executor executor;
+
+	private final IoBufferPool bufferPool;
+
+	/**
+	 * Create an instance to read the parts on the provided {@link Executor}.
+	 * @param executor the {@link Executor} to read the parts on.
+	 * @param bufferPool the {@link IoBufferPool} to borrow the buffers from.
+	 */
+	public FilePartDigester(Executor executor, IoBufferPool bufferPool) {
+		Assert.notNull(executor, "'executor' must not be null");
+		Assert.notNull(bufferPool, "'bufferPool' must not be null");
+		this.executor = executor;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Calculate the ETag of the file uploaded in parts of the provided size.
+	 * The MD5 digest of the whole content is not calculated.
+	 * @param file the file to digest.
+	 * @param partSize the size of each part except the last one.
+	 * @return the {@link ETagDigest} of the file.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public ETagDigest digest(Path file, long partSize) throws IOException {
+		Assert.isTrue(partSize > 0, "'partSize' must be greater than 0");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			List<CompletableFuture<PartDigest>> parts = new ArrayList<>();
+			long position = 0;
+			do {
+				long offset = position;
+				long length = Math.min(partSize, size - offset);
+				parts.add(CompletableFuture.supplyAsync(() -> digestPart(channel, offset, length), this.executor));
+				position += partSize;
+			}
+			while (position < size);
+
+			ETagDigest eTagDigest = new ETagDigest(partSize, false);
+			try {
+				for (CompletableFuture<PartDigest> part : parts) {
+					PartDigest partDigest = part.join();
+					eTagDigest.appendPart(partDigest.digest, partDigest.nanos);
+				}
+			}
+			catch (CompletionException ex) {
+				parts.forEach(part -> part.cancel(false));
+				if (ex.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) ex.getCause()).getCause();
+				}
+				throw ex;
+			}
+			return eTagDigest;
+		}
+	}
+
+	private PartDigest digestPart(FileChannel channel, long offset, long length) {
+		byte[] buffer = this.bufferPool.acquire();
+		try {
+			long start = System.nanoTime();
+			MessageDigest digest = md5();
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				int read = channel.read(ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position)),
+						position);
+				if (read < 0) {
+					throw new IOException("Unexpected end of file at " + position + " of " + end + " bytes");
+				}
+				digest.update(buffer, 0, read);
+				position += read;
+			}
+			return new PartDigest(digest.digest(), System.nanoTime() - start);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		finally {
+			this.bufferPool.release(buffer);
+		}
+	}
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * The MD5 digest of a part and the time spent on it.
+	 */
+	private static final class PartDigest {
+
+		private final byte[] digest;
+
+		private final long nanos;
+
+		PartDigest(byte[] digest, long nanos) {
+			this.digest = digest;
+			this.nanos = nanos;
+		}
+
+	}
+
+}
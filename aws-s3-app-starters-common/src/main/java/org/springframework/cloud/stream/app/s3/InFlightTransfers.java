@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+import com.amazonaws.services.s3.transfer.MultipleFileUpload;
+import com.amazonaws.services.s3.transfer.Transfer;
+import com.amazonaws.services.s3.transfer.Upload;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The registry of the in-flight S3 transfers which are drained on shutdown.
+ * <p>
+ * A transfer performed on the calling thread is registered between {@link #begin()} and
+ * {@link #end()}; an asynchronous {@link Transfer} is registered with {@link #track(Transfer)}
+ * until it is done. No new transfers are accepted after {@link #stop()}, which waits for
+ * the in-flight transfers until the drain timeout. The uploads which are not done by then
+ * are aborted, so their multipart uploads are not left incomplete.
+ * <p>
+ * The {@link #DEFAULT_PHASE} makes this stopped after the polling endpoints and the
+ * input bindings, but before the output bindings.
+ *
+ * @author agent
+ */
+public class InFlightTransfers implements SmartLifecycle, MeterBinder {
+
+	/**
+	 * The name of the {@link Gauge} for the number of in-flight transfers.
+	 */
+	public static final String IN_FLIGHT_GAUGE_NAME = "s3.transfers.in-flight";
+
+	public static final int DEFAULT_PHASE = Integer.MAX_VALUE / 4;
+
+	private static final Log LOGGER = LogFactory.getLog(InFlightTransfers.class);
+
+	private static final long DRAIN_CHECK_INTERVAL = 100;
+
+	private final Object monitor = new Object();
+
+	private final Set<Transfer> transfers = ConcurrentHashMap.newKeySet();
+
+	private final String operation;
+
+	private long drainTimeout = 30000;
+
+	private int phase = DEFAULT_PHASE;
+
+	private int active;
+
+	private boolean running;
+
+	/**
+	 * Create an instance for the provided transfer operation.
+	 * @param operation the transfer operation: {@code download} or {@code upload}.
+	 */
+	public InFlightTransfers(String operation) {
+		Assert.hasText(operation, "'operation' must not be empty");
+		this.operation = operation;
+	}
+
+	public void setDrainTimeout(long drainTimeout) {
+		Assert.isTrue(drainTimeout >= 0, "'drainTimeout' must not be negative");
+		this.drainTimeout = drainTimeout;
+	}
+
+	public void setPhase(int phase) {
+		this.phase = phase;
+	}
+
+	/**
+	 * Register a transfer performed on the calling thread.
+	 * @return false if the transfers are being drained and no new transfer must be started.
+	 */
+	public boolean begin() {
+		synchronized (this.monitor) {
+			if (!this.running) {
+				return false;
+			}
+			this.active++;
+			return true;
+		}
+	}
+
+	/**
+	 * Unregister a transfer previously registered with a successful {@link #begin()}.
+	 */
+	public void end() {
+		synchronized (this.monitor) {
+			this.active--;
+			this.monitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Register an asynchronous transfer until it is done.
+	 * Must be called between {@link #begin()} and {@link #end()}.
+	 * @param transfer the {@link Transfer} to track.
+	 */
+	public void track(Transfer transfer) {
+		if (!transfer.isDone()) {
+			this.transfers.add(transfer);
+		}
+	}
+
+	/**
+	 * Return the number of in-flight transfers.
+	 * @return the number of in-flight transfers.
+	 */
+	public int getInFlight() {
+		this.transfers.removeIf(Transfer::isDone);
+		synchronized (this.monitor) {
+			return this.active + this.transfers.size();
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder(IN_FLIGHT_GAUGE_NAME, this, InFlightTransfers::getInFlight)
+				.description("The number of in-flight S3 transfers")
+				.tag("operation", this.operation)
+				.register(registry);
+	}
+
+	@Override
+	public void start() {
+		synchronized (this.monitor) {
+			this.running = true;
+		}
+	}
+
+	@Override
+	public void stop() {
+		synchronized (this.monitor) {
+			if (!this.running) {
+				return;
+			}
+			this.running = false;
+		}
+
+		long deadline = System.currentTimeMillis() + this.drainTimeout;
+		int inFlight;
+		while ((inFlight = getInFlight()) > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			synchronized (this.monitor) {
+				try {
+					this.monitor.wait(Math.min(remaining, DRAIN_CHECK_INTERVAL));
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		if (inFlight > 0) {
+			LOGGER.warn(inFlight + " in-flight " + this.operation + "(s) not completed in " + this.drainTimeout
+					+ " ms; aborting");
+			for (Transfer transfer : this.transfers) {
+				abort(transfer);
+			}
+			this.transfers.clear();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		synchronized (this.monitor) {
+			return this.running;
+		}
+	}
+
+	@Override
+	public int getPhase() {
+		return this.phase;
+	}
+
+	private static void abort(Transfer transfer) {
+		if (transfer instanceof Upload) {
+			((Upload) transfer).abort();
+		}
+		else if (transfer instanceof MultipleFileUpload) {
+			for (Upload upload : ((MultipleFileUpload) transfer).getSubTransfers()) {
+				upload.abort();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The bounded pool of the fixed size {@code byte[]} buffers for the S3 transfers.
+ * <p>
+ * A buffer is borrowed with {@link #acquire()} and must be returned with {@link #release(byte[])}.
+ * Up to the {@code maxPooled} idle buffers are retained for reuse; when no idle buffer is
+ * available, a new one is allocated, and it is dropped on release if the pool is full.
+ * A pool with {@code maxPooled = 0} allocates a buffer for each acquisition.
+ * <p>
+ * The buffers are heap arrays: all their consumers are {@link InputStream}s and
+ * {@link OutputStream}s, which would copy the content of a direct buffer once more.
+ *
+ * @author agent
+ */
+public class IoBufferPool implements MeterBinder {
+
+	/**
+	 * The name of the {@link Counter} for the allocated buffers, tagged with the pool name.
+	 */
+	public static final String ALLOCATIONS_COUNTER_NAME = "s3.buffers.allocations";
+
+	/**
+	 * The name of the {@link Counter} for the acquisitions when all the pooled buffers are in use,
+	 * tagged with the pool name.
+	 */
+	public static final String EXHAUSTED_COUNTER_NAME = "s3.buffers.exhausted";
+
+	/**
+	 * The name of the {@link Gauge} for the idle buffers in the pool, tagged with the pool name.
+	 */
+	public static final String IDLE_GAUGE_NAME = "s3.buffers.idle";
+
+	private final String name;
+
+	private final int bufferSize;
+
+	private final int maxPooled;
+
+	private final BlockingQueue<byte[]> idle;
+
+	private final AtomicInteger inUse = new AtomicInteger();
+
+	private volatile Counter allocations;
+
+	private volatile Counter exhausted;
+
+	/**
+	 * Create a pool of the buffers of the provided size.
+	 * @param name the name of the pool for the metrics tags.
+	 * @param bufferSize the size of the buffers.
+	 * @param maxPooled the maximum number of the idle buffers retained; 0 to not pool them.
+	 */
+	public IoBufferPool(String name, int bufferSize, int maxPooled) {
+		Assert.hasText(name, "'name' must not be empty");
+		Assert.isTrue(bufferSize > 0, "'bufferSize' must be greater than 0");
+		Assert.isTrue(maxPooled >= 0, "'maxPooled' must not be negative");
+		this.name = name;
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.idle = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+	}
+
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Return the number of the idle buffers in the pool.
+	 * @return the number of the idle buffers.
+	 */
+	public int getIdle() {
+		return this.idle.size();
+	}
+
+	/**
+	 * Borrow a buffer of the {@link #getBufferSize()} from the pool or allocate a new one.
+	 * The content of the buffer is not cleared.
+	 * @return the buffer.
+	 */
+	public byte[] acquire() {
+		int inUse = this.inUse.incrementAndGet();
+		byte[] buffer = this.idle.poll();
+		if (buffer == null) {
+			if (inUse > this.maxPooled) {
+				increment(this.exhausted);
+			}
+			increment(this.allocations);
+			buffer = new byte[this.bufferSize];
+		}
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer borrowed with {@link #acquire()} to the pool.
+	 * @param buffer the buffer.
+	 */
+	public void release(byte[] buffer) {
+		this.inUse.decrementAndGet();
+		if (this.maxPooled > 0 && buffer.length == this.bufferSize) {
+			this.idle.offer(buffer);
+		}
+	}
+
+	/**
+	 * Copy the content of the {@link InputStream} into the {@link OutputStream} through a pooled buffer.
+	 * None of the streams is closed.
+	 * @param inputStream the source of the content.
+	 * @param outputStream the target of the content.
+	 * @return the number of bytes copied.
+	 * @throws IOException if the content cannot be read or written.
+	 */
+	public long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = acquire();
+		try {
+			long count = 0;
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+				count += read;
+			}
+			outputStream.flush();
+			return count;
+		}
+		finally {
+			release(buffer);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.allocations =
+				Counter.builder(ALLOCATIONS_COUNTER_NAME)
+						.description("The number of the I/O buffers allocated")
+						.baseUnit("buffers")
+						.tag("pool", this.name)
+						.register(registry);
+		this.exhausted =
+				Counter.builder(EXHAUSTED_COUNTER_NAME)
+						.description("The number of the I/O buffer acquisitions beyond the pool capacity")
+						.tag("pool", this.name)
+						.register(registry);
+		Gauge.builder(IDLE_GAUGE_NAME, this, IoBufferPool::getIdle)
+				.description("The number of the idle I/O buffers in the pool")
+				.tag("pool", this.name)
+				.register(registry);
+	}
+
+	private static void increment(Counter counter) {
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+}
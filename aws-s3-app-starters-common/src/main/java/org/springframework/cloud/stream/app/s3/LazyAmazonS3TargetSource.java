@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.aopalliance.intercept.MethodInterceptor;
+
+import org.springframework.aop.TargetSource;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.Assert;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The {@link TargetSource} for an {@link AmazonS3} client built on the first request
+ * or in a background thread, instead of on the application startup path.
+ * <p>
+ * The {@link #getProxy()} is the {@link AmazonS3} to expose as a bean; its {@code shutdown()}
+ * doesn't build the client if it has not been built yet.
+ *
+ * @author agent
+ */
+public class LazyAmazonS3TargetSource implements TargetSource {
+
+	/**
+	 * The name of the {@link Timer} for the client initialization, tagged with the mode.
+	 */
+	public static final String INITIALIZATION_TIMER_NAME = "s3.client.initialization";
+
+	private final Supplier<AmazonS3> amazonS3Factory;
+
+	private volatile AmazonS3 amazonS3;
+
+	private CompletableFuture<AmazonS3> initialization;
+
+	private MeterRegistry meterRegistry;
+
+	/**
+	 * Create an instance for the {@link AmazonS3} factory.
+	 * @param amazonS3Factory the factory to build the client, resolving its region and credentials.
+	 */
+	public LazyAmazonS3TargetSource(Supplier<AmazonS3> amazonS3Factory) {
+		Assert.notNull(amazonS3Factory, "'amazonS3Factory' must not be null");
+		this.amazonS3Factory = amazonS3Factory;
+	}
+
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Start building the client in a background thread; the requests wait for it.
+	 */
+	public synchronized void initializeInBackground() {
+		if (this.amazonS3 == null && this.initialization == null) {
+			SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("s3-client-init-");
+			executor.setDaemon(true);
+			this.initialization = CompletableFuture.supplyAsync(() -> build("background"), executor);
+		}
+	}
+
+	/**
+	 * Return true if the client has been built.
+	 * @return true if the client has been built.
+	 */
+	public boolean isInitialized() {
+		return this.amazonS3 != null;
+	}
+
+	/**
+	 * Return the {@link AmazonS3} proxy for this target source.
+	 * @return the proxy.
+	 */
+	public AmazonS3 getProxy() {
+		ProxyFactory proxyFactory = new ProxyFactory(AmazonS3.class, this);
+		proxyFactory.addAdvice((MethodInterceptor) invocation ->
+				"shutdown".equals(invocation.getMethod().getName()) && !isInitialized()
+						? null
+						: invocation.proceed());
+		return (AmazonS3) proxyFactory.getProxy(getClass().getClassLoader());
+	}
+
+	@Override
+	public Class<?> getTargetClass() {
+		return AmazonS3.class;
+	}
+
+	@Override
+	public boolean isStatic() {
+		return false;
+	}
+
+	@Override
+	public Object getTarget() {
+		AmazonS3 amazonS3 = this.amazonS3;
+		if (amazonS3 == null) {
+			amazonS3 = initialize();
+		}
+		return amazonS3;
+	}
+
+	@Override
+	public void releaseTarget(Object target) {
+		// No-op
+	}
+
+	private synchronized AmazonS3 initialize() {
+		if (this.amazonS3 == null) {
+			if (this.initialization != null) {
+				try {
+					this.amazonS3 = this.initialization.join();
+				}
+				catch (CompletionException ex) {
+					// Try again on the next request
+					this.initialization = null;
+					Throwable cause = ex.getCause();
+					throw cause instanceof RuntimeException ? (RuntimeException) cause : ex;
+				}
+			}
+			else {
+				this.amazonS3 = build("lazy");
+			}
+		}
+		return this.amazonS3;
+	}
+
+	private AmazonS3 build(String mode) {
+		long start = System.nanoTime();
+		AmazonS3 amazonS3 = this.amazonS3Factory.get();
+		if (this.meterRegistry != null) {
+			Timer.builder(INITIALIZATION_TIMER_NAME)
+					.description("The time to build the Amazon S3 client and resolve its region and credentials")
+					.tag("mode", mode)
+					.register(this.meterRegistry)
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		return amazonS3;
+	}
+
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AbstractPutObjectRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GenericBucketRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.SelectObjectContentRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * The {@link RequestHandler2} to limit the rate and concurrency of the Amazon S3 client requests.
+ * <p>
+ * Each request attempt, including retries, takes a token from the token bucket of its
+ * key prefix (the bucket name and the first {@code prefixDepth} key path segments)
+ * and a permit from the concurrency limit shared by all the requests of the client.
+ * The calling thread is blocked until both are available. The permit is returned when the
+ * attempt is over or, for the GetObject and SelectObjectContent responses, when their
+ * content stream is closed, so the limit also covers the transfer of the object content.
+ * <p>
+ * Therefore the callers must close the content streams of the {@code S3Object} and the
+ * {@code SelectObjectContentResult}. The permit of a content stream which is not closed within
+ * the {@code streamTimeout} is considered leaked: it is reclaimed with a warning when another
+ * request waits for a permit, so the limiter doesn't deadlock.
+ * <p>
+ * The concurrency limit is adjusted in AIMD manner: it is multiplied by the
+ * {@code backoffRatio} on throttling (e.g. {@code 503 SlowDown}) and increased
+ * by one after a limit's worth of successful attempts.
+ *
+ * @author agent
+ */
+public class RateLimitingRequestHandler extends RequestHandler2 {
+
+	private static final Log LOGGER = LogFactory.getLog(RateLimitingRequestHandler.class);
+
+	private static final HandlerContextKey<ConcurrencyPermit> CONCURRENCY_PERMIT_KEY =
+			new HandlerContextKey<>(RateLimitingRequestHandler.class.getName() + ".concurrencyPermit");
+
+	private static final int MAX_TOKEN_BUCKETS = 10000;
+
+	private static final long PERMIT_WAIT_TIMEOUT = 1000;
+
+	private final Map<String, TokenBucket> tokenBuckets =
+			new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+					return size() > MAX_TOKEN_BUCKETS;
+				}
+
+			};
+
+	private final Object concurrencyMonitor = new Object();
+
+	private final Set<ConcurrencyPermit> streamingPermits = ConcurrentHashMap.newKeySet();
+
+	private volatile double requestsPerSecond;
+
+	private volatile int burst = 100;
+
+	private int prefixDepth = 1;
+
+	private int minConcurrency = 1;
+
+	private int maxConcurrency = 256;
+
+	private double backoffRatio = 0.5;
+
+	private volatile long streamTimeoutNanos = TimeUnit.MINUTES.toNanos(10);
+
+	private double concurrencyLimit = 16;
+
+	private int inFlight;
+
+	private long lastBackoffTime = System.nanoTime();
+
+	public RateLimitingRequestHandler(double requestsPerSecond) {
+		setRequestsPerSecond(requestsPerSecond);
+	}
+
+	public void setRequestsPerSecond(double requestsPerSecond) {
+		Assert.isTrue(requestsPerSecond > 0, "'requestsPerSecond' must be greater than 0");
+		this.requestsPerSecond = requestsPerSecond;
+		synchronized (this.tokenBuckets) {
+			this.tokenBuckets.clear();
+		}
+	}
+
+	public double getRequestsPerSecond() {
+		return this.requestsPerSecond;
+	}
+
+	public void setBurst(int burst) {
+		Assert.isTrue(burst > 0, "'burst' must be greater than 0");
+		this.burst = burst;
+		synchronized (this.tokenBuckets) {
+			this.tokenBuckets.clear();
+		}
+	}
+
+	public int getBurst() {
+		return this.burst;
+	}
+
+	public void setPrefixDepth(int prefixDepth) {
+		Assert.isTrue(prefixDepth >= 0, "'prefixDepth' must not be negative");
+		this.prefixDepth = prefixDepth;
+	}
+
+	/**
+	 * Set the bounds and the initial value of the concurrency limit.
+	 * @param initialConcurrency the initial number of concurrent requests.
+	 * @param minConcurrency the lower bound for the number of concurrent requests.
+	 * @param maxConcurrency the upper bound for the number of concurrent requests.
+	 */
+	public void setConcurrency(int initialConcurrency, int minConcurrency, int maxConcurrency) {
+		Assert.isTrue(minConcurrency > 0, "'minConcurrency' must be greater than 0");
+		Assert.isTrue(minConcurrency <= initialConcurrency && initialConcurrency <= maxConcurrency,
+				"'initialConcurrency' must be between 'minConcurrency' and 'maxConcurrency'");
+		synchronized (this.concurrencyMonitor) {
+			this.minConcurrency = minConcurrency;
+			this.maxConcurrency = maxConcurrency;
+			this.concurrencyLimit = initialConcurrency;
+			this.concurrencyMonitor.notifyAll();
+		}
+	}
+
+	public void setBackoffRatio(double backoffRatio) {
+		Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "'backoffRatio' must be between 0 and 1");
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * Set the time after which the concurrency permit of a response content stream
+	 * which is not closed is reclaimed.
+	 * @param streamTimeout the time in milliseconds.
+	 */
+	public void setStreamTimeout(long streamTimeout) {
+		Assert.isTrue(streamTimeout > 0, "'streamTimeout' must be greater than 0");
+		this.streamTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(streamTimeout);
+	}
+
+	/**
+	 * Return the current number of concurrent requests allowed.
+	 * @return the concurrency limit.
+	 */
+	public int getConcurrencyLimit() {
+		synchronized (this.concurrencyMonitor) {
+			return (int) this.concurrencyLimit;
+		}
+	}
+
+	/**
+	 * Return the number of requests in flight.
+	 * @return the number of requests in flight.
+	 */
+	public int getInFlight() {
+		synchronized (this.concurrencyMonitor) {
+			return this.inFlight;
+		}
+	}
+
+	@Override
+	public void beforeAttempt(HandlerBeforeAttemptContext context) {
+		Request<?> request = context.getRequest();
+		String prefix = prefixOf(request.getOriginalRequest());
+		try {
+			long waitNanos = tokenBucket(prefix).reserve();
+			if (waitNanos > 0) {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			}
+			acquireConcurrencyPermit();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new AbortedException("Interrupted while waiting for Amazon S3 rate limit", ex);
+		}
+		request.addHandlerContext(CONCURRENCY_PERMIT_KEY, new ConcurrencyPermit(System.nanoTime(), prefix));
+	}
+
+	@Override
+	public HttpResponse beforeUnmarshalling(Request<?> request, HttpResponse httpResponse) {
+		ConcurrencyPermit permit = request.getHandlerContext(CONCURRENCY_PERMIT_KEY);
+		AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+		if (permit != null && httpResponse.getContent() != null
+				&& (originalRequest instanceof GetObjectRequest
+				|| originalRequest instanceof SelectObjectContentRequest)) {
+
+			permit.streaming = true;
+			permit.streamStart = System.nanoTime();
+			this.streamingPermits.add(permit);
+			httpResponse.setContent(new FilterInputStream(httpResponse.getContent()) {
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						RateLimitingRequestHandler.this.streamingPermits.remove(permit);
+						releaseConcurrencyPermit(permit, false);
+					}
+				}
+
+			});
+		}
+		return httpResponse;
+	}
+
+	@Override
+	public void afterAttempt(HandlerAfterAttemptContext context) {
+		Request<?> request = context.getRequest();
+		ConcurrencyPermit permit = request.getHandlerContext(CONCURRENCY_PERMIT_KEY);
+		if (permit != null) {
+			request.addHandlerContext(CONCURRENCY_PERMIT_KEY, null);
+			// The permit of a successful streaming response is released when its content is closed
+			if (!permit.streaming || context.getException() != null) {
+				this.streamingPermits.remove(permit);
+				releaseConcurrencyPermit(permit, isThrottling(context.getException()));
+			}
+		}
+	}
+
+	private void acquireConcurrencyPermit() throws InterruptedException {
+		synchronized (this.concurrencyMonitor) {
+			while (this.inFlight >= (int) this.concurrencyLimit) {
+				if (!reclaimLeakedPermits()) {
+					this.concurrencyMonitor.wait(PERMIT_WAIT_TIMEOUT);
+				}
+			}
+			this.inFlight++;
+		}
+	}
+
+	private boolean reclaimLeakedPermits() {
+		boolean reclaimed = false;
+		long now = System.nanoTime();
+		for (ConcurrencyPermit permit : this.streamingPermits) {
+			if (now - permit.streamStart > this.streamTimeoutNanos && this.streamingPermits.remove(permit)
+					&& permit.released.compareAndSet(false, true)) {
+
+				this.inFlight--;
+				reclaimed = true;
+				LOGGER.warn("The content stream of an Amazon S3 response for '" + permit.prefix
+						+ "' has not been closed for " + TimeUnit.NANOSECONDS.toMillis(now - permit.streamStart)
+						+ " ms; reclaiming its concurrency permit. "
+						+ "The content streams of the S3Object and SelectObjectContentResult must be closed.");
+			}
+		}
+		return reclaimed;
+	}
+
+	private void releaseConcurrencyPermit(ConcurrencyPermit permit, boolean throttled) {
+		if (!permit.released.compareAndSet(false, true)) {
+			return;
+		}
+		synchronized (this.concurrencyMonitor) {
+			this.inFlight--;
+			if (throttled) {
+				// The attempts started before the previous back off have been throttled by the same overload
+				if (permit.attemptStart - this.lastBackoffTime > 0) {
+					this.concurrencyLimit = Math.max(this.minConcurrency, this.concurrencyLimit * this.backoffRatio);
+					this.lastBackoffTime = System.nanoTime();
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Amazon S3 request is throttled; the concurrency limit is decreased to "
+								+ (int) this.concurrencyLimit);
+					}
+				}
+			}
+			else {
+				this.concurrencyLimit =
+						Math.min(this.maxConcurrency, this.concurrencyLimit + 1 / this.concurrencyLimit);
+			}
+			this.concurrencyMonitor.notifyAll();
+		}
+	}
+
+	private TokenBucket tokenBucket(String prefix) {
+		synchronized (this.tokenBuckets) {
+			return this.tokenBuckets.computeIfAbsent(prefix,
+					key -> new TokenBucket(this.requestsPerSecond, this.burst));
+		}
+	}
+
+	private String prefixOf(AmazonWebServiceRequest request) {
+		String bucket = null;
+		String key = null;
+		if (request instanceof GetObjectRequest) {
+			bucket = ((GetObjectRequest) request).getBucketName();
+			key = ((GetObjectRequest) request).getKey();
+		}
+		else if (request instanceof GetObjectMetadataRequest) {
+			bucket = ((GetObjectMetadataRequest) request).getBucketName();
+			key = ((GetObjectMetadataRequest) request).getKey();
+		}
+		else if (request instanceof SelectObjectContentRequest) {
+			bucket = ((SelectObjectContentRequest) request).getBucketName();
+			key = ((SelectObjectContentRequest) request).getKey();
+		}
+		else if (request instanceof AbstractPutObjectRequest) {
+			bucket = ((AbstractPutObjectRequest) request).getBucketName();
+			key = ((AbstractPutObjectRequest) request).getKey();
+		}
+		else if (request instanceof InitiateMultipartUploadRequest) {
+			bucket = ((InitiateMultipartUploadRequest) request).getBucketName();
+			key = ((InitiateMultipartUploadRequest) request).getKey();
+		}
+		else if (request instanceof UploadPartRequest) {
+			bucket = ((UploadPartRequest) request).getBucketName();
+			key = ((UploadPartRequest) request).getKey();
+		}
+		else if (request instanceof CompleteMultipartUploadRequest) {
+			bucket = ((CompleteMultipartUploadRequest) request).getBucketName();
+			key = ((CompleteMultipartUploadRequest) request).getKey();
+		}
+		else if (request instanceof AbortMultipartUploadRequest) {
+			bucket = ((AbortMultipartUploadRequest) request).getBucketName();
+			key = ((AbortMultipartUploadRequest) request).getKey();
+		}
+		else if (request instanceof CopyObjectRequest) {
+			bucket = ((CopyObjectRequest) request).getDestinationBucketName();
+			key = ((CopyObjectRequest) request).getDestinationKey();
+		}
+		else if (request instanceof DeleteObjectRequest) {
+			bucket = ((DeleteObjectRequest) request).getBucketName();
+			key = ((DeleteObjectRequest) request).getKey();
+		}
+		else if (request instanceof ListObjectsRequest) {
+			bucket = ((ListObjectsRequest) request).getBucketName();
+			key = ((ListObjectsRequest) request).getPrefix();
+		}
+		else if (request instanceof ListObjectsV2Request) {
+			bucket = ((ListObjectsV2Request) request).getBucketName();
+			key = ((ListObjectsV2Request) request).getPrefix();
+		}
+		else if (request instanceof GenericBucketRequest) {
+			bucket = ((GenericBucketRequest) request).getBucketName();
+		}
+		int end = -1;
+		if (key != null) {
+			for (int i = 0; i < this.prefixDepth; i++) {
+				int next = key.indexOf('/', end + 1);
+				if (next < 0) {
+					break;
+				}
+				end = next;
+			}
+		}
+		return bucket + '/' + (end < 0 ? "" : key.substring(0, end + 1));
+	}
+
+	private static boolean isThrottling(Exception exception) {
+		if (exception instanceof AmazonServiceException) {
+			AmazonServiceException serviceException = (AmazonServiceException) exception;
+			return serviceException.getStatusCode() == 503 || RetryUtils.isThrottlingException(serviceException);
+		}
+		return false;
+	}
+
+	/**
+	 * The concurrency permit of a request attempt, released only once.
+	 */
+	private static final class ConcurrencyPermit {
+
+		private final long attemptStart;
+
+		private final String prefix;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private volatile boolean streaming;
+
+		private volatile long streamStart;
+
+		ConcurrencyPermit(long attemptStart, String prefix) {
+			this.attemptStart = attemptStart;
+			this.prefix = prefix;
+		}
+
+	}
+
+	/**
+	 * The token bucket which lends tokens in advance: a caller reserves a token
+	 * and waits for the returned time if the bucket is empty.
+	 */
+	private static final class TokenBucket {
+
+		private final double tokensPerNano;
+
+		private final int capacity;
+
+		private double tokens;
+
+		private long lastRefillTime = System.nanoTime();
+
+		TokenBucket(double requestsPerSecond, int capacity) {
+			this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.capacity = capacity;
+			this.tokens = capacity;
+		}
+
+		synchronized long reserve() {
+			long now = System.nanoTime();
+			this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefillTime) * this.tokensPerNano);
+			this.lastRefillTime = now;
+			this.tokens -= 1;
+			return this.tokens >= 0 ? 0 : (long) (-this.tokens / this.tokensPerNano);
+		}
+
+	}
+
+}
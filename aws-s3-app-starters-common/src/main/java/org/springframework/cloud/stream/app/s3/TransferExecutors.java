@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Factory methods for the {@link ExecutorService}s running blocking Amazon S3 transfers.
+ * <p>
+ * The virtual threads are looked up reflectively, so these starters still can be
+ * compiled and run on Java 8; the platform thread pool is used when the Java runtime
+ * doesn't support virtual threads. They are a preview API on Java 19 and 20, so only
+ * Java 21 and later are considered as supporting them.
+ *
+ * @author agent
+ */
+public final class TransferExecutors {
+
+	private static final Log LOGGER = LogFactory.getLog(TransferExecutors.class);
+
+	private static final int VIRTUAL_THREADS_JAVA_VERSION = 21;
+
+	private static final Method OF_VIRTUAL_METHOD =
+			ofVirtualMethod(System.getProperty("java.specification.version"));
+
+	private TransferExecutors() {
+	}
+
+	/**
+	 * Create an {@link ExecutorService} for transfer tasks.
+	 * @param threadNamePrefix the prefix for thread names.
+	 * @param poolSize the number of platform threads; ignored for virtual threads.
+	 * @param virtualThreads whether to start a new virtual thread for each task.
+	 * @return the {@link ExecutorService}.
+	 */
+	public static ExecutorService create(String threadNamePrefix, int poolSize, boolean virtualThreads) {
+		return create(threadNamePrefix, poolSize, virtualThreads, OF_VIRTUAL_METHOD);
+	}
+
+	static ExecutorService create(String threadNamePrefix, int poolSize, boolean virtualThreads,
+			Method ofVirtualMethod) {
+
+		if (virtualThreads) {
+			if (ofVirtualMethod != null) {
+				return newVirtualThreadPerTaskExecutor(threadNamePrefix, ofVirtualMethod);
+			}
+			LOGGER.warn("Virtual threads are not supported by the current Java runtime; " +
+					"a pool of " + poolSize + " platform threads is used for '" + threadNamePrefix + "' instead.");
+		}
+		return Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory(threadNamePrefix));
+	}
+
+	/**
+	 * Check if the current Java runtime supports virtual threads.
+	 * @return true if virtual threads are supported.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return OF_VIRTUAL_METHOD != null;
+	}
+
+	static Method ofVirtualMethod(String javaSpecificationVersion) {
+		int javaVersion;
+		try {
+			// Java 8 is '1.8'
+			javaVersion = javaSpecificationVersion.startsWith("1.") ? 8 : Integer.parseInt(javaSpecificationVersion);
+		}
+		catch (RuntimeException ex) {
+			return null;
+		}
+		return javaVersion >= VIRTUAL_THREADS_JAVA_VERSION
+				? ClassUtils.getMethodIfAvailable(Thread.class, "ofVirtual")
+				: null;
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor(String threadNamePrefix, Method ofVirtualMethod) {
+		try {
+			Object builder = ofVirtualMethod.invoke(null);
+			Class<?> builderClass = ClassUtils.forName("java.lang.Thread$Builder", null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, threadFactory);
+		}
+		catch (Exception ex) {
+			throw new IllegalStateException("Cannot create virtual thread executor for '" + threadNamePrefix + "'", ex);
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import org.springframework.util.Assert;
+
+/**
+ * The view of an {@link ExecutorService} running S3 transfers for the
+ * {@link AmazonS3TuningEndpoint}: its state, throughput and concurrency.
+ * <p>
+ * Changing the concurrency resizes the {@link ThreadPoolExecutor} and notifies the
+ * concurrency listener, e.g. the component which starts that number of workers.
+ * The executors with a virtual thread per task are not resized.
+ *
+ * @author agent
+ */
+public class TransferPool {
+
+	private final ExecutorService executor;
+
+	private final IntSupplier queueDepth;
+
+	private final LongSupplier completed;
+
+	private volatile int concurrency;
+
+	private IntConsumer concurrencyListener = concurrency -> { };
+
+	private long lastCompleted;
+
+	private long lastSampleTime = System.nanoTime();
+
+	/**
+	 * Create an instance for the {@link ExecutorService} with its task queue and completed tasks.
+	 * @param executor the {@link ExecutorService} running the transfers.
+	 * @param concurrency the current concurrency.
+	 */
+	public TransferPool(ExecutorService executor, int concurrency) {
+		this(executor, concurrency, () -> queueSize(executor), () -> completedTaskCount(executor));
+	}
+
+	/**
+	 * Create an instance for the {@link ExecutorService}.
+	 * @param executor the {@link ExecutorService} running the transfers.
+	 * @param concurrency the current concurrency.
+	 * @param queueDepth the supplier of the number of the transfers waiting for a worker.
+	 * @param completed the supplier of the number of the completed transfers.
+	 */
+	public TransferPool(ExecutorService executor, int concurrency, IntSupplier queueDepth, LongSupplier completed) {
+		Assert.notNull(executor, "'executor' must not be null");
+		Assert.notNull(queueDepth, "'queueDepth' must not be null");
+		Assert.notNull(completed, "'completed' must not be null");
+		this.executor = executor;
+		this.concurrency = concurrency;
+		this.queueDepth = queueDepth;
+		this.completed = completed;
+		this.lastCompleted = completed.getAsLong();
+	}
+
+	/**
+	 * Set the listener to be notified with the new concurrency.
+	 * @param concurrencyListener the listener.
+	 */
+	public void setConcurrencyListener(IntConsumer concurrencyListener) {
+		Assert.notNull(concurrencyListener, "'concurrencyListener' must not be null");
+		this.concurrencyListener = concurrencyListener;
+	}
+
+	public int getConcurrency() {
+		return this.concurrency;
+	}
+
+	/**
+	 * Change the concurrency of the pool.
+	 * @param concurrency the new concurrency.
+	 */
+	public synchronized void setConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "'concurrency' must be greater than 0");
+		if (this.executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) this.executor;
+			// The core pool size must never exceed the maximum one
+			if (concurrency > threadPoolExecutor.getMaximumPoolSize()) {
+				threadPoolExecutor.setMaximumPoolSize(concurrency);
+				threadPoolExecutor.setCorePoolSize(concurrency);
+			}
+			else {
+				threadPoolExecutor.setCorePoolSize(concurrency);
+				threadPoolExecutor.setMaximumPoolSize(concurrency);
+			}
+		}
+		this.concurrency = concurrency;
+		this.concurrencyListener.accept(concurrency);
+	}
+
+	/**
+	 * Return the state of the pool; the throughput is the number of the transfers
+	 * completed per second since the previous call.
+	 * @return the state of the pool.
+	 */
+	public synchronized Map<String, Object> describe() {
+		long now = System.nanoTime();
+		long completed = this.completed.getAsLong();
+		double elapsedSeconds = (now - this.lastSampleTime) / 1e9;
+		double throughput = elapsedSeconds > 0 ? (completed - this.lastCompleted) / elapsedSeconds : 0;
+		this.lastCompleted = completed;
+		this.lastSampleTime = now;
+
+		Map<String, Object> description = new LinkedHashMap<>();
+		description.put("concurrency", this.concurrency);
+		if (this.executor instanceof ThreadPoolExecutor) {
+			description.put("activeThreads", ((ThreadPoolExecutor) this.executor).getActiveCount());
+			description.put("poolSize", ((ThreadPoolExecutor) this.executor).getPoolSize());
+		}
+		description.put("queueDepth", this.queueDepth.getAsInt());
+		description.put("completed", completed);
+		description.put("throughput", Math.round(throughput * 100) / 100.0);
+		return description;
+	}
+
+	private static int queueSize(ExecutorService executor) {
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+	}
+
+	private static long completedTaskCount(ExecutorService executor) {
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getCompletedTaskCount() : 0;
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+
+/**
+ * @author agent
+ */
+public class AmazonS3TuningEndpointTests {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDisabledTransferPoolIsReportedAndNotTuned() {
+		AmazonS3TuningEndpoint tuningEndpoint = new AmazonS3TuningEndpoint();
+		tuningEndpoint.addDisabledTransferPool("download", "Enable it with 's3.pipeline.enabled=true'");
+
+		Map<String, Object> download =
+				(Map<String, Object>) ((Map<String, Object>) tuningEndpoint.tuning().get("transferPools"))
+						.get("download");
+		assertEquals(false, download.get("enabled"));
+		assertEquals("Enable it with 's3.pipeline.enabled=true'", download.get("hint"));
+		assertEquals(download, tuningEndpoint.transferPool("download"));
+
+		try {
+			tuningEndpoint.tuneTransferPool("download", 4);
+			fail("InvalidEndpointRequestException expected");
+		}
+		catch (InvalidEndpointRequestException ex) {
+			assertEquals("The download transfer pool is not enabled", ex.getMessage());
+		}
+
+		assertNull(tuningEndpoint.transferPool("upload"));
+		assertNull(tuningEndpoint.tuneTransferPool("upload", 4));
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+/**
+ * @author agent
+ */
+public class RateLimitingRequestHandlerTests {
+
+	@Test
+	public void testTokensRefilledAtRequestRate() {
+		RateLimitingRequestHandler handler = new RateLimitingRequestHandler(10);
+		handler.setBurst(1);
+
+		long start = System.nanoTime();
+		attempt(handler, new GetObjectRequest("bucket", "a/1"), null);
+		// The other prefix has its own token bucket
+		attempt(handler, new GetObjectRequest("bucket", "b/1"), null);
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+		// The empty bucket of the prefix is refilled with one token in 100 millis
+		attempt(handler, new GetObjectRequest("bucket", "a/2"), null);
+		attempt(handler, new GetObjectRequest("bucket", "a/3"), null);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+		assertEquals(0, handler.getInFlight());
+	}
+
+	@Test
+	public void testConcurrencyBackoffOnSlowDown() {
+		RateLimitingRequestHandler handler = new RateLimitingRequestHandler(1000);
+		handler.setConcurrency(8, 3, 16);
+		handler.setBackoffRatio(0.5);
+
+		Request<?> first = beforeAttempt(handler, new PutObjectRequest("bucket", "key1", "file"));
+		Request<?> second = beforeAttempt(handler, new PutObjectRequest("bucket", "key2", "file"));
+		assertEquals(2, handler.getInFlight());
+
+		afterAttempt(handler, first, slowDown());
+		assertEquals(4, handler.getConcurrencyLimit());
+
+		// Started before the back off, so throttled by the same overload
+		afterAttempt(handler, second, slowDown());
+		assertEquals(4, handler.getConcurrencyLimit());
+
+		attempt(handler, new PutObjectRequest("bucket", "key3", "file"), slowDown());
+		// Not below the minimum
+		assertEquals(3, handler.getConcurrencyLimit());
+		assertEquals(0, handler.getInFlight());
+	}
+
+	@Test
+	public void testConcurrencyRecoveredAdditively() {
+		RateLimitingRequestHandler handler = new RateLimitingRequestHandler(1000);
+		handler.setConcurrency(8, 1, 16);
+		attempt(handler, new PutObjectRequest("bucket", "key", "file"), slowDown());
+		assertEquals(4, handler.getConcurrencyLimit());
+
+		// About a limit's worth of successful attempts raises the limit by one
+		for (int i = 0; i < 4; i++) {
+			attempt(handler, new PutObjectRequest("bucket", "key", "file"), null);
+		}
+		assertEquals(4, handler.getConcurrencyLimit());
+		attempt(handler, new PutObjectRequest("bucket", "key", "file"), null);
+		assertEquals(5, handler.getConcurrencyLimit());
+
+		for (int i = 0; i < 1000; i++) {
+			attempt(handler, new PutObjectRequest("bucket", "key", "file"), null);
+		}
+		assertEquals(16, handler.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testConcurrencyPermitHeldUntilContentClosed() throws Exception {
+		RateLimitingRequestHandler handler = new RateLimitingRequestHandler(1000);
+		Request<?> request = beforeAttempt(handler, new GetObjectRequest("bucket", "key"));
+		HttpResponse httpResponse = new HttpResponse(request, null);
+		httpResponse.setStatusCode(200);
+		httpResponse.setContent(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		InputStream content = handler.beforeUnmarshalling(request, httpResponse).getContent();
+		afterAttempt(handler, request, null);
+		assertEquals(1, handler.getInFlight());
+
+		assertEquals(1, content.read());
+		content.close();
+		assertEquals(0, handler.getInFlight());
+
+		// Released only once
+		content.close();
+		assertEquals(0, handler.getInFlight());
+	}
+
+	@Test
+	public void testConcurrencyPermitOfUnclosedContentReclaimed() throws Exception {
+		RateLimitingRequestHandler handler = new RateLimitingRequestHandler(1000);
+		handler.setConcurrency(1, 1, 1);
+		handler.setStreamTimeout(100);
+		Request<?> request = beforeAttempt(handler, new GetObjectRequest("bucket", "key"));
+		HttpResponse httpResponse = new HttpResponse(request, null);
+		httpResponse.setStatusCode(200);
+		httpResponse.setContent(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		InputStream content = handler.beforeUnmarshalling(request, httpResponse).getContent();
+		afterAttempt(handler, request, null);
+		assertEquals(1, handler.getInFlight());
+
+		// The content is never closed, so the next request waits for the stream timeout
+		long start = System.nanoTime();
+		Request<?> next = beforeAttempt(handler, new GetObjectRequest("bucket", "key"));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertEquals(1, handler.getInFlight());
+
+		// Closing the reclaimed content doesn't release the permit of the next request
+		content.close();
+		assertEquals(1, handler.getInFlight());
+		afterAttempt(handler, next, null);
+		assertEquals(0, handler.getInFlight());
+	}
+
+	private static void attempt(RateLimitingRequestHandler handler, AmazonWebServiceRequest originalRequest,
+			Exception exception) {
+
+		afterAttempt(handler, beforeAttempt(handler, originalRequest), exception);
+	}
+
+	private static Request<?> beforeAttempt(RateLimitingRequestHandler handler,
+			AmazonWebServiceRequest originalRequest) {
+
+		Request<?> request = new DefaultRequest<>(originalRequest, "Amazon S3");
+		handler.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+		return request;
+	}
+
+	private static void afterAttempt(RateLimitingRequestHandler handler, Request<?> request, Exception exception) {
+		handler.afterAttempt(HandlerAfterAttemptContext.builder()
+				.withRequest(request)
+				.withException(exception)
+				.build());
+	}
+
+	private static AmazonServiceException slowDown() {
+		AmazonServiceException exception = new AmazonServiceException("Please reduce your request rate.");
+		exception.setStatusCode(503);
+		exception.setErrorCode("SlowDown");
+		return exception;
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * @author agent
+ */
+public class TransferExecutorsTests {
+
+	@Test
+	public void testVirtualThreadsNotLookedUpBeforeJava21() {
+		assertNull(TransferExecutors.ofVirtualMethod("1.8"));
+		assertNull(TransferExecutors.ofVirtualMethod("19"));
+		assertNull(TransferExecutors.ofVirtualMethod("20"));
+		assertNull(TransferExecutors.ofVirtualMethod("unknown"));
+		assertNull(TransferExecutors.ofVirtualMethod(null));
+		assertSame(ClassUtils.getMethodIfAvailable(Thread.class, "ofVirtual"),
+				TransferExecutors.ofVirtualMethod("21"));
+	}
+
+	@Test
+	public void testPlatformThreadsWhenVirtualThreadsNotSupported() throws Exception {
+		ExecutorService executorService = TransferExecutors.create("test-platform-", 3, true, null);
+		try {
+			assertTrue(executorService instanceof ThreadPoolExecutor);
+			assertEquals(3, ((ThreadPoolExecutor) executorService).getMaximumPoolSize());
+			Thread thread = executorService.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+			assertTrue(thread.getName().startsWith("test-platform-"));
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testVirtualThreadsWhenSupported() throws Exception {
+		Method ofVirtualMethod = TransferExecutors.ofVirtualMethod(System.getProperty("java.specification.version"));
+		assumeTrue(ofVirtualMethod != null);
+
+		ExecutorService executorService = TransferExecutors.create("test-virtual-", 3, true, ofVirtualMethod);
+		try {
+			Thread thread = executorService.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+			assertEquals("test-virtual-1", thread.getName());
+			assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testVirtualThreadsLookupFailure() throws Exception {
+		try {
+			TransferExecutors.create("test-failure-", 3, true, Thread.class.getMethod("getName"));
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException ex) {
+			assertTrue(ex.getMessage().contains("test-failure-"));
+		}
+	}
+
+}
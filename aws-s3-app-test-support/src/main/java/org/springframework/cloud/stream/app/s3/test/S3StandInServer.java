@@ -0,0 +1,1280 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.rules.ExternalResource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A lightweight in-process S3-compatible server for the integration and performance tests.
+ * <p>
+ * The server keeps the buckets in memory and serves the path-style S3 REST API the source
+ * and the sink rely on: ListObjects (v1 and v2) with pagination and delimiters, ranged and
+ * conditional GetObject, HeadObject, PutObject (including the aws-chunked payloads of the
+ * SDK), CopyObject, DeleteObject, the DeleteObjects batches and the multipart uploads.
+ * <p>
+ * The faults of a real S3 under load can be injected: a latency for each request, a number
+ * of the next requests or a random rate of them throttled with {@code 503 SlowDown}, a page
+ * size smaller than {@code 1000} keys to exercise the listing pagination and the keys which
+ * cannot be deleted in the DeleteObjects batches.
+ * <p>
+ * Can be used as a JUnit {@code @ClassRule} or {@code @Rule}, or started and stopped explicitly.
+ * The {@link #createClient()} provides an {@link AmazonS3} client for the server.
+ *
+ * @author agent
+ */
+public class S3StandInServer extends ExternalResource {
+
+	/**
+	 * The maximum number of keys in a listing page and in a DeleteObjects request allowed by S3.
+	 */
+	public static final int MAX_KEYS = 1000;
+
+	/**
+	 * The minimum size of a multipart upload part, except the last one, allowed by S3.
+	 */
+	public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	private static final String XML_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+	private static final String OWNER_ID = "s3-stand-in";
+
+	private static final DateTimeFormatter ISO_8601 =
+			DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).withZone(ZoneOffset.UTC);
+
+	private static final DateTimeFormatter RFC_822 =
+			DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	private final ConcurrentMap<String, ConcurrentNavigableMap<String, StoredObject>> buckets =
+			new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+	private final AtomicInteger throttledRequests = new AtomicInteger();
+
+	private final Set<String> undeletableKeys = ConcurrentHashMap.newKeySet();
+
+	private volatile long latency;
+
+	private volatile double throttlingRate;
+
+	private volatile int pageSize = MAX_KEYS;
+
+	private volatile int minPartSize = MIN_PART_SIZE;
+
+	private HttpServer httpServer;
+
+	private ExecutorService executorService;
+
+	/**
+	 * Start the server on an ephemeral port of the loopback address.
+	 */
+	public synchronized void start() {
+		if (this.httpServer == null) {
+			try {
+				this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+			}
+			catch (IOException ex) {
+				throw new UncheckedIOException("Failed to start the S3 stand-in server", ex);
+			}
+			this.executorService = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "s3-stand-in");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.httpServer.setExecutor(this.executorService);
+			this.httpServer.createContext("/", this::handle);
+			this.httpServer.start();
+		}
+	}
+
+	/**
+	 * Stop the server; the stored buckets are kept for a subsequent {@link #start()}.
+	 */
+	public synchronized void stop() {
+		if (this.httpServer != null) {
+			this.httpServer.stop(0);
+			this.executorService.shutdownNow();
+			this.httpServer = null;
+			this.executorService = null;
+		}
+	}
+
+	@Override
+	protected void before() {
+		start();
+	}
+
+	@Override
+	protected void after() {
+		stop();
+	}
+
+	/**
+	 * Return the endpoint of the started server.
+	 * @return the endpoint URL.
+	 */
+	public synchronized String getEndpoint() {
+		if (this.httpServer == null) {
+			throw new IllegalStateException("The S3 stand-in server is not started");
+		}
+		InetSocketAddress address = this.httpServer.getAddress();
+		return "http://" + address.getHostString() + ":" + address.getPort();
+	}
+
+	/**
+	 * Create a path-style {@link AmazonS3} client for the started server.
+	 * @return the client.
+	 */
+	public AmazonS3 createClient() {
+		return AmazonS3ClientBuilder.standard()
+				.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(getEndpoint(), "us-east-1"))
+				.withPathStyleAccessEnabled(true)
+				.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(OWNER_ID, OWNER_ID)))
+				.build();
+	}
+
+	/**
+	 * Remove all the buckets, the multipart uploads, the request counts and the faults.
+	 */
+	public void reset() {
+		this.buckets.clear();
+		this.uploads.clear();
+		this.requestCounts.clear();
+		this.throttledRequests.set(0);
+		this.undeletableKeys.clear();
+		this.latency = 0;
+		this.throttlingRate = 0;
+		this.pageSize = MAX_KEYS;
+		this.minPartSize = MIN_PART_SIZE;
+	}
+
+	/**
+	 * Create a bucket if it doesn't exist.
+	 * @param bucket the bucket.
+	 * @return the server.
+	 */
+	public S3StandInServer createBucket(String bucket) {
+		this.buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<>());
+		return this;
+	}
+
+	/**
+	 * Store an object, creating its bucket if it doesn't exist.
+	 * @param bucket the bucket.
+	 * @param key the key.
+	 * @param content the content.
+	 * @return the server.
+	 */
+	public S3StandInServer putObject(String bucket, String key, byte[] content) {
+		createBucket(bucket);
+		this.buckets.get(bucket).put(key, new StoredObject(content, null, Collections.emptyMap()));
+		return this;
+	}
+
+	/**
+	 * Return the content of the stored object.
+	 * @param bucket the bucket.
+	 * @param key the key.
+	 * @return the content or null if there is no such an object.
+	 */
+	public byte[] getObject(String bucket, String key) {
+		NavigableMap<String, StoredObject> objects = this.buckets.get(bucket);
+		StoredObject object = objects != null ? objects.get(key) : null;
+		return object != null ? object.content.clone() : null;
+	}
+
+	/**
+	 * Return the keys of the bucket in the lexicographical order.
+	 * @param bucket the bucket.
+	 * @return the keys; empty if there is no such a bucket.
+	 */
+	public List<String> getKeys(String bucket) {
+		NavigableMap<String, StoredObject> objects = this.buckets.get(bucket);
+		return objects != null ? new ArrayList<>(objects.keySet()) : Collections.emptyList();
+	}
+
+	/**
+	 * Return the number of the multipart uploads initiated and neither completed nor aborted yet.
+	 * @return the number of the multipart uploads.
+	 */
+	public int getPendingUploads() {
+		return this.uploads.size();
+	}
+
+	/**
+	 * Return the number of the requests received for the S3 operation, including the throttled ones.
+	 * @param operation the S3 operation, e.g. {@code ListObjectsV2}, {@code UploadPart}, {@code DeleteObjects}.
+	 * @return the number of the requests.
+	 */
+	public int getRequestCount(String operation) {
+		AtomicInteger count = this.requestCounts.get(operation);
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * Delay each request.
+	 * @param latency the delay in milliseconds.
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Reject the fraction of the requests with {@code 503 SlowDown}.
+	 * @param throttlingRate the fraction of the requests between 0 and 1.
+	 */
+	public void setThrottlingRate(double throttlingRate) {
+		if (throttlingRate < 0 || throttlingRate > 1) {
+			throw new IllegalArgumentException("'throttlingRate' must be between 0 and 1");
+		}
+		this.throttlingRate = throttlingRate;
+	}
+
+	/**
+	 * Reject the next requests with {@code 503 SlowDown}.
+	 * @param requests the number of the requests to reject.
+	 */
+	public void throttleNext(int requests) {
+		this.throttledRequests.set(requests);
+	}
+
+	/**
+	 * Limit the number of the keys in a listing page below the S3 maximum of {@code 1000}.
+	 * @param pageSize the number of the keys.
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize < 1 || pageSize > MAX_KEYS) {
+			throw new IllegalArgumentException("'pageSize' must be between 1 and " + MAX_KEYS);
+		}
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Change the minimum size of the multipart upload parts, except the last one.
+	 * @param minPartSize the size in bytes.
+	 */
+	public void setMinPartSize(int minPartSize) {
+		this.minPartSize = minPartSize;
+	}
+
+	/**
+	 * Report the keys as failed with {@code AccessDenied} in the DeleteObjects batches.
+	 * @param keys the keys which cannot be deleted.
+	 */
+	public void failDeletesOf(String... keys) {
+		this.undeletableKeys.addAll(Arrays.asList(keys));
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			exchange.getResponseHeaders().set("x-amz-request-id", UUID.randomUUID().toString());
+			Request request = new Request(exchange);
+			String operation = operation(request);
+			if (operation == null) {
+				throw new S3Exception(501, "NotImplemented",
+						"The " + request.method + " request is not supported by the S3 stand-in server");
+			}
+			this.requestCounts.computeIfAbsent(operation, o -> new AtomicInteger()).incrementAndGet();
+			injectFaults();
+			dispatch(operation, request, exchange);
+		}
+		catch (S3Exception ex) {
+			sendError(exchange, ex);
+		}
+		catch (RuntimeException ex) {
+			sendError(exchange, new S3Exception(500, "InternalError", ex.toString()));
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private void injectFaults() {
+		long delay = this.latency;
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (this.throttledRequests.getAndUpdate(remaining -> Math.max(remaining - 1, 0)) > 0
+				|| ThreadLocalRandom.current().nextDouble() < this.throttlingRate) {
+
+			throw new S3Exception(503, "SlowDown", "Please reduce your request rate.");
+		}
+	}
+
+	private static String operation(Request request) {
+		if (request.bucket == null) {
+			return "GET".equals(request.method) ? "ListBuckets" : null;
+		}
+		if (request.key == null) {
+			switch (request.method) {
+				case "PUT":
+					return "CreateBucket";
+				case "HEAD":
+					return "HeadBucket";
+				case "DELETE":
+					return "DeleteBucket";
+				case "POST":
+					return request.query.containsKey("delete") ? "DeleteObjects" : null;
+				case "GET":
+					if (request.query.containsKey("uploads")) {
+						return "ListMultipartUploads";
+					}
+					else if (request.query.containsKey("location")) {
+						return "GetBucketLocation";
+					}
+					else if (request.query.containsKey("acl")) {
+						return "GetBucketAcl";
+					}
+					return "2".equals(request.query.get("list-type")) ? "ListObjectsV2" : "ListObjects";
+				default:
+					return null;
+			}
+		}
+		switch (request.method) {
+			case "PUT":
+				if (request.query.containsKey("uploadId")) {
+					return "UploadPart";
+				}
+				else if (request.query.containsKey("acl")) {
+					return "PutObjectAcl";
+				}
+				return request.header("x-amz-copy-source") != null ? "CopyObject" : "PutObject";
+			case "GET":
+				return request.query.containsKey("acl") ? "GetObjectAcl" : "GetObject";
+			case "HEAD":
+				return "HeadObject";
+			case "POST":
+				if (request.query.containsKey("uploads")) {
+					return "CreateMultipartUpload";
+				}
+				return request.query.containsKey("uploadId") ? "CompleteMultipartUpload" : null;
+			case "DELETE":
+				return request.query.containsKey("uploadId") ? "AbortMultipartUpload" : "DeleteObject";
+			default:
+				return null;
+		}
+	}
+
+	private void dispatch(String operation, Request request, HttpExchange exchange) throws IOException {
+		switch (operation) {
+			case "ListBuckets":
+				listBuckets(exchange);
+				break;
+			case "CreateBucket":
+				createBucket(request.bucket);
+				exchange.getResponseHeaders().set("Location", "/" + request.bucket);
+				send(exchange, 200, null);
+				break;
+			case "HeadBucket":
+				bucket(request.bucket);
+				send(exchange, 200, null);
+				break;
+			case "DeleteBucket":
+				deleteBucket(request, exchange);
+				break;
+			case "GetBucketLocation":
+				bucket(request.bucket);
+				send(exchange, 200, xml("LocationConstraint", new StringBuilder()));
+				break;
+			case "GetBucketAcl":
+				bucket(request.bucket);
+				send(exchange, 200, accessControlPolicy());
+				break;
+			case "ListObjects":
+			case "ListObjectsV2":
+				listObjects(request, exchange, "ListObjectsV2".equals(operation));
+				break;
+			case "DeleteObjects":
+				deleteObjects(request, exchange);
+				break;
+			case "ListMultipartUploads":
+				listMultipartUploads(request, exchange);
+				break;
+			case "PutObject":
+				putObject(request, exchange);
+				break;
+			case "CopyObject":
+				copyObject(request, exchange);
+				break;
+			case "PutObjectAcl":
+				object(request.bucket, request.key);
+				send(exchange, 200, null);
+				break;
+			case "GetObjectAcl":
+				object(request.bucket, request.key);
+				send(exchange, 200, accessControlPolicy());
+				break;
+			case "GetObject":
+			case "HeadObject":
+				getObject(request, exchange, "HeadObject".equals(operation));
+				break;
+			case "DeleteObject":
+				bucket(request.bucket).remove(request.key);
+				send(exchange, 204, null);
+				break;
+			case "CreateMultipartUpload":
+				createMultipartUpload(request, exchange);
+				break;
+			case "UploadPart":
+				uploadPart(request, exchange);
+				break;
+			case "CompleteMultipartUpload":
+				completeMultipartUpload(request, exchange);
+				break;
+			case "AbortMultipartUpload":
+				upload(request);
+				this.uploads.remove(request.query.get("uploadId"));
+				send(exchange, 204, null);
+				break;
+			default:
+				throw new S3Exception(501, "NotImplemented", operation + " is not supported by the S3 stand-in server");
+		}
+	}
+
+	private void listBuckets(HttpExchange exchange) throws IOException {
+		StringBuilder content = new StringBuilder();
+		owner(content, "Owner");
+		content.append("<Buckets>");
+		this.buckets.keySet().stream().sorted().forEach(bucket ->
+				content.append("<Bucket>")
+						.append(element("Name", bucket))
+						.append(element("CreationDate", ISO_8601.format(Instant.EPOCH)))
+						.append("</Bucket>"));
+		content.append("</Buckets>");
+		send(exchange, 200, xml("ListAllMyBucketsResult", content));
+	}
+
+	private void deleteBucket(Request request, HttpExchange exchange) throws IOException {
+		if (!bucket(request.bucket).isEmpty()) {
+			throw new S3Exception(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+		}
+		this.buckets.remove(request.bucket);
+		send(exchange, 204, null);
+	}
+
+	private void listObjects(Request request, HttpExchange exchange, boolean v2) throws IOException {
+		NavigableMap<String, StoredObject> objects = bucket(request.bucket);
+		String prefix = request.query.getOrDefault("prefix", "");
+		String delimiter = request.query.get("delimiter");
+		boolean urlEncoding = "url".equals(request.query.get("encoding-type"));
+		int maxKeys = Math.min(Integer.parseInt(request.query.getOrDefault("max-keys", "" + MAX_KEYS)), this.pageSize);
+		String continuationToken = request.query.get("continuation-token");
+		String marker;
+		if (!v2) {
+			marker = request.query.get("marker");
+		}
+		else if (continuationToken != null) {
+			marker = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+		}
+		else {
+			marker = request.query.get("start-after");
+		}
+
+		Listing listing = list(objects, prefix, delimiter, marker, maxKeys);
+
+		StringBuilder content = new StringBuilder()
+				.append(element("Name", request.bucket))
+				.append(element("Prefix", encode(prefix, urlEncoding)));
+		if (v2) {
+			content.append(element("KeyCount", "" + (listing.objects.size() + listing.commonPrefixes.size())));
+			if (continuationToken != null) {
+				content.append(element("ContinuationToken", continuationToken));
+			}
+			if (request.query.containsKey("start-after")) {
+				content.append(element("StartAfter", encode(request.query.get("start-after"), urlEncoding)));
+			}
+			if (listing.truncated) {
+				content.append(element("NextContinuationToken",
+						Base64.getUrlEncoder().encodeToString(listing.nextMarker.getBytes(StandardCharsets.UTF_8))));
+			}
+		}
+		else {
+			content.append(element("Marker", encode(marker != null ? marker : "", urlEncoding)));
+			if (listing.truncated) {
+				content.append(element("NextMarker", encode(listing.nextMarker, urlEncoding)));
+			}
+		}
+		content.append(element("MaxKeys", "" + maxKeys));
+		if (delimiter != null) {
+			content.append(element("Delimiter", encode(delimiter, urlEncoding)));
+		}
+		if (urlEncoding) {
+			content.append(element("EncodingType", "url"));
+		}
+		content.append(element("IsTruncated", "" + listing.truncated));
+		boolean fetchOwner = !v2 || "true".equals(request.query.get("fetch-owner"));
+		for (Map.Entry<String, StoredObject> entry : listing.objects) {
+			StoredObject object = entry.getValue();
+			content.append("<Contents>")
+					.append(element("Key", encode(entry.getKey(), urlEncoding)))
+					.append(element("LastModified", ISO_8601.format(object.lastModified)))
+					.append(element("ETag", quote(object.eTag)))
+					.append(element("Size", "" + object.content.length));
+			if (fetchOwner) {
+				owner(content, "Owner");
+			}
+			content.append(element("StorageClass", "STANDARD"))
+					.append("</Contents>");
+		}
+		for (String commonPrefix : listing.commonPrefixes) {
+			content.append("<CommonPrefixes>")
+					.append(element("Prefix", encode(commonPrefix, urlEncoding)))
+					.append("</CommonPrefixes>");
+		}
+		send(exchange, 200, xml("ListBucketResult", content));
+	}
+
+	private static Listing list(NavigableMap<String, StoredObject> objects, String prefix, String delimiter,
+			String marker, int maxKeys) {
+
+		Listing listing = new Listing();
+		NavigableMap<String, StoredObject> candidates = objects;
+		if (marker != null && marker.compareTo(prefix) >= 0) {
+			candidates = objects.tailMap(marker, false);
+		}
+		else if (!prefix.isEmpty()) {
+			candidates = objects.tailMap(prefix, true);
+		}
+		// The keys under the common prefix of the previous page are rolled into it already
+		String lastCommonPrefix =
+				delimiter != null && marker != null && marker.endsWith(delimiter) ? marker : null;
+		for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+			String key = entry.getKey();
+			if (!key.startsWith(prefix)) {
+				break;
+			}
+			String commonPrefix = null;
+			if (delimiter != null && !delimiter.isEmpty()) {
+				int index = key.indexOf(delimiter, prefix.length());
+				if (index >= 0) {
+					commonPrefix = key.substring(0, index + delimiter.length());
+				}
+			}
+			if (commonPrefix != null && commonPrefix.equals(lastCommonPrefix)) {
+				continue;
+			}
+			if (listing.objects.size() + listing.commonPrefixes.size() >= maxKeys) {
+				listing.truncated = true;
+				break;
+			}
+			if (commonPrefix != null) {
+				listing.commonPrefixes.add(commonPrefix);
+				lastCommonPrefix = commonPrefix;
+				listing.nextMarker = commonPrefix;
+			}
+			else {
+				listing.objects.add(entry);
+				listing.nextMarker = key;
+			}
+		}
+		return listing;
+	}
+
+	private void deleteObjects(Request request, HttpExchange exchange) throws IOException {
+		NavigableMap<String, StoredObject> objects = bucket(request.bucket);
+		Element delete = parse(request.body).getDocumentElement();
+		boolean quiet = "true".equals(text(delete, "Quiet"));
+		NodeList keys = delete.getElementsByTagName("Key");
+		if (keys.getLength() > MAX_KEYS) {
+			throw new S3Exception(400, "MalformedXML", "The DeleteObjects request must not contain more than "
+					+ MAX_KEYS + " keys");
+		}
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < keys.getLength(); i++) {
+			String key = keys.item(i).getTextContent();
+			if (this.undeletableKeys.contains(key)) {
+				content.append("<Error>")
+						.append(element("Key", key))
+						.append(element("Code", "AccessDenied"))
+						.append(element("Message", "Access Denied"))
+						.append("</Error>");
+			}
+			else {
+				objects.remove(key);
+				if (!quiet) {
+					content.append("<Deleted>")
+							.append(element("Key", key))
+							.append("</Deleted>");
+				}
+			}
+		}
+		send(exchange, 200, xml("DeleteResult", content));
+	}
+
+	private void listMultipartUploads(Request request, HttpExchange exchange) throws IOException {
+		bucket(request.bucket);
+		String prefix = request.query.getOrDefault("prefix", "");
+		StringBuilder content = new StringBuilder()
+				.append(element("Bucket", request.bucket))
+				.append(element("KeyMarker", ""))
+				.append(element("UploadIdMarker", ""))
+				.append(element("Prefix", prefix))
+				.append(element("MaxUploads", "" + MAX_KEYS))
+				.append(element("IsTruncated", "false"));
+		this.uploads.forEach((uploadId, upload) -> {
+			if (upload.bucket.equals(request.bucket) && upload.key.startsWith(prefix)) {
+				content.append("<Upload>")
+						.append(element("Key", upload.key))
+						.append(element("UploadId", uploadId));
+				owner(content, "Initiator");
+				owner(content, "Owner");
+				content.append(element("StorageClass", "STANDARD"))
+						.append(element("Initiated", ISO_8601.format(upload.initiated)))
+						.append("</Upload>");
+			}
+		});
+		send(exchange, 200, xml("ListMultipartUploadsResult", content));
+	}
+
+	private void putObject(Request request, HttpExchange exchange) throws IOException {
+		NavigableMap<String, StoredObject> objects = bucket(request.bucket);
+		byte[] content = request.payload();
+		StoredObject object = new StoredObject(content, request.header("Content-Type"), request.userMetadata());
+		objects.put(request.key, object);
+		exchange.getResponseHeaders().set("ETag", quote(object.eTag));
+		send(exchange, 200, null);
+	}
+
+	private void copyObject(Request request, HttpExchange exchange) throws IOException {
+		String source = decode(request.header("x-amz-copy-source"));
+		if (source.startsWith("/")) {
+			source = source.substring(1);
+		}
+		int slash = source.indexOf('/');
+		if (slash < 0) {
+			throw new S3Exception(400, "InvalidArgument", "Invalid copy source: " + source);
+		}
+		StoredObject sourceObject = object(source.substring(0, slash), source.substring(slash + 1));
+		NavigableMap<String, StoredObject> objects = bucket(request.bucket);
+		StoredObject object = "REPLACE".equals(request.header("x-amz-metadata-directive"))
+				? new StoredObject(sourceObject.content, request.header("Content-Type"), request.userMetadata())
+				: new StoredObject(sourceObject.content, sourceObject.contentType, sourceObject.userMetadata);
+		objects.put(request.key, object);
+		StringBuilder content = new StringBuilder()
+				.append(element("LastModified", ISO_8601.format(object.lastModified)))
+				.append(element("ETag", quote(object.eTag)));
+		send(exchange, 200, xml("CopyObjectResult", content));
+	}
+
+	private void getObject(Request request, HttpExchange exchange, boolean head) throws IOException {
+		StoredObject object = object(request.bucket, request.key);
+		String ifMatch = request.header("If-Match");
+		if (ifMatch != null && !unquote(ifMatch).equals(object.eTag)) {
+			throw new S3Exception(412, "PreconditionFailed",
+					"At least one of the pre-conditions you specified did not hold");
+		}
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("ETag", quote(object.eTag));
+		headers.set("Last-Modified", RFC_822.format(object.lastModified));
+		headers.set("Accept-Ranges", "bytes");
+		headers.set("Content-Type", object.contentType != null ? object.contentType : "binary/octet-stream");
+		object.userMetadata.forEach((name, value) -> headers.set("x-amz-meta-" + name, value));
+		String ifNoneMatch = request.header("If-None-Match");
+		if (ifNoneMatch != null && unquote(ifNoneMatch).equals(object.eTag)) {
+			send(exchange, 304, null);
+			return;
+		}
+
+		long length = object.content.length;
+		long[] range = null;
+		String partNumber = request.query.get("partNumber");
+		if (partNumber != null) {
+			range = object.partRange(Integer.parseInt(partNumber));
+			headers.set("x-amz-mp-parts-count", "" + object.partSizes.length);
+		}
+		else {
+			range = range(request.header("Range"), length);
+		}
+
+		int status = 200;
+		int offset = 0;
+		int count = object.content.length;
+		if (range != null) {
+			status = 206;
+			offset = (int) range[0];
+			count = (int) (range[1] - range[0] + 1);
+			headers.set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+		}
+		if (head) {
+			headers.set("Content-Length", "" + count);
+			exchange.sendResponseHeaders(status, -1);
+		}
+		else {
+			send(exchange, status, Arrays.copyOfRange(object.content, offset, offset + count));
+		}
+	}
+
+	private static long[] range(String range, long length) {
+		if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+			return null;
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		long start;
+		long end;
+		if (first.isEmpty()) {
+			long suffix = Long.parseLong(last);
+			if (suffix == 0) {
+				throw invalidRange(length);
+			}
+			start = Math.max(length - suffix, 0);
+			end = length - 1;
+		}
+		else {
+			start = Long.parseLong(first);
+			end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+		}
+		if (start >= length || start > end) {
+			throw invalidRange(length);
+		}
+		return new long[] { start, end };
+	}
+
+	private static S3Exception invalidRange(long length) {
+		return new S3Exception(416, "InvalidRange", "The requested range is not satisfiable for the length " + length);
+	}
+
+	private void createMultipartUpload(Request request, HttpExchange exchange) throws IOException {
+		bucket(request.bucket);
+		String uploadId = UUID.randomUUID().toString();
+		this.uploads.put(uploadId,
+				new MultipartUpload(request.bucket, request.key, request.header("Content-Type"),
+						request.userMetadata()));
+		StringBuilder content = new StringBuilder()
+				.append(element("Bucket", request.bucket))
+				.append(element("Key", request.key))
+				.append(element("UploadId", uploadId));
+		send(exchange, 200, xml("InitiateMultipartUploadResult", content));
+	}
+
+	private void uploadPart(Request request, HttpExchange exchange) throws IOException {
+		MultipartUpload upload = upload(request);
+		int partNumber = Integer.parseInt(request.query.getOrDefault("partNumber", "0"));
+		if (partNumber < 1 || partNumber > 10000) {
+			throw new S3Exception(400, "InvalidArgument", "Part number must be an integer between 1 and 10000");
+		}
+		byte[] content = request.payload();
+		upload.parts.put(partNumber, content);
+		exchange.getResponseHeaders().set("ETag", quote(hex(md5(content))));
+		send(exchange, 200, null);
+	}
+
+	private void completeMultipartUpload(Request request, HttpExchange exchange) throws IOException {
+		MultipartUpload upload = upload(request);
+		NodeList parts = parse(request.body).getDocumentElement().getElementsByTagName("Part");
+		if (parts.getLength() == 0) {
+			throw new S3Exception(400, "MalformedXML", "The multipart upload must contain at least one part");
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		ByteArrayOutputStream digests = new ByteArrayOutputStream();
+		long[] partSizes = new long[parts.getLength()];
+		int previousPartNumber = 0;
+		for (int i = 0; i < parts.getLength(); i++) {
+			Element part = (Element) parts.item(i);
+			int partNumber = Integer.parseInt(text(part, "PartNumber"));
+			if (partNumber <= previousPartNumber) {
+				throw new S3Exception(400, "InvalidPartOrder", "The list of parts was not in ascending order");
+			}
+			previousPartNumber = partNumber;
+			byte[] data = upload.parts.get(partNumber);
+			byte[] digest = data != null ? md5(data) : null;
+			if (digest == null || !hex(digest).equals(unquote(text(part, "ETag")))) {
+				throw new S3Exception(400, "InvalidPart", "The part " + partNumber + " could not be found");
+			}
+			if (i < parts.getLength() - 1 && data.length < this.minPartSize) {
+				throw new S3Exception(400, "EntityTooSmall",
+						"Your proposed upload is smaller than the minimum allowed object size");
+			}
+			content.write(data, 0, data.length);
+			digests.write(digest, 0, digest.length);
+			partSizes[i] = data.length;
+		}
+		String eTag = hex(md5(digests.toByteArray())) + "-" + parts.getLength();
+		StoredObject object =
+				new StoredObject(content.toByteArray(), eTag, partSizes, upload.contentType, upload.userMetadata);
+		bucket(upload.bucket).put(upload.key, object);
+		this.uploads.remove(request.query.get("uploadId"));
+		StringBuilder result = new StringBuilder()
+				.append(element("Location", getEndpoint() + "/" + upload.bucket + "/" + upload.key))
+				.append(element("Bucket", upload.bucket))
+				.append(element("Key", upload.key))
+				.append(element("ETag", quote(eTag)));
+		send(exchange, 200, xml("CompleteMultipartUploadResult", result));
+	}
+
+	private NavigableMap<String, StoredObject> bucket(String bucket) {
+		NavigableMap<String, StoredObject> objects = this.buckets.get(bucket);
+		if (objects == null) {
+			throw new S3Exception(404, "NoSuchBucket", "The specified bucket does not exist");
+		}
+		return objects;
+	}
+
+	private StoredObject object(String bucket, String key) {
+		StoredObject object = bucket(bucket).get(key);
+		if (object == null) {
+			throw new S3Exception(404, "NoSuchKey", "The specified key does not exist.");
+		}
+		return object;
+	}
+
+	private MultipartUpload upload(Request request) {
+		MultipartUpload upload = this.uploads.get(request.query.get("uploadId"));
+		if (upload == null || !upload.bucket.equals(request.bucket) || !upload.key.equals(request.key)) {
+			throw new S3Exception(404, "NoSuchUpload", "The specified upload does not exist");
+		}
+		return upload;
+	}
+
+	private static byte[] accessControlPolicy() {
+		StringBuilder content = new StringBuilder();
+		owner(content, "Owner");
+		content.append("<AccessControlList><Grant>")
+				.append("<Grantee xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"CanonicalUser\">")
+				.append(element("ID", OWNER_ID))
+				.append(element("DisplayName", OWNER_ID))
+				.append("</Grantee>")
+				.append(element("Permission", "FULL_CONTROL"))
+				.append("</Grant></AccessControlList>");
+		return xml("AccessControlPolicy", content);
+	}
+
+	private static void owner(StringBuilder content, String name) {
+		content.append('<').append(name).append('>')
+				.append(element("ID", OWNER_ID))
+				.append(element("DisplayName", OWNER_ID))
+				.append("</").append(name).append('>');
+	}
+
+	private static void sendError(HttpExchange exchange, S3Exception ex) throws IOException {
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(ex.status, -1);
+		}
+		else {
+			StringBuilder content = new StringBuilder()
+					.append(element("Code", ex.code))
+					.append(element("Message", ex.getMessage()))
+					.append(element("RequestId", exchange.getResponseHeaders().getFirst("x-amz-request-id")));
+			byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error>" + content + "</Error>")
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/xml");
+			send(exchange, ex.status, body);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (body == null || body.length == 0) {
+			exchange.sendResponseHeaders(status, -1);
+		}
+		else {
+			if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+				exchange.getResponseHeaders().set("Content-Type", "application/xml");
+			}
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	private static byte[] xml(String root, StringBuilder content) {
+		return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><" + root + " xmlns=\"" + XML_NAMESPACE + "\">"
+				+ content + "</" + root + ">")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String element(String name, String value) {
+		StringBuilder element = new StringBuilder().append('<').append(name).append('>');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '<':
+					element.append("&lt;");
+					break;
+				case '>':
+					element.append("&gt;");
+					break;
+				case '&':
+					element.append("&amp;");
+					break;
+				case '"':
+					element.append("&quot;");
+					break;
+				case '\r':
+					element.append("&#13;");
+					break;
+				default:
+					element.append(c);
+			}
+		}
+		return element.append("</").append(name).append('>').toString();
+	}
+
+	private static Document parse(byte[] body) {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			return factory.newDocumentBuilder().parse(new ByteArrayInputStream(body));
+		}
+		catch (Exception ex) {
+			throw new S3Exception(400, "MalformedXML", "The XML you provided was not well-formed: " + ex.getMessage());
+		}
+	}
+
+	private static String text(Element element, String name) {
+		NodeList nodes = element.getElementsByTagName(name);
+		return nodes.getLength() > 0 ? nodes.item(0).getTextContent().trim() : null;
+	}
+
+	private static String encode(String value, boolean urlEncoding) {
+		if (!urlEncoding) {
+			return value;
+		}
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		}
+		catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		}
+		catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static String quote(String eTag) {
+		return '"' + eTag + '"';
+	}
+
+	private static String unquote(String eTag) {
+		String value = eTag.trim();
+		return value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")
+				? value.substring(1, value.length() - 1)
+				: value;
+	}
+
+	private static byte[] md5(byte[] content) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(content);
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * The parsed path-style request.
+	 */
+	private static final class Request {
+
+		private final String method;
+
+		private final String bucket;
+
+		private final String key;
+
+		private final Map<String, String> query = new HashMap<>();
+
+		private final Headers headers;
+
+		private final byte[] body;
+
+		Request(HttpExchange exchange) throws IOException {
+			this.method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+			this.headers = exchange.getRequestHeaders();
+			String path = exchange.getRequestURI().getPath();
+			if (path.startsWith("/")) {
+				path = path.substring(1);
+			}
+			int slash = path.indexOf('/');
+			if (path.isEmpty()) {
+				this.bucket = null;
+				this.key = null;
+			}
+			else if (slash < 0 || slash == path.length() - 1) {
+				this.bucket = slash < 0 ? path : path.substring(0, slash);
+				this.key = null;
+			}
+			else {
+				this.bucket = path.substring(0, slash);
+				this.key = path.substring(slash + 1);
+			}
+			String rawQuery = exchange.getRequestURI().getRawQuery();
+			if (rawQuery != null) {
+				for (String parameter : rawQuery.split("&")) {
+					if (!parameter.isEmpty()) {
+						int equals = parameter.indexOf('=');
+						this.query.put(decode(equals < 0 ? parameter : parameter.substring(0, equals)),
+								equals < 0 ? "" : decode(parameter.substring(equals + 1)));
+					}
+				}
+			}
+			try (InputStream in = exchange.getRequestBody()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				this.body = out.toByteArray();
+			}
+		}
+
+		String header(String name) {
+			return this.headers.getFirst(name);
+		}
+
+		Map<String, String> userMetadata() {
+			Map<String, String> userMetadata = new LinkedHashMap<>();
+			this.headers.forEach((name, values) -> {
+				String lowerCaseName = name.toLowerCase(Locale.ROOT);
+				if (lowerCaseName.startsWith("x-amz-meta-") && !values.isEmpty()) {
+					userMetadata.put(lowerCaseName.substring("x-amz-meta-".length()), values.get(0));
+				}
+			});
+			return userMetadata;
+		}
+
+		/**
+		 * Return the object content of the body decoding the aws-chunked payload signed by the SDK.
+		 */
+		byte[] payload() {
+			String contentSha256 = header("x-amz-content-sha256");
+			String contentEncoding = header("Content-Encoding");
+			byte[] payload = this.body;
+			if ((contentSha256 != null && contentSha256.startsWith("STREAMING-"))
+					|| (contentEncoding != null && contentEncoding.contains("aws-chunked"))) {
+
+				payload = decodeAwsChunked(this.body);
+			}
+			String contentMd5 = header("Content-MD5");
+			if (contentMd5 != null && !Arrays.equals(Base64.getDecoder().decode(contentMd5), md5(payload))) {
+				throw new S3Exception(400, "BadDigest",
+						"The Content-MD5 you specified did not match what we received.");
+			}
+			return payload;
+		}
+
+		private static byte[] decodeAwsChunked(byte[] body) {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(body.length);
+			int position = 0;
+			while (position < body.length) {
+				int lineEnd = position;
+				while (lineEnd < body.length - 1 && !(body[lineEnd] == '\r' && body[lineEnd + 1] == '\n')) {
+					lineEnd++;
+				}
+				String chunkHeader = new String(body, position, lineEnd - position, StandardCharsets.US_ASCII);
+				int semicolon = chunkHeader.indexOf(';');
+				String chunkSize = semicolon < 0 ? chunkHeader.trim() : chunkHeader.substring(0, semicolon);
+				int size = Integer.parseInt(chunkSize, 16);
+				position = lineEnd + 2;
+				if (size == 0) {
+					break;
+				}
+				if (position + size > body.length) {
+					throw new S3Exception(400, "IncompleteBody", "The request body terminated unexpectedly");
+				}
+				payload.write(body, position, size);
+				position += size + 2;
+			}
+			return payload.toByteArray();
+		}
+
+	}
+
+	/**
+	 * The stored S3 Object.
+	 */
+	private static final class StoredObject {
+
+		private final byte[] content;
+
+		private final String eTag;
+
+		private final long[] partSizes;
+
+		private final String contentType;
+
+		private final Map<String, String> userMetadata;
+
+		private final Instant lastModified = Instant.now();
+
+		StoredObject(byte[] content, String contentType, Map<String, String> userMetadata) {
+			this(content, hex(md5(content)), new long[] { content.length }, contentType, userMetadata);
+		}
+
+		StoredObject(byte[] content, String eTag, long[] partSizes, String contentType,
+				Map<String, String> userMetadata) {
+
+			this.content = content;
+			this.eTag = eTag;
+			this.partSizes = partSizes;
+			this.contentType = contentType;
+			this.userMetadata = userMetadata;
+		}
+
+		long[] partRange(int partNumber) {
+			if (partNumber < 1 || partNumber > this.partSizes.length) {
+				throw new S3Exception(416, "InvalidPartNumber", "The requested partnumber is not satisfiable");
+			}
+			long start = 0;
+			for (int i = 0; i < partNumber - 1; i++) {
+				start += this.partSizes[i];
+			}
+			return new long[] { start, start + this.partSizes[partNumber - 1] - 1 };
+		}
+
+	}
+
+	/**
+	 * The multipart upload in progress.
+	 */
+	private static final class MultipartUpload {
+
+		private final String bucket;
+
+		private final String key;
+
+		private final String contentType;
+
+		private final Map<String, String> userMetadata;
+
+		private final Instant initiated = Instant.now();
+
+		private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+
+		MultipartUpload(String bucket, String key, String contentType, Map<String, String> userMetadata) {
+			this.bucket = bucket;
+			this.key = key;
+			this.contentType = contentType;
+			this.userMetadata = userMetadata;
+		}
+
+	}
+
+	/**
+	 * A page of the bucket listing.
+	 */
+	private static final class Listing {
+
+		private final List<Map.Entry<String, StoredObject>> objects = new ArrayList<>();
+
+		private final List<String> commonPrefixes = new ArrayList<>();
+
+		private String nextMarker;
+
+		private boolean truncated;
+
+	}
+
+	/**
+	 * The S3 error response.
+	 */
+	private static final class S3Exception extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		private final String code;
+
+		S3Exception(int status, String code, String message) {
+			super(message);
+			this.status = status;
+			this.code = code;
+		}
+
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.util.IOUtils;
+
+/**
+ * @author agent
+ */
+public class S3StandInServerTests {
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	private static final String BUCKET = "stand-in-bucket";
+
+	private AmazonS3 amazonS3;
+
+	@Before
+	public void setup() {
+		S3_SERVER.createBucket(BUCKET);
+		this.amazonS3 = S3_SERVER.createClient();
+	}
+
+	@After
+	public void tearDown() {
+		this.amazonS3.shutdown();
+		S3_SERVER.reset();
+	}
+
+	@Test
+	public void testPutAndRangedGet() throws IOException {
+		ObjectMetadata objectMetadata = new ObjectMetadata();
+		objectMetadata.addUserMetadata("origin", "test");
+		this.amazonS3.putObject(BUCKET, "dir/some file.txt",
+				new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)), objectMetadata);
+
+		assertArrayEquals("0123456789".getBytes(StandardCharsets.UTF_8),
+				S3_SERVER.getObject(BUCKET, "dir/some file.txt"));
+
+		try (S3Object s3Object = this.amazonS3.getObject(
+				new GetObjectRequest(BUCKET, "dir/some file.txt").withRange(2, 5))) {
+
+			assertEquals("2345", IOUtils.toString(s3Object.getObjectContent()));
+			assertEquals(4, s3Object.getObjectMetadata().getContentLength());
+			assertEquals("test", s3Object.getObjectMetadata().getUserMetaDataOf("origin"));
+		}
+
+		ObjectMetadata head = this.amazonS3.getObjectMetadata(BUCKET, "dir/some file.txt");
+		assertEquals(10, head.getContentLength());
+
+		assertNull(this.amazonS3.getObject(
+				new GetObjectRequest(BUCKET, "dir/some file.txt").withMatchingETagConstraint("\"stale\"")));
+	}
+
+	@Test
+	public void testListingPagination() {
+		for (int i = 0; i < 25; i++) {
+			S3_SERVER.putObject(BUCKET, String.format("data/%02d.test", i), new byte[] { (byte) i });
+		}
+		S3_SERVER.putObject(BUCKET, "data/nested/0.test", new byte[0]);
+		S3_SERVER.putObject(BUCKET, "other.test", new byte[0]);
+		S3_SERVER.setPageSize(10);
+
+		List<String> keys = new ArrayList<>();
+		List<String> commonPrefixes = new ArrayList<>();
+		ListObjectsV2Request request = new ListObjectsV2Request()
+				.withBucketName(BUCKET)
+				.withPrefix("data/")
+				.withDelimiter("/");
+		ListObjectsV2Result result;
+		do {
+			result = this.amazonS3.listObjectsV2(request);
+			result.getObjectSummaries().forEach(summary -> keys.add(summary.getKey()));
+			commonPrefixes.addAll(result.getCommonPrefixes());
+			request.setContinuationToken(result.getNextContinuationToken());
+		}
+		while (result.isTruncated());
+
+		assertEquals(25, keys.size());
+		assertEquals("data/00.test", keys.get(0));
+		assertEquals("data/24.test", keys.get(24));
+		assertEquals(Arrays.asList("data/nested/"), commonPrefixes);
+		assertEquals(3, S3_SERVER.getRequestCount("ListObjectsV2"));
+
+		ObjectListing objectListing = this.amazonS3.listObjects(new ListObjectsRequest().withBucketName(BUCKET));
+		int count = objectListing.getObjectSummaries().size();
+		while (objectListing.isTruncated()) {
+			objectListing = this.amazonS3.listNextBatchOfObjects(objectListing);
+			count += objectListing.getObjectSummaries().size();
+		}
+		assertEquals(27, count);
+	}
+
+	@Test
+	public void testMultipartUpload() throws Exception {
+		S3_SERVER.setMinPartSize(1024);
+		byte[] content = new byte[10 * 1024 + 100];
+		new Random().nextBytes(content);
+
+		TransferManager transferManager = TransferManagerBuilder.standard()
+				.withS3Client(this.amazonS3)
+				.withMultipartUploadThreshold(2048L)
+				.withMinimumUploadPartSize(1024L)
+				.withShutDownThreadPools(true)
+				.build();
+		try {
+			ObjectMetadata objectMetadata = new ObjectMetadata();
+			objectMetadata.setContentLength(content.length);
+			transferManager.upload(BUCKET, "big.bin", new ByteArrayInputStream(content), objectMetadata)
+					.waitForCompletion();
+		}
+		finally {
+			transferManager.shutdownNow(false);
+		}
+
+		assertTrue(S3_SERVER.getRequestCount("UploadPart") > 1);
+		assertEquals(0, S3_SERVER.getPendingUploads());
+		assertArrayEquals(content, S3_SERVER.getObject(BUCKET, "big.bin"));
+
+		S3ObjectSummary summary = this.amazonS3.listObjectsV2(BUCKET).getObjectSummaries().get(0);
+		assertTrue(summary.getETag().endsWith("-" + S3_SERVER.getRequestCount("UploadPart")));
+
+		try (S3Object s3Object = this.amazonS3.getObject(new GetObjectRequest(BUCKET, "big.bin").withPartNumber(2))) {
+			byte[] part = IOUtils.toByteArray(s3Object.getObjectContent());
+			assertArrayEquals(Arrays.copyOfRange(content, part.length, 2 * part.length), part);
+		}
+	}
+
+	@Test
+	public void testDeleteObjectsBatch() {
+		S3_SERVER.putObject(BUCKET, "1.test", new byte[0]);
+		S3_SERVER.putObject(BUCKET, "2.test", new byte[0]);
+		S3_SERVER.putObject(BUCKET, "3.test", new byte[0]);
+		S3_SERVER.failDeletesOf("2.test");
+
+		try {
+			this.amazonS3.deleteObjects(new DeleteObjectsRequest(BUCKET)
+					.withKeys("1.test", "2.test", "3.test")
+					.withQuiet(true));
+			fail("MultiObjectDeleteException expected");
+		}
+		catch (MultiObjectDeleteException ex) {
+			assertEquals(1, ex.getErrors().size());
+			assertEquals("2.test", ex.getErrors().get(0).getKey());
+			assertEquals("AccessDenied", ex.getErrors().get(0).getCode());
+		}
+
+		assertEquals(Arrays.asList("2.test"), S3_SERVER.getKeys(BUCKET));
+		assertEquals(1, S3_SERVER.getRequestCount("DeleteObjects"));
+	}
+
+	@Test
+	public void testThrottlingIsRetried() {
+		S3_SERVER.throttleNext(2);
+		S3_SERVER.setLatency(10);
+
+		this.amazonS3.putObject(BUCKET, "throttled.test", "content");
+
+		assertEquals(3, S3_SERVER.getRequestCount("PutObject"));
+		assertFalse(S3_SERVER.getKeys(BUCKET).isEmpty());
+	}
+
+}
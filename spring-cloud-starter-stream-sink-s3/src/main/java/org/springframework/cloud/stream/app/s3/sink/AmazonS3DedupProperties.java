@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for skipping the uploads of unchanged content.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.dedup")
+@Validated
+public class AmazonS3DedupProperties {
+
+	/**
+	 * Skip the upload when the payload is the same as the content of its S3 Object.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The maximum number of the cached ETags of the last uploads; 0 to compare with the S3 Objects only.
+	 */
+	private int cacheSize = 10000;
+
+	/**
+	 * Compare the payload with its S3 Object by a HEAD request when its ETag is not cached.
+	 */
+	private boolean headFallback = true;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Min(0)
+	public int getCacheSize() {
+		return this.cacheSize;
+	}
+
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public boolean isHeadFallback() {
+		return this.headFallback;
+	}
+
+	public void setHeadFallback(boolean headFallback) {
+		this.headFallback = headFallback;
+	}
+
+}
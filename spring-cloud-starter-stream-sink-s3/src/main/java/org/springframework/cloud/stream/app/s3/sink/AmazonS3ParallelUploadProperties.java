@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for uploading the file payloads in parts read concurrently.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.parallel-upload")
+@Validated
+public class AmazonS3ParallelUploadProperties {
+
+	/**
+	 * The minimum size of a multipart upload part allowed by S3.
+	 */
+	private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	/**
+	 * Upload the large File and Path payloads in parts read from the file concurrently by the TransferManager.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The minimum size of the parts; more parts are used for large files to stay within 10000 parts.
+	 */
+	private long minPartSize = MIN_PART_SIZE;
+
+	/**
+	 * The file size from which the file is uploaded in parts.
+	 */
+	private long multipartThreshold = 16 * 1024 * 1024;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Min(MIN_PART_SIZE)
+	public long getMinPartSize() {
+		return this.minPartSize;
+	}
+
+	public void setMinPartSize(long minPartSize) {
+		this.minPartSize = minPartSize;
+	}
+
+	@Min(MIN_PART_SIZE)
+	public long getMultipartThreshold() {
+		return this.multipartThreshold;
+	}
+
+	public void setMultipartThreshold(long multipartThreshold) {
+		this.multipartThreshold = multipartThreshold;
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import java.time.ZoneId;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for writing records into rolling S3 Objects under time-based partitions.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.rolling")
+@Validated
+public class AmazonS3RollingProperties {
+
+	/**
+	 * Append the payloads as records into rolling S3 Objects under time-based partitions
+	 * instead of an object per message.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The S3 Object key prefix before the partition path.
+	 */
+	private String keyPrefix = "";
+
+	/**
+	 * The date-time pattern for the partition path of the record time.
+	 */
+	private String partitionFormat = "'dt='yyyy-MM-dd/'hr='HH";
+
+	/**
+	 * The time zone of the partition path.
+	 */
+	private ZoneId zoneId = ZoneId.of("UTC");
+
+	/**
+	 * Expression to evaluate the record time in epoch milliseconds or as a java.util.Date against the message.
+	 */
+	private Expression timestampExpression = new SpelExpressionParser().parseExpression("headers.timestamp");
+
+	/**
+	 * The size in bytes of an S3 Object to roll it over.
+	 */
+	private long maxObjectSize = 128 * 1024 * 1024;
+
+	/**
+	 * The time in milliseconds since an S3 Object is started to roll it over.
+	 */
+	private long rollInterval = 300000;
+
+	/**
+	 * The time in milliseconds without records to close a partition.
+	 */
+	private long idleTimeout = 60000;
+
+	/**
+	 * The maximum number of open partitions; the least recently used one is closed to open a new one.
+	 */
+	private int maxOpenPartitions = 16;
+
+	/**
+	 * The size in bytes of the multipart upload parts buffered in memory for each open partition.
+	 */
+	private int partSize = RollingObjectWriter.MIN_PART_SIZE;
+
+	/**
+	 * Compress the S3 Objects with gzip.
+	 */
+	private boolean gzip = true;
+
+	/**
+	 * The separator appended to each record.
+	 */
+	private String recordSeparator = "\n";
+
+	/**
+	 * The number of attempts of each S3 request of a rolling object before the object and its records are dropped.
+	 */
+	private int completeAttempts = 3;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@NotNull
+	public String getKeyPrefix() {
+		return this.keyPrefix;
+	}
+
+	public void setKeyPrefix(String keyPrefix) {
+		this.keyPrefix = keyPrefix;
+	}
+
+	@NotBlank
+	public String getPartitionFormat() {
+		return this.partitionFormat;
+	}
+
+	public void setPartitionFormat(String partitionFormat) {
+		this.partitionFormat = partitionFormat;
+	}
+
+	@NotNull
+	public ZoneId getZoneId() {
+		return this.zoneId;
+	}
+
+	public void setZoneId(ZoneId zoneId) {
+		this.zoneId = zoneId;
+	}
+
+	@NotNull
+	public Expression getTimestampExpression() {
+		return this.timestampExpression;
+	}
+
+	public void setTimestampExpression(Expression timestampExpression) {
+		this.timestampExpression = timestampExpression;
+	}
+
+	@Min(1)
+	public long getMaxObjectSize() {
+		return this.maxObjectSize;
+	}
+
+	public void setMaxObjectSize(long maxObjectSize) {
+		this.maxObjectSize = maxObjectSize;
+	}
+
+	@Min(1)
+	public long getRollInterval() {
+		return this.rollInterval;
+	}
+
+	public void setRollInterval(long rollInterval) {
+		this.rollInterval = rollInterval;
+	}
+
+	@Min(1)
+	public long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Min(1)
+	public int getMaxOpenPartitions() {
+		return this.maxOpenPartitions;
+	}
+
+	public void setMaxOpenPartitions(int maxOpenPartitions) {
+		this.maxOpenPartitions = maxOpenPartitions;
+	}
+
+	@Min(RollingObjectWriter.MIN_PART_SIZE)
+	public int getPartSize() {
+		return this.partSize;
+	}
+
+	public void setPartSize(int partSize) {
+		this.partSize = partSize;
+	}
+
+	public boolean isGzip() {
+		return this.gzip;
+	}
+
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	@NotNull
+	public String getRecordSeparator() {
+		return this.recordSeparator;
+	}
+
+	public void setRecordSeparator(String recordSeparator) {
+		this.recordSeparator = recordSeparator;
+	}
+
+	@Min(1)
+	public int getCompleteAttempts() {
+		return this.completeAttempts;
+	}
+
+	public void setCompleteAttempts(int completeAttempts) {
+		this.completeAttempts = completeAttempts;
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for spreading S3 Object keys over several key prefixes.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.sharding")
+@Validated
+public class AmazonS3ShardingProperties {
+
+	/**
+	 * The number of hashed key prefixes to spread S3 Object keys over; 0 means no sharding.
+	 */
+	private int shards = 0;
+
+	/**
+	 * The separator between the shard prefix and the S3 Object key.
+	 */
+	private String separator = "/";
+
+	/**
+	 * The S3 Object key of the manifest describing the sharding scheme; no manifest is written when not set.
+	 */
+	private String manifestKey;
+
+	@Min(0)
+	public int getShards() {
+		return this.shards;
+	}
+
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	@NotEmpty
+	public String getSeparator() {
+		return this.separator;
+	}
+
+	public void setSeparator(String separator) {
+		this.separator = separator;
+	}
+
+	public String getManifestKey() {
+		return this.manifestKey;
+	}
+
+	public void setManifestKey(String manifestKey) {
+		this.manifestKey = manifestKey;
+	}
+
+	public boolean isEnabled() {
+		return this.shards > 0;
+	}
+
+}
@@ -16,58 +16,327 @@
 
 package org.springframework.cloud.stream.app.s3.sink;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.aopalliance.aop.Advice;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnEnabledEndpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.aws.core.env.ResourceIdResolver;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.app.s3.AmazonS3BufferProperties;
 import org.springframework.cloud.stream.app.s3.AmazonS3Configuration;
+import org.springframework.cloud.stream.app.s3.AmazonS3DrainProperties;
+import org.springframework.cloud.stream.app.s3.AmazonS3IntegrityProperties;
+import org.springframework.cloud.stream.app.s3.AmazonS3TransferProperties;
+import org.springframework.cloud.stream.app.s3.AmazonS3TuningEndpoint;
+import org.springframework.cloud.stream.app.s3.FilePartDigester;
+import org.springframework.cloud.stream.app.s3.InFlightTransfers;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.cloud.stream.app.s3.RateLimitingRequestHandler;
+import org.springframework.cloud.stream.app.s3.TransferExecutors;
+import org.springframework.cloud.stream.app.s3.TransferPool;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.expression.FunctionExpression;
 import org.springframework.integration.expression.ValueExpression;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.util.StringUtils;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.s3.transfer.internal.S3ProgressListener;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 /**
  * @author Artem Bilan
  */
 @EnableBinding(Sink.class)
-@EnableConfigurationProperties(AmazonS3SinkProperties.class)
+@EnableConfigurationProperties({ AmazonS3SinkProperties.class, AmazonS3TransferProperties.class,
+		AmazonS3ShardingProperties.class, AmazonS3IntegrityProperties.class, AmazonS3DrainProperties.class,
+		AmazonS3RollingProperties.class, AmazonS3DedupProperties.class, AmazonS3BufferProperties.class,
+		AmazonS3ParallelUploadProperties.class })
 @Import(AmazonS3Configuration.class)
 public class AmazonS3SinkConfiguration {
 
+	private static final Log LOGGER = LogFactory.getLog(AmazonS3SinkConfiguration.class);
+
+	/**
+	 * The same number of upload threads as the {@link TransferManager} uses by default.
+	 */
+	private static final int DEFAULT_UPLOAD_THREADS = 10;
+
 	@Autowired(required = false)
 	private S3MessageHandler.UploadMetadataProvider uploadMetadataProvider;
 
 	@Autowired(required = false)
 	private S3ProgressListener s3ProgressListener;
 
+	@Bean
+	public ExecutorService s3UploadExecutor(AmazonS3TransferProperties transferProperties) {
+		return TransferExecutors.create("s3-upload-", DEFAULT_UPLOAD_THREADS, transferProperties.isVirtualThreads());
+	}
+
+	/**
+	 * The {@link ExecutorService} to digest the parts of the files uploaded in parallel,
+	 * apart from the upload threads, so the {@code upload} pool of the {@link AmazonS3TuningEndpoint}
+	 * is only for the {@link TransferManager}.
+	 * @param transferProperties the transfer properties for the virtual threads.
+	 * @return the {@link ExecutorService}.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.parallel-upload", name = "enabled")
+	public ExecutorService s3DigestExecutor(AmazonS3TransferProperties transferProperties) {
+		return TransferExecutors.create("s3-digest-", Runtime.getRuntime().availableProcessors(),
+				transferProperties.isVirtualThreads());
+	}
+
+	@Bean
+	public TransferManager s3TransferManager(AmazonS3 amazonS3,
+			@Qualifier("s3UploadExecutor") ExecutorService s3UploadExecutor,
+			AmazonS3ParallelUploadProperties parallelUploadProperties) {
+
+		TransferManagerBuilder transferManagerBuilder =
+				TransferManagerBuilder.standard()
+						.withS3Client(amazonS3)
+						.withExecutorFactory(() -> s3UploadExecutor)
+						.withShutDownThreadPools(false);
+		if (parallelUploadProperties.isEnabled()) {
+			transferManagerBuilder
+					.withMinimumUploadPartSize(parallelUploadProperties.getMinPartSize())
+					.withMultipartUploadThreshold(parallelUploadProperties.getMultipartThreshold());
+		}
+		return transferManagerBuilder.build();
+	}
+
+	@Bean
+	public IoBufferPool s3IoBufferPool(AmazonS3BufferProperties bufferProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		IoBufferPool ioBufferPool =
+				new IoBufferPool("upload", bufferProperties.getBufferSize(), bufferProperties.getMaxPooled());
+		ioBufferPool.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return ioBufferPool;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.drain", name = "enabled")
+	public InFlightTransfers s3InFlightUploads(AmazonS3DrainProperties drainProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		InFlightTransfers inFlightTransfers = new InFlightTransfers("upload");
+		inFlightTransfers.setDrainTimeout(drainProperties.getTimeout());
+		inFlightTransfers.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return inFlightTransfers;
+	}
+
+	/**
+	 * Abort the multipart uploads left incomplete in the sink bucket by the instances
+	 * which have not been shut down gracefully. Only the uploads older than the
+	 * {@code s3.drain.orphaned-upload-age} are aborted, so the uploads in progress
+	 * by other instances are not affected. Only the static {@code s3.bucket} is cleaned:
+	 * the buckets of the {@code s3.bucket-expression} are not known in advance.
+	 * The uploads are aborted on a thread of their own, off the startup path and
+	 * without taking an upload thread.
+	 * @param s3TransferManager the {@link TransferManager} to abort uploads.
+	 * @param s3SinkProperties the sink properties for the bucket.
+	 * @param drainProperties the drain properties for the age of uploads to abort.
+	 * @return the {@link ApplicationRunner}.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.drain", name = "enabled")
+	public ApplicationRunner s3OrphanedUploadsCleaner(TransferManager s3TransferManager,
+			AmazonS3SinkProperties s3SinkProperties, AmazonS3DrainProperties drainProperties) {
+
+		return args -> {
+			String bucket = s3SinkProperties.getBucket();
+			long orphanedUploadAge = drainProperties.getOrphanedUploadAge();
+			if (bucket != null && orphanedUploadAge > 0) {
+				Date initiatedBefore = new Date(System.currentTimeMillis() - orphanedUploadAge);
+				new SimpleAsyncTaskExecutor("s3-orphaned-uploads-").execute(() -> {
+					try {
+						s3TransferManager.abortMultipartUploads(bucket, initiatedBefore);
+					}
+					catch (AmazonClientException ex) {
+						LOGGER.warn("Cannot abort orphaned multipart uploads in bucket '" + bucket + "'", ex);
+					}
+				});
+			}
+		};
+	}
+
 	@Bean
 	@ServiceActivator(inputChannel = Sink.INPUT)
-	public MessageHandler amazonS3MessageHandler(AmazonS3 amazonS3, ResourceIdResolver resourceIdResolver,
-			AmazonS3SinkProperties s3SinkProperties) {
+	@ConditionalOnProperty(prefix = "s3.rolling", name = "enabled", havingValue = "false", matchIfMissing = true)
+	public MessageHandler amazonS3MessageHandler(TransferManager s3TransferManager,
+			ResourceIdResolver resourceIdResolver, AmazonS3SinkProperties s3SinkProperties,
+			AmazonS3ShardingProperties shardingProperties, AmazonS3IntegrityProperties integrityProperties,
+			AmazonS3DedupProperties dedupProperties, ObjectProvider<MeterRegistry> meterRegistry,
+			ObjectProvider<InFlightTransfers> s3InFlightUploads, IoBufferPool s3IoBufferPool,
+			@Qualifier("s3DigestExecutor") ObjectProvider<ExecutorService> s3DigestExecutor, BeanFactory beanFactory) {
+
+		boolean verifyUploads = integrityProperties.isEnabled();
+		InFlightTransfers inFlightTransfers = s3InFlightUploads.getIfAvailable();
+		boolean produceReply = verifyUploads || inFlightTransfers != null || dedupProperties.isEnabled();
 		S3MessageHandler s3MessageHandler;
 		if (s3SinkProperties.getBucket() != null) {
-			s3MessageHandler = new S3MessageHandler(amazonS3, s3SinkProperties.getBucket());
+			s3MessageHandler =
+					new PathPayloadS3MessageHandler(s3TransferManager, s3SinkProperties.getBucket(), produceReply);
 		}
 		else {
-			s3MessageHandler = new S3MessageHandler(amazonS3, s3SinkProperties.getBucketExpression());
+			s3MessageHandler =
+					new PathPayloadS3MessageHandler(s3TransferManager, s3SinkProperties.getBucketExpression(),
+							produceReply);
 		}
 		s3MessageHandler.setResourceIdResolver(resourceIdResolver);
-		s3MessageHandler.setKeyExpression(s3SinkProperties.getKeyExpression());
-		if (s3SinkProperties.getAcl() != null) {
-			s3MessageHandler.setObjectAclExpression(new ValueExpression<>(s3SinkProperties.getAcl()));
+		EvaluationContext evaluationContext = ExpressionUtils.createStandardEvaluationContext(beanFactory);
+		Expression bucketExpression =
+				s3SinkProperties.getBucket() != null
+						? new ValueExpression<>(s3SinkProperties.getBucket())
+						: s3SinkProperties.getBucketExpression();
+		Expression keyExpression;
+		if (shardingProperties.isEnabled()) {
+			KeyPrefixShardingFunction keyPrefixShardingFunction =
+					new KeyPrefixShardingFunction(shardingProperties.getShards(), shardingProperties.getSeparator());
+			keyPrefixShardingFunction.setKeyExpression(s3SinkProperties.getKeyExpression(), evaluationContext);
+			if (StringUtils.hasText(shardingProperties.getManifestKey())) {
+				keyPrefixShardingFunction.setManifest(shardingProperties.getManifestKey(), bucketExpression,
+						s3TransferManager);
+			}
+			keyExpression = new FunctionExpression<>(keyPrefixShardingFunction);
 		}
 		else {
-			s3MessageHandler.setObjectAclExpression(s3SinkProperties.getAclExpression());
+			keyExpression = s3SinkProperties.getKeyExpression();
+		}
+		s3MessageHandler.setKeyExpression(keyExpression);
+		Expression aclExpression =
+				s3SinkProperties.getAcl() != null
+						? new ValueExpression<>(s3SinkProperties.getAcl())
+						: s3SinkProperties.getAclExpression();
+		s3MessageHandler.setObjectAclExpression(aclExpression);
+		ExecutorService digestExecutor = s3DigestExecutor.getIfAvailable();
+		FilePartDigester filePartDigester =
+				digestExecutor != null ? new FilePartDigester(digestExecutor, s3IoBufferPool) : null;
+		S3MessageHandler.UploadMetadataProvider uploadMetadataProvider = this.uploadMetadataProvider;
+		List<Advice> adviceChain = new ArrayList<>();
+		if (inFlightTransfers != null) {
+			adviceChain.add(new InFlightUploadAdvice(inFlightTransfers));
+		}
+		ChecksumVerifyingUploadAdvice checksumVerifyingUploadAdvice = null;
+		if (verifyUploads) {
+			checksumVerifyingUploadAdvice =
+					new ChecksumVerifyingUploadAdvice(s3TransferManager,
+							meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+			checksumVerifyingUploadAdvice.setMaxAttempts(integrityProperties.getMaxAttempts());
+			checksumVerifyingUploadAdvice.setBufferPool(s3IoBufferPool);
+			checksumVerifyingUploadAdvice.setFilePartDigester(filePartDigester);
+			checksumVerifyingUploadAdvice.setUploadMetadataProvider(this.uploadMetadataProvider);
+			uploadMetadataProvider = checksumVerifyingUploadAdvice;
+			adviceChain.add(checksumVerifyingUploadAdvice);
+		}
+		s3MessageHandler.setUploadMetadataProvider(uploadMetadataProvider);
+		if (dedupProperties.isEnabled()) {
+			DeduplicatingUploadAdvice deduplicatingUploadAdvice =
+					new DeduplicatingUploadAdvice(s3TransferManager, bucketExpression, keyExpression,
+							dedupProperties.getCacheSize(), meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+			deduplicatingUploadAdvice.setEvaluationContext(evaluationContext);
+			deduplicatingUploadAdvice.setResourceIdResolver(resourceIdResolver);
+			deduplicatingUploadAdvice.setHeadFallback(dedupProperties.isHeadFallback());
+			deduplicatingUploadAdvice.setBufferPool(s3IoBufferPool);
+			deduplicatingUploadAdvice.setFilePartDigester(filePartDigester);
+			deduplicatingUploadAdvice.setChecksumVerifyingUploadAdvice(checksumVerifyingUploadAdvice);
+			deduplicatingUploadAdvice.setPassUploads(verifyUploads || inFlightTransfers != null);
+			adviceChain.add(deduplicatingUploadAdvice);
+		}
+		if (!adviceChain.isEmpty()) {
+			s3MessageHandler.setAdviceChain(adviceChain);
+		}
+		if (produceReply) {
+			s3MessageHandler.setRequiresReply(false);
 		}
-		s3MessageHandler.setUploadMetadataProvider(this.uploadMetadataProvider);
 		s3MessageHandler.setProgressListener(this.s3ProgressListener);
 		return s3MessageHandler;
 	}
 
+	@Bean
+	@ServiceActivator(inputChannel = Sink.INPUT)
+	@ConditionalOnProperty(prefix = "s3.rolling", name = "enabled")
+	public RollingObjectWriter s3RollingObjectWriter(TransferManager s3TransferManager,
+			ResourceIdResolver resourceIdResolver, AmazonS3SinkProperties s3SinkProperties,
+			AmazonS3RollingProperties rollingProperties, AmazonS3BufferProperties bufferProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+
+		MeterRegistry registry = meterRegistry.getIfUnique(() -> Metrics.globalRegistry);
+		// No more part buffers are in use at a time than the open partitions
+		IoBufferPool partBufferPool =
+				new IoBufferPool("part", rollingProperties.getPartSize(),
+						Math.min(bufferProperties.getMaxPooled(), rollingProperties.getMaxOpenPartitions()));
+		partBufferPool.bindTo(registry);
+		Expression bucketExpression =
+				s3SinkProperties.getBucket() != null
+						? new ValueExpression<>(s3SinkProperties.getBucket())
+						: s3SinkProperties.getBucketExpression();
+		RollingObjectWriter rollingObjectWriter = new RollingObjectWriter(s3TransferManager, bucketExpression);
+		rollingObjectWriter.setResourceIdResolver(resourceIdResolver);
+		rollingObjectWriter.setKeyPrefix(rollingProperties.getKeyPrefix());
+		rollingObjectWriter.setPartitionFormat(rollingProperties.getPartitionFormat(), rollingProperties.getZoneId());
+		rollingObjectWriter.setTimestampExpression(rollingProperties.getTimestampExpression());
+		rollingObjectWriter.setMaxObjectSize(rollingProperties.getMaxObjectSize());
+		rollingObjectWriter.setRollInterval(rollingProperties.getRollInterval());
+		rollingObjectWriter.setIdleTimeout(rollingProperties.getIdleTimeout());
+		rollingObjectWriter.setMaxOpenPartitions(rollingProperties.getMaxOpenPartitions());
+		rollingObjectWriter.setPartSize(rollingProperties.getPartSize());
+		rollingObjectWriter.setGzip(rollingProperties.isGzip());
+		rollingObjectWriter.setRecordSeparator(rollingProperties.getRecordSeparator());
+		rollingObjectWriter.setCompleteAttempts(rollingProperties.getCompleteAttempts());
+		rollingObjectWriter.setAcl(s3SinkProperties.getAcl());
+		rollingObjectWriter.setPartBufferPool(partBufferPool);
+		rollingObjectWriter.bindTo(registry);
+		return rollingObjectWriter;
+	}
+
+	/**
+	 * The {@link AmazonS3TuningEndpoint} for the uploads and the rate limit, when the actuator is present.
+	 */
+	@Configuration
+	@ConditionalOnClass(Endpoint.class)
+	protected static class AmazonS3SinkTuningConfiguration {
+
+		@Bean
+		@ConditionalOnEnabledEndpoint
+		public AmazonS3TuningEndpoint s3TuningEndpoint(
+				@Qualifier("s3UploadExecutor") ExecutorService s3UploadExecutor,
+				ObjectProvider<RateLimitingRequestHandler> s3RateLimitingRequestHandler) {
+
+			AmazonS3TuningEndpoint tuningEndpoint = new AmazonS3TuningEndpoint();
+			tuningEndpoint.addTransferPool("upload", new TransferPool(s3UploadExecutor, DEFAULT_UPLOAD_THREADS));
+			s3RateLimitingRequestHandler.ifAvailable(tuningEndpoint::setRateLimitingRequestHandler);
+			return tuningEndpoint;
+		}
+
+	}
+
 }
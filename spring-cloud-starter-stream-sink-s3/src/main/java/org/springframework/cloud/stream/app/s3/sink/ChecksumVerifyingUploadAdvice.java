@@ -0,0 +1,349 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.stream.app.s3.ETagDigest;
+import org.springframework.cloud.stream.app.s3.FilePartDigester;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.integration.handler.advice.AbstractRequestHandlerAdvice;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+import com.amazonaws.services.s3.transfer.Upload;
+import com.amazonaws.services.s3.transfer.internal.TransferManagerUtils;
+import com.amazonaws.services.s3.transfer.model.UploadResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The {@link AbstractRequestHandlerAdvice} for the {@link S3MessageHandler} to verify
+ * the uploaded S3 Object ETag against the checksum of the message payload.
+ * <p>
+ * The checksum is calculated in one pass over the payload before the upload. Its MD5
+ * digest is provided for the {@code Content-MD5} of the upload via the
+ * {@link S3MessageHandler.UploadMetadataProvider} contract, so the {@link S3MessageHandler}
+ * doesn't read the payload one more time for that. For payloads uploaded in parts, the
+ * checksum is calculated for the same part size as the {@link TransferManager} uses.
+ * <p>
+ * The {@link S3MessageHandler} must produce the {@link Upload} as a reply; the upload
+ * result is awaited and the upload is repeated on the ETag mismatch. The {@link File}
+ * and {@link Path} (not a directory), {@code byte[]} and {@link ByteArrayInputStream}
+ * payloads are verified. Other {@link InputStream} payloads are uploaded without
+ * verification: they would have to be buffered in memory to be read for the checksum
+ * and once more for each upload attempt, after the SDK has closed them. With a {@link FilePartDigester}, the parts
+ * of a file uploaded in parts are digested concurrently and no {@code Content-MD5} is
+ * provided for it.
+ * <p>
+ * The inner advices can reuse the checksum of the current upload attempt via
+ * {@link #currentChecksum()} instead of reading the payload one more time.
+ *
+ * @author agent
+ */
+public class ChecksumVerifyingUploadAdvice extends AbstractRequestHandlerAdvice
+		implements S3MessageHandler.UploadMetadataProvider {
+
+	private static final Log LOGGER = LogFactory.getLog(ChecksumVerifyingUploadAdvice.class);
+
+	private final ThreadLocal<UploadChecksum> currentChecksum = new ThreadLocal<>();
+
+	private final TransferManager transferManager;
+
+	private final MeterRegistry meterRegistry;
+
+	private int maxAttempts = 3;
+
+	private IoBufferPool bufferPool = new IoBufferPool("upload", StreamUtils.BUFFER_SIZE, 0);
+
+	private S3MessageHandler.UploadMetadataProvider uploadMetadataProvider;
+
+	private FilePartDigester filePartDigester;
+
+	public ChecksumVerifyingUploadAdvice(TransferManager transferManager, MeterRegistry meterRegistry) {
+		Assert.notNull(transferManager, "'transferManager' must not be null");
+		Assert.notNull(meterRegistry, "'meterRegistry' must not be null");
+		this.transferManager = transferManager;
+		this.meterRegistry = meterRegistry;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		Assert.isTrue(maxAttempts > 0, "'maxAttempts' must be greater than 0");
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Set the {@link IoBufferPool} to borrow the buffers for reading the payloads from.
+	 * By default, a buffer is allocated for each payload.
+	 * @param bufferPool the {@link IoBufferPool} to use.
+	 */
+	public void setBufferPool(IoBufferPool bufferPool) {
+		Assert.notNull(bufferPool, "'bufferPool' must not be null");
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Set the {@link FilePartDigester} to digest the parts of the files uploaded in parts concurrently.
+	 * By default, a file is read sequentially.
+	 * @param filePartDigester the {@link FilePartDigester} to use.
+	 */
+	public void setFilePartDigester(FilePartDigester filePartDigester) {
+		this.filePartDigester = filePartDigester;
+	}
+
+	/**
+	 * Set the {@link S3MessageHandler.UploadMetadataProvider} to delegate to
+	 * before populating the {@code Content-MD5}.
+	 * @param uploadMetadataProvider the {@link S3MessageHandler.UploadMetadataProvider} to use.
+	 */
+	public void setUploadMetadataProvider(S3MessageHandler.UploadMetadataProvider uploadMetadataProvider) {
+		this.uploadMetadataProvider = uploadMetadataProvider;
+	}
+
+	@Override
+	public void populateMetadata(ObjectMetadata metadata, Message<?> message) {
+		if (this.uploadMetadataProvider != null) {
+			this.uploadMetadataProvider.populateMetadata(metadata, message);
+		}
+		UploadChecksum checksum = this.currentChecksum.get();
+		if (checksum != null) {
+			if (metadata.getContentMD5() == null && checksum.eTagDigest.hasContentMd5()) {
+				metadata.setContentMD5(checksum.eTagDigest.getContentMd5());
+			}
+			checksum.encrypted = SSEAlgorithm.KMS.getAlgorithm().equals(metadata.getSSEAlgorithm());
+		}
+	}
+
+	/**
+	 * Return the checksum of the payload which is uploaded on the current thread.
+	 * @return the {@link UploadChecksum} or null outside of an upload attempt.
+	 */
+	UploadChecksum currentChecksum() {
+		return this.currentChecksum.get();
+	}
+
+	@Override
+	protected Object doInvoke(ExecutionCallback callback, Object target, Message<?> message) throws Exception {
+		Object payload = message.getPayload();
+		if (!isChecksumSupported(payload)) {
+			Object result = callback.execute();
+			if (result instanceof Upload) {
+				((Upload) result).waitForUploadResult();
+				return null;
+			}
+			return result;
+		}
+
+		UploadChecksum checksum =
+				new UploadChecksum(checksum(payload, this.transferManager, this.bufferPool, this.filePartDigester));
+
+		for (int attempt = 1; ; attempt++) {
+			Object result;
+			checksum.attempt = attempt;
+			this.currentChecksum.set(checksum);
+			try {
+				result = callback.execute();
+			}
+			finally {
+				this.currentChecksum.remove();
+			}
+
+			if (!(result instanceof Upload)) {
+				return result;
+			}
+
+			UploadResult uploadResult = ((Upload) result).waitForUploadResult();
+			String eTag = uploadResult.getETag();
+
+			if (checksum.encrypted || !ETagDigest.isMd5ETag(eTag)) {
+				checksum.eTagDigest.record(this.meterRegistry, "upload", "skipped");
+				checksum.accepted();
+				return null;
+			}
+
+			if (checksum.eTagDigest.matches(eTag)) {
+				checksum.eTagDigest.record(this.meterRegistry, "upload", "match");
+				checksum.accepted();
+				return null;
+			}
+
+			checksum.eTagDigest.record(this.meterRegistry, "upload", "mismatch");
+
+			String error = "The ETag '" + eTag + "' of the uploaded S3 Object '" + uploadResult.getKey()
+					+ "' doesn't match the payload checksum '" + checksum.eTagDigest.getETag() + "'";
+
+			if (attempt >= this.maxAttempts) {
+				throw new MessageHandlingException(message, error + " after " + attempt + " attempts");
+			}
+
+			LOGGER.warn(error + "; retrying the upload");
+
+			if (payload instanceof ByteArrayInputStream) {
+				// Closing an in-memory stream has no effect, so it can be read again
+				((ByteArrayInputStream) payload).reset();
+			}
+		}
+	}
+
+	/**
+	 * Return true if the checksum of the payload can be calculated before its upload.
+	 * @param payload the message payload.
+	 * @return true for {@link File} and {@link Path} (not a directory), {@code byte[]} and
+	 * {@link ByteArrayInputStream} payloads.
+	 */
+	static boolean isChecksumSupported(Object payload) {
+		return payload instanceof byte[] || payload instanceof ByteArrayInputStream || toFile(payload) != null;
+	}
+
+	/**
+	 * Return the regular file of a {@link File} or a {@link Path} (of the default file system) payload.
+	 * @param payload the message payload.
+	 * @return the {@link File} or null if the payload is not a regular file.
+	 */
+	static File toFile(Object payload) {
+		File file = null;
+		if (payload instanceof File) {
+			file = (File) payload;
+		}
+		else if (payload instanceof Path && ((Path) payload).getFileSystem() == FileSystems.getDefault()) {
+			file = ((Path) payload).toFile();
+		}
+		return file != null && file.isFile() ? file : null;
+	}
+
+	/**
+	 * Calculate the ETag of the payload for the part size the {@link TransferManager} uploads it with.
+	 * A {@link ByteArrayInputStream} payload is reset after reading.
+	 * @param payload the message payload supported by the {@link #isChecksumSupported(Object)}.
+	 * @param transferManager the {@link TransferManager} to upload the payload.
+	 * @param bufferPool the {@link IoBufferPool} to borrow the buffer for reading the payload from.
+	 * @param filePartDigester the {@link FilePartDigester} for the files uploaded in parts; may be null.
+	 * @return the {@link ETagDigest} of the payload.
+	 * @throws Exception if the payload cannot be read.
+	 */
+	static ETagDigest checksum(Object payload, TransferManager transferManager, IoBufferPool bufferPool,
+			FilePartDigester filePartDigester) throws Exception {
+
+		File file = toFile(payload);
+		PutObjectRequest sizingRequest;
+		if (file != null) {
+			sizingRequest = new PutObjectRequest("bucket", "key", file);
+		}
+		else {
+			ObjectMetadata metadata = new ObjectMetadata();
+			if (payload instanceof byte[]) {
+				metadata.setContentLength(((byte[]) payload).length);
+			}
+			sizingRequest = new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0]), metadata);
+		}
+
+		TransferManagerConfiguration configuration = transferManager.getConfiguration();
+		long partSize = 0;
+		if (TransferManagerUtils.getContentLength(sizingRequest) >= 0
+				&& TransferManagerUtils.shouldUseMultipartUpload(sizingRequest, configuration)) {
+
+			partSize = TransferManagerUtils.calculateOptimalPartSize(sizingRequest, configuration);
+		}
+
+		if (file != null && partSize > 0 && filePartDigester != null) {
+			return filePartDigester.digest(file.toPath(), partSize);
+		}
+
+		ETagDigest eTagDigest = new ETagDigest(partSize, true);
+
+		if (payload instanceof byte[]) {
+			byte[] bytes = (byte[]) payload;
+			eTagDigest.update(bytes, 0, bytes.length);
+		}
+		else if (file != null) {
+			try (InputStream inputStream = new FileInputStream(file)) {
+				eTagDigest.update(inputStream, bufferPool);
+			}
+		}
+		else {
+			// The mark of an in-memory stream doesn't buffer anything
+			InputStream inputStream = (ByteArrayInputStream) payload;
+			inputStream.mark(0);
+			eTagDigest.update(inputStream, bufferPool);
+			inputStream.reset();
+		}
+		return eTagDigest;
+	}
+
+	/**
+	 * The checksum of the payload and the state of its current upload attempt.
+	 */
+	static final class UploadChecksum {
+
+		private final ETagDigest eTagDigest;
+
+		private boolean encrypted;
+
+		private int attempt;
+
+		private Runnable acceptCallback;
+
+		UploadChecksum(ETagDigest eTagDigest) {
+			this.eTagDigest = eTagDigest;
+		}
+
+		ETagDigest getETagDigest() {
+			return this.eTagDigest;
+		}
+
+		/**
+		 * Return true if the upload is repeated after an ETag mismatch.
+		 * @return true for the upload attempts after the first one.
+		 */
+		boolean isRetry() {
+			return this.attempt > 1;
+		}
+
+		/**
+		 * Set the callback to run when the uploaded S3 Object is accepted: its ETag matches
+		 * the checksum or it cannot be verified (encrypted or not an MD5 ETag).
+		 * @param acceptCallback the callback to run.
+		 */
+		void setAcceptCallback(Runnable acceptCallback) {
+			this.acceptCallback = acceptCallback;
+		}
+
+		private void accepted() {
+			if (this.acceptCallback != null) {
+				this.acceptCallback.run();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.cloud.aws.core.env.ResourceIdResolver;
+import org.springframework.cloud.stream.app.s3.ETagDigest;
+import org.springframework.cloud.stream.app.s3.FilePartDigester;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.integration.handler.advice.AbstractRequestHandlerAdvice;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.transfer.Transfer;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.Upload;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The {@link AbstractRequestHandlerAdvice} for the {@link S3MessageHandler} to skip
+ * the uploads of the payloads which are the same as the content of their S3 Objects.
+ * <p>
+ * The ETag of the payload is calculated for the part size the {@link TransferManager}
+ * uses and compared with the ETag of the last upload to the same bucket and key in a
+ * bounded LRU cache; on a cache miss, it is compared with the ETag of the S3 Object by
+ * a HEAD request, if enabled. The uploads are cached only when they are completed successfully.
+ * <p>
+ * The {@link S3MessageHandler} must produce the {@link Upload} as a reply and this advice
+ * must be the last one in the chain. Unless the {@link Upload} is passed to the outer advices,
+ * this advice waits for it, so the message fails when the upload fails, like with the
+ * {@link S3MessageHandler} which doesn't produce replies. The {@link File} and {@link Path}
+ * (not a directory), {@code byte[]} and {@link ByteArrayInputStream} payloads are deduplicated;
+ * the cache assumes that the S3 Objects are not changed by other writers in the meantime.
+ * <p>
+ * Behind a {@link ChecksumVerifyingUploadAdvice}, its checksum of the payload is reused,
+ * the ETag is cached only when the upload is verified and the uploads repeated after an
+ * ETag mismatch are not deduplicated.
+ *
+ * @author agent
+ */
+public class DeduplicatingUploadAdvice extends AbstractRequestHandlerAdvice {
+
+	/**
+	 * The name of the {@link Counter} for the cache lookups, tagged with the result.
+	 */
+	public static final String CACHE_COUNTER_NAME = "s3.dedup.cache";
+
+	/**
+	 * The name of the {@link Counter} for the deduplicated payloads, tagged with the result.
+	 */
+	public static final String UPLOADS_COUNTER_NAME = "s3.dedup.uploads";
+
+	private static final String UPLOADS_DESCRIPTION = "The number of the payloads uploaded or skipped as unchanged";
+
+	private final TransferManager transferManager;
+
+	private final Expression bucketExpression;
+
+	private final Expression keyExpression;
+
+	private final MeterRegistry meterRegistry;
+
+	private final Map<String, String> cache;
+
+	private EvaluationContext evaluationContext;
+
+	private ResourceIdResolver resourceIdResolver;
+
+	private boolean headFallback = true;
+
+	private boolean passUploads;
+
+	private IoBufferPool bufferPool = new IoBufferPool("upload", StreamUtils.BUFFER_SIZE, 0);
+
+	private FilePartDigester filePartDigester;
+
+	private ChecksumVerifyingUploadAdvice checksumVerifyingUploadAdvice;
+
+	/**
+	 * Create an instance for the bucket and key expressions of the {@link S3MessageHandler}.
+	 * @param transferManager the {@link TransferManager} of the {@link S3MessageHandler}.
+	 * @param bucketExpression the bucket expression.
+	 * @param keyExpression the key expression; the {@link File} name if null.
+	 * @param cacheSize the maximum number of the cached ETags; 0 to disable the cache.
+	 * @param meterRegistry the {@link MeterRegistry} for the counters.
+	 */
+	public DeduplicatingUploadAdvice(TransferManager transferManager, Expression bucketExpression,
+			Expression keyExpression, int cacheSize, MeterRegistry meterRegistry) {
+
+		Assert.notNull(transferManager, "'transferManager' must not be null");
+		Assert.notNull(bucketExpression, "'bucketExpression' must not be null");
+		Assert.isTrue(cacheSize >= 0, "'cacheSize' must not be negative");
+		Assert.notNull(meterRegistry, "'meterRegistry' must not be null");
+		this.transferManager = transferManager;
+		this.bucketExpression = bucketExpression;
+		this.keyExpression = keyExpression;
+		this.meterRegistry = meterRegistry;
+		this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > cacheSize;
+			}
+
+		};
+	}
+
+	public void setEvaluationContext(EvaluationContext evaluationContext) {
+		this.evaluationContext = evaluationContext;
+	}
+
+	public void setResourceIdResolver(ResourceIdResolver resourceIdResolver) {
+		this.resourceIdResolver = resourceIdResolver;
+	}
+
+	/**
+	 * Set the {@link IoBufferPool} to borrow the buffers for reading the payloads from.
+	 * By default, a buffer is allocated for each payload.
+	 * @param bufferPool the {@link IoBufferPool} to use.
+	 */
+	public void setBufferPool(IoBufferPool bufferPool) {
+		Assert.notNull(bufferPool, "'bufferPool' must not be null");
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Set the {@link FilePartDigester} to digest the parts of the files uploaded in parts concurrently.
+	 * By default, a file is read sequentially.
+	 * @param filePartDigester the {@link FilePartDigester} to use.
+	 */
+	public void setFilePartDigester(FilePartDigester filePartDigester) {
+		this.filePartDigester = filePartDigester;
+	}
+
+	/**
+	 * Set the outer {@link ChecksumVerifyingUploadAdvice} which verifies the uploads.
+	 * @param checksumVerifyingUploadAdvice the {@link ChecksumVerifyingUploadAdvice} in front of this advice.
+	 */
+	public void setChecksumVerifyingUploadAdvice(ChecksumVerifyingUploadAdvice checksumVerifyingUploadAdvice) {
+		this.checksumVerifyingUploadAdvice = checksumVerifyingUploadAdvice;
+	}
+
+	/**
+	 * Compare the payload with the S3 Object by a HEAD request on a cache miss.
+	 * @param headFallback true to send a HEAD request on a cache miss.
+	 */
+	public void setHeadFallback(boolean headFallback) {
+		this.headFallback = headFallback;
+	}
+
+	/**
+	 * Return the {@link Upload} reply to the outer advices in the chain; must be true
+	 * when they await or track it. Otherwise this advice waits for the upload and
+	 * the reply is not sent any further.
+	 * @param passUploads true to return the {@link Upload} reply.
+	 */
+	public void setPassUploads(boolean passUploads) {
+		this.passUploads = passUploads;
+	}
+
+	@Override
+	protected Object doInvoke(ExecutionCallback callback, Object target, Message<?> message) throws Exception {
+		Object payload = message.getPayload();
+		if (!ChecksumVerifyingUploadAdvice.isChecksumSupported(payload)) {
+			return pass(callback.execute(), message);
+		}
+
+		String bucket = this.bucketExpression.getValue(this.evaluationContext, message, String.class);
+		if (this.resourceIdResolver != null) {
+			bucket = this.resourceIdResolver.resolveToPhysicalResourceId(bucket);
+		}
+		File file = ChecksumVerifyingUploadAdvice.toFile(payload);
+		String key = this.keyExpression != null
+				? this.keyExpression.getValue(this.evaluationContext, message, String.class)
+				: file != null ? file.getName() : null;
+		if (bucket == null || key == null) {
+			return pass(callback.execute(), message);
+		}
+
+		ChecksumVerifyingUploadAdvice.UploadChecksum uploadChecksum =
+				this.checksumVerifyingUploadAdvice != null
+						? this.checksumVerifyingUploadAdvice.currentChecksum()
+						: null;
+		if (uploadChecksum != null && uploadChecksum.isRetry()) {
+			return callback.execute();
+		}
+
+		String cacheKey = bucket + '/' + key;
+		ETagDigest eTagDigest =
+				uploadChecksum != null
+						? uploadChecksum.getETagDigest()
+						: ChecksumVerifyingUploadAdvice.checksum(payload, this.transferManager, this.bufferPool,
+								this.filePartDigester);
+		String eTag = eTagDigest.getETag();
+
+		String cachedETag;
+		synchronized (this.cache) {
+			cachedETag = this.cache.get(cacheKey);
+		}
+		count(CACHE_COUNTER_NAME, "The number of the ETag cache lookups", cachedETag != null ? "hit" : "miss");
+
+		if (eTag.equals(cachedETag)
+				|| cachedETag == null && this.headFallback && eTagDigest.matches(head(bucket, key))) {
+
+			cache(cacheKey, eTag);
+			count(UPLOADS_COUNTER_NAME, UPLOADS_DESCRIPTION, "skipped");
+			return null;
+		}
+
+		count(UPLOADS_COUNTER_NAME, UPLOADS_DESCRIPTION, "uploaded");
+		if (uploadChecksum != null) {
+			uploadChecksum.setAcceptCallback(() -> cache(cacheKey, eTag));
+			return callback.execute();
+		}
+		Object result = callback.execute();
+		if (result instanceof Upload) {
+			Upload upload = (Upload) result;
+			if (!this.passUploads) {
+				await(upload, message);
+				cache(cacheKey, eTag);
+				return null;
+			}
+			upload.addProgressListener((ProgressListener) progressEvent -> {
+				if (ProgressEventType.TRANSFER_COMPLETED_EVENT.equals(progressEvent.getEventType())) {
+					cache(cacheKey, eTag);
+				}
+			});
+			if (upload.isDone() && Transfer.TransferState.Completed.equals(upload.getState())) {
+				cache(cacheKey, eTag);
+			}
+		}
+		return result;
+	}
+
+	private String head(String bucket, String key) {
+		try {
+			ObjectMetadata objectMetadata = this.transferManager.getAmazonS3Client().getObjectMetadata(bucket, key);
+			return objectMetadata.getETag();
+		}
+		catch (AmazonS3Exception ex) {
+			if (ex.getStatusCode() == 404) {
+				return null;
+			}
+			throw ex;
+		}
+	}
+
+	private void cache(String cacheKey, String eTag) {
+		synchronized (this.cache) {
+			this.cache.put(cacheKey, eTag);
+		}
+	}
+
+	private Object pass(Object result, Message<?> message) {
+		if (result instanceof Upload && !this.passUploads) {
+			await((Upload) result, message);
+			return null;
+		}
+		return result;
+	}
+
+	private static void await(Upload upload, Message<?> message) {
+		try {
+			upload.waitForUploadResult();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted while waiting for the upload", ex);
+		}
+	}
+
+	private void count(String name, String description, String result) {
+		Counter.builder(name)
+				.description(description)
+				.tag("result", result)
+				.register(this.meterRegistry)
+				.increment();
+	}
+
+}
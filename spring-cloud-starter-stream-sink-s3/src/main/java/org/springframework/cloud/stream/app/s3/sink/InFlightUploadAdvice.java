@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import org.springframework.cloud.stream.app.s3.InFlightTransfers;
+import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.integration.handler.advice.AbstractRequestHandlerAdvice;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+import com.amazonaws.services.s3.transfer.Transfer;
+
+/**
+ * The {@link AbstractRequestHandlerAdvice} for the {@link S3MessageHandler} to register
+ * its uploads in the {@link InFlightTransfers}.
+ * <p>
+ * The {@link S3MessageHandler} must produce the {@link Transfer} as a reply; it is tracked
+ * and awaited, so the message is handled (and acknowledged) only when its upload is done and
+ * an upload failure is thrown to the caller. Only a drain timed out on shutdown aborts the
+ * tracked uploads. Messages are rejected while the uploads are drained.
+ * Must be the first advice in the chain, so the uploads awaited by other advices are tracked, too.
+ *
+ * @author agent
+ */
+public class InFlightUploadAdvice extends AbstractRequestHandlerAdvice {
+
+	private final InFlightTransfers inFlightTransfers;
+
+	public InFlightUploadAdvice(InFlightTransfers inFlightTransfers) {
+		Assert.notNull(inFlightTransfers, "'inFlightTransfers' must not be null");
+		this.inFlightTransfers = inFlightTransfers;
+	}
+
+	@Override
+	protected Object doInvoke(ExecutionCallback callback, Object target, Message<?> message) throws Exception {
+		if (!this.inFlightTransfers.begin()) {
+			throw new MessageHandlingException(message, "The upload is rejected: in-flight uploads are being drained");
+		}
+		try {
+			Object result = callback.execute();
+			if (result instanceof Transfer) {
+				Transfer transfer = (Transfer) result;
+				this.inFlightTransfers.track(transfer);
+				transfer.waitForCompletion();
+				return null;
+			}
+			return result;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted while waiting for the upload", ex);
+		}
+		finally {
+			this.inFlightTransfers.end();
+		}
+	}
+
+}
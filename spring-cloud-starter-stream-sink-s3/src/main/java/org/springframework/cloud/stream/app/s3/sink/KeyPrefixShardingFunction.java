@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeTypeUtils;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.util.Md5Utils;
+
+/**
+ * The {@link Function} for the {@link S3MessageHandler} key expression to prepend
+ * a hashed shard prefix to the S3 Object key.
+ * <p>
+ * The shard is the first 4 bytes of the key MD5 modulo the number of shards, formatted
+ * as a fixed-width hex string, so the same key is always stored under the same prefix.
+ * When the manifest key is provided, a JSON object describing the sharding scheme is
+ * stored in each target bucket before the first upload into it.
+ *
+ * @author agent
+ */
+public class KeyPrefixShardingFunction implements Function<Message<?>, String> {
+
+	private final int shards;
+
+	private final String separator;
+
+	private final String shardFormat;
+
+	private final Set<String> manifestBuckets = ConcurrentHashMap.newKeySet();
+
+	private Expression keyExpression;
+
+	private Expression bucketExpression;
+
+	private String manifestKey;
+
+	private TransferManager transferManager;
+
+	private EvaluationContext evaluationContext;
+
+	public KeyPrefixShardingFunction(int shards, String separator) {
+		Assert.isTrue(shards > 0, "'shards' must be greater than 0");
+		Assert.hasLength(separator, "'separator' must not be empty");
+		this.shards = shards;
+		this.separator = separator;
+		this.shardFormat = "%0" + Integer.toHexString(shards - 1).length() + "x";
+	}
+
+	/**
+	 * Set the expression for the S3 Object key before sharding; the {@link File} name is used
+	 * when not set, as in the {@link S3MessageHandler}.
+	 * @param keyExpression the key expression.
+	 * @param evaluationContext the context for the key expression.
+	 */
+	public void setKeyExpression(Expression keyExpression, EvaluationContext evaluationContext) {
+		this.keyExpression = keyExpression;
+		this.evaluationContext = evaluationContext;
+	}
+
+	/**
+	 * Write the manifest with the sharding scheme into the bucket of each uploaded message.
+	 * @param manifestKey the manifest S3 Object key.
+	 * @param bucketExpression the expression for the target bucket.
+	 * @param transferManager the {@link TransferManager} to access the Amazon S3.
+	 */
+	public void setManifest(String manifestKey, Expression bucketExpression, TransferManager transferManager) {
+		Assert.hasText(manifestKey, "'manifestKey' must not be empty");
+		Assert.notNull(bucketExpression, "'bucketExpression' must not be null");
+		Assert.notNull(transferManager, "'transferManager' must not be null");
+		this.manifestKey = manifestKey;
+		this.bucketExpression = bucketExpression;
+		this.transferManager = transferManager;
+	}
+
+	@Override
+	public String apply(Message<?> message) {
+		String key = null;
+		if (this.keyExpression != null) {
+			key = this.keyExpression.getValue(this.evaluationContext, message, String.class);
+		}
+		else if (message.getPayload() instanceof File) {
+			key = ((File) message.getPayload()).getName();
+		}
+		Assert.state(key != null, () -> "The S3 Object key cannot be determined for the message: " + message);
+
+		if (this.manifestKey != null) {
+			writeManifestIfNecessary(this.bucketExpression.getValue(this.evaluationContext, message, String.class));
+		}
+
+		return shard(key) + this.separator + key;
+	}
+
+	/**
+	 * Return the shard prefix for the provided S3 Object key.
+	 * @param key the S3 Object key.
+	 * @return the shard prefix.
+	 */
+	public String shard(String key) {
+		byte[] md5 = Md5Utils.computeMD5Hash(key.getBytes(StandardCharsets.UTF_8));
+		int hash = ((md5[0] & 0xff) << 24) | ((md5[1] & 0xff) << 16) | ((md5[2] & 0xff) << 8) | (md5[3] & 0xff);
+		return String.format(this.shardFormat, (hash & Integer.MAX_VALUE) % this.shards);
+	}
+
+	private void writeManifestIfNecessary(String bucket) {
+		if (!this.manifestBuckets.contains(bucket)) {
+			synchronized (this.manifestBuckets) {
+				if (!this.manifestBuckets.contains(bucket)) {
+					byte[] manifest = manifest().getBytes(StandardCharsets.UTF_8);
+					ObjectMetadata metadata = new ObjectMetadata();
+					metadata.setContentType(MimeTypeUtils.APPLICATION_JSON_VALUE);
+					metadata.setContentLength(manifest.length);
+					this.transferManager.getAmazonS3Client()
+							.putObject(new PutObjectRequest(bucket, this.manifestKey,
+									new ByteArrayInputStream(manifest), metadata));
+					this.manifestBuckets.add(bucket);
+				}
+			}
+		}
+	}
+
+	private String manifest() {
+		return "{\"shards\":" + this.shards
+				+ ",\"hash\":\"MD5\""
+				+ ",\"shardFormat\":\"" + this.shardFormat + "\""
+				+ ",\"separator\":\"" + this.separator.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+				+ ",\"key\":\"format(shardFormat, (first 4 bytes of MD5(key) as int & 0x7fffffff) % shards)"
+				+ " + separator + key\"}";
+	}
+
+}
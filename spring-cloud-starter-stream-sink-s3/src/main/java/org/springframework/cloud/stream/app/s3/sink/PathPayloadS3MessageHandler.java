@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.springframework.expression.Expression;
+import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.messaging.Message;
+
+import com.amazonaws.services.s3.transfer.TransferManager;
+
+/**
+ * The {@link S3MessageHandler} which also uploads the {@link Path} payloads of the default
+ * file system, as the {@link File} payloads; the {@link Path} is converted after the advice
+ * chain, so the advices see the original payload.
+ *
+ * @author agent
+ */
+class PathPayloadS3MessageHandler extends S3MessageHandler {
+
+	PathPayloadS3MessageHandler(TransferManager transferManager, String bucket, boolean produceReply) {
+		super(transferManager, bucket, produceReply);
+	}
+
+	PathPayloadS3MessageHandler(TransferManager transferManager, Expression bucketExpression,
+			boolean produceReply) {
+
+		super(transferManager, bucketExpression, produceReply);
+	}
+
+	@Override
+	protected Object handleRequestMessage(Message<?> requestMessage) {
+		Message<?> message = requestMessage;
+		if (message.getPayload() instanceof Path) {
+			File file = ChecksumVerifyingUploadAdvice.toFile(message.getPayload());
+			if (file != null) {
+				message = getMessageBuilderFactory()
+						.withPayload(file)
+						.copyHeaders(requestMessage.getHeaders())
+						.build();
+			}
+		}
+		return super.handleRequestMessage(message);
+	}
+
+}
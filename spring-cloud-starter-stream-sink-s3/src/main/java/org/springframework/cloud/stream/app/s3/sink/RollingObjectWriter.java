@@ -0,0 +1,693 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.aws.core.env.ResourceIdResolver;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.channel.MessagePublishingErrorHandler;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.integration.support.channel.BeanFactoryChannelResolver;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+import org.springframework.util.ErrorHandler;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.transfer.TransferManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@link AbstractMessageHandler} to append the message payloads as records into
+ * S3 Objects under time-based, Hive-style, partitions, e.g.
+ * {@code prefix/dt=2019-01-01/hr=09/part-00001-1a2b3c4d.gz}.
+ * <p>
+ * One object is open per active partition. Its content is streamed into S3 with a multipart
+ * upload, so only one part is buffered in memory per partition; an object smaller than one
+ * part is stored with a single put. The part buffers are borrowed from an {@link IoBufferPool}
+ * of the part size and a part is uploaded as soon as its buffer is full. The object is
+ * completed and the next one is started when the object size or the roll interval is
+ * reached. The partitions without records for the idle timeout are closed, and the least
+ * recently used partition is closed when the maximum number of open partitions is reached.
+ * All the open objects are completed on shutdown.
+ * <p>
+ * The file names carry a sequence number and a random id of this writer, so the objects
+ * of several instances and restarts don't overwrite each other.
+ * <p>
+ * A record is buffered, and its message is handled, before its object is completed. Each S3
+ * request of an object is therefore tried up to the configured number of attempts before the
+ * object is aborted. The records of an aborted object are lost: a failure on a write fails the
+ * message being written; a failure on a roll which is not caused by a message (time, idle,
+ * eviction or shutdown) is handled with the {@link ErrorHandler}, by default a
+ * {@link MessagePublishingErrorHandler} for the {@code errorChannel}.
+ *
+ * @author agent
+ */
+public class RollingObjectWriter extends AbstractMessageHandler implements DisposableBean, MeterBinder {
+
+	/**
+	 * The name of the {@link Gauge} for the number of open partitions.
+	 */
+	public static final String OPEN_PARTITIONS_GAUGE_NAME = "s3.rolling.open-partitions";
+
+	/**
+	 * The name of the {@link Counter} for the completed objects, tagged with the reason of the roll.
+	 */
+	public static final String OBJECTS_COUNTER_NAME = "s3.rolling.objects";
+
+	/**
+	 * The minimum size of a multipart upload part allowed by S3.
+	 */
+	public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	private static final Log LOGGER = LogFactory.getLog(RollingObjectWriter.class);
+
+	private final Map<String, PartitionWriter> partitions = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	private final String writerId = UUID.randomUUID().toString().substring(0, 8);
+
+	private final TransferManager transferManager;
+
+	private final Expression bucketExpression;
+
+	private ResourceIdResolver resourceIdResolver;
+
+	private Expression timestampExpression = new SpelExpressionParser().parseExpression("headers.timestamp");
+
+	private DateTimeFormatter partitionFormatter =
+			DateTimeFormatter.ofPattern("'dt='yyyy-MM-dd/'hr='HH").withZone(ZoneId.of("UTC"));
+
+	private String keyPrefix = "";
+
+	private long maxObjectSize = 128 * 1024 * 1024;
+
+	private int partSize = MIN_PART_SIZE;
+
+	private long rollInterval = 300000;
+
+	private long idleTimeout = 60000;
+
+	private int maxOpenPartitions = 16;
+
+	private boolean gzip = true;
+
+	private byte[] recordSeparator = "\n".getBytes(StandardCharsets.UTF_8);
+
+	private CannedAccessControlList acl;
+
+	private int completeAttempts = 3;
+
+	private IoBufferPool partBufferPool;
+
+	private ErrorHandler errorHandler;
+
+	private MeterRegistry meterRegistry;
+
+	private EvaluationContext evaluationContext;
+
+	private ScheduledFuture<?> rollingTask;
+
+	/**
+	 * Create an instance to write objects with the S3 client of the {@link TransferManager}.
+	 * @param transferManager the {@link TransferManager} for the S3 client.
+	 * @param bucketExpression the expression to evaluate the bucket against the message.
+	 */
+	public RollingObjectWriter(TransferManager transferManager, Expression bucketExpression) {
+		Assert.notNull(transferManager, "'transferManager' must not be null");
+		Assert.notNull(bucketExpression, "'bucketExpression' must not be null");
+		this.transferManager = transferManager;
+		this.bucketExpression = bucketExpression;
+	}
+
+	public void setResourceIdResolver(ResourceIdResolver resourceIdResolver) {
+		this.resourceIdResolver = resourceIdResolver;
+	}
+
+	/**
+	 * Set the expression to evaluate the time of the record against the message;
+	 * must return the epoch milliseconds or a {@link Date}.
+	 * @param timestampExpression the timestamp expression.
+	 */
+	public void setTimestampExpression(Expression timestampExpression) {
+		Assert.notNull(timestampExpression, "'timestampExpression' must not be null");
+		this.timestampExpression = timestampExpression;
+	}
+
+	/**
+	 * Set the {@link DateTimeFormatter} pattern for the partition path of the record time.
+	 * @param pattern the partition pattern.
+	 * @param zoneId the time zone of the partitions.
+	 */
+	public void setPartitionFormat(String pattern, ZoneId zoneId) {
+		Assert.hasText(pattern, "'pattern' must not be empty");
+		Assert.notNull(zoneId, "'zoneId' must not be null");
+		this.partitionFormatter = DateTimeFormatter.ofPattern(pattern).withZone(zoneId);
+	}
+
+	public void setKeyPrefix(String keyPrefix) {
+		Assert.notNull(keyPrefix, "'keyPrefix' must not be null");
+		this.keyPrefix = keyPrefix.isEmpty() || keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+	}
+
+	public void setMaxObjectSize(long maxObjectSize) {
+		Assert.isTrue(maxObjectSize > 0, "'maxObjectSize' must be greater than 0");
+		this.maxObjectSize = maxObjectSize;
+	}
+
+	public void setPartSize(int partSize) {
+		Assert.isTrue(partSize >= MIN_PART_SIZE, "'partSize' must not be less than " + MIN_PART_SIZE);
+		this.partSize = partSize;
+	}
+
+	public void setRollInterval(long rollInterval) {
+		Assert.isTrue(rollInterval > 0, "'rollInterval' must be greater than 0");
+		this.rollInterval = rollInterval;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		Assert.isTrue(idleTimeout > 0, "'idleTimeout' must be greater than 0");
+		this.idleTimeout = idleTimeout;
+	}
+
+	public void setMaxOpenPartitions(int maxOpenPartitions) {
+		Assert.isTrue(maxOpenPartitions > 0, "'maxOpenPartitions' must be greater than 0");
+		this.maxOpenPartitions = maxOpenPartitions;
+	}
+
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	public void setRecordSeparator(String recordSeparator) {
+		Assert.notNull(recordSeparator, "'recordSeparator' must not be null");
+		this.recordSeparator = recordSeparator.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public void setAcl(CannedAccessControlList acl) {
+		this.acl = acl;
+	}
+
+	/**
+	 * Set the number of attempts of each S3 request of an object before the object is aborted.
+	 * @param completeAttempts the number of attempts.
+	 */
+	public void setCompleteAttempts(int completeAttempts) {
+		Assert.isTrue(completeAttempts > 0, "'completeAttempts' must be greater than 0");
+		this.completeAttempts = completeAttempts;
+	}
+
+	/**
+	 * Set the {@link ErrorHandler} for the objects which fail to complete on a roll not caused
+	 * by a message. By default, a {@link MessagePublishingErrorHandler} for the {@code errorChannel}.
+	 * @param errorHandler the {@link ErrorHandler}.
+	 */
+	public void setErrorHandler(ErrorHandler errorHandler) {
+		this.errorHandler = errorHandler;
+	}
+
+	/**
+	 * Set the {@link IoBufferPool} to borrow the part buffers from; its buffer size must be
+	 * the part size. By default, a buffer is allocated for each object.
+	 * @param partBufferPool the {@link IoBufferPool} for the part buffers.
+	 */
+	public void setPartBufferPool(IoBufferPool partBufferPool) {
+		this.partBufferPool = partBufferPool;
+	}
+
+	/**
+	 * Return the number of partitions with writers.
+	 * @return the number of open partitions.
+	 */
+	public int getOpenPartitions() {
+		synchronized (this.partitions) {
+			return this.partitions.size();
+		}
+	}
+
+	@Override
+	public String getComponentType() {
+		return "s3:rolling-object-writer";
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.meterRegistry = registry;
+		Gauge.builder(OPEN_PARTITIONS_GAUGE_NAME, this, RollingObjectWriter::getOpenPartitions)
+				.description("The number of partitions with an open rolling object")
+				.register(registry);
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+		if (this.errorHandler == null) {
+			this.errorHandler = new MessagePublishingErrorHandler(new BeanFactoryChannelResolver(getBeanFactory()));
+		}
+		if (this.partBufferPool == null) {
+			this.partBufferPool = new IoBufferPool("part", this.partSize, 0);
+		}
+		Assert.state(this.partBufferPool.getBufferSize() == this.partSize,
+				() -> "The buffer size of the 'partBufferPool' must be the part size " + this.partSize);
+		long checkInterval = Math.max(10, Math.min(this.rollInterval, this.idleTimeout) / 4);
+		this.rollingTask = getTaskScheduler().scheduleWithFixedDelay(this::rollExpired, checkInterval);
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		byte[] record = toRecord(message);
+		String bucket = this.bucketExpression.getValue(this.evaluationContext, message, String.class);
+		Assert.state(bucket != null, () -> "The bucket cannot be evaluated against the message: " + message);
+		if (this.resourceIdResolver != null) {
+			bucket = this.resourceIdResolver.resolveToPhysicalResourceId(bucket);
+		}
+		String partition = this.keyPrefix + this.partitionFormatter.format(Instant.ofEpochMilli(timestamp(message)));
+
+		try {
+			while (!partitionWriter(bucket, partition).write(record)) {
+				// The writer has been closed concurrently; the next one is created
+			}
+		}
+		catch (IOException | AmazonClientException ex) {
+			throw new MessageHandlingException(message, "Failed to write the record into '"
+					+ bucket + "/" + partition + "'; the object is aborted with its buffered records", ex);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (this.rollingTask != null) {
+			this.rollingTask.cancel(false);
+		}
+		List<PartitionWriter> writers;
+		synchronized (this.partitions) {
+			writers = new ArrayList<>(this.partitions.values());
+			this.partitions.clear();
+		}
+		for (PartitionWriter writer : writers) {
+			writer.retire("shutdown");
+		}
+	}
+
+	private PartitionWriter partitionWriter(String bucket, String partition) {
+		String partitionKey = bucket + '/' + partition;
+		PartitionWriter evicted = null;
+		PartitionWriter writer;
+		synchronized (this.partitions) {
+			writer = this.partitions.get(partitionKey);
+			if (writer == null) {
+				if (this.partitions.size() >= this.maxOpenPartitions) {
+					Iterator<PartitionWriter> iterator = this.partitions.values().iterator();
+					evicted = iterator.next();
+					iterator.remove();
+				}
+				writer = new PartitionWriter(bucket, partition);
+				this.partitions.put(partitionKey, writer);
+			}
+		}
+		if (evicted != null) {
+			evicted.retire("evicted");
+		}
+		return writer;
+	}
+
+	private void rollExpired() {
+		long now = System.currentTimeMillis();
+		List<PartitionWriter> writers;
+		List<PartitionWriter> idleWriters = new ArrayList<>();
+		synchronized (this.partitions) {
+			writers = new ArrayList<>(this.partitions.values());
+			Iterator<PartitionWriter> iterator = this.partitions.values().iterator();
+			while (iterator.hasNext()) {
+				PartitionWriter writer = iterator.next();
+				if (now - writer.lastWrite >= this.idleTimeout) {
+					iterator.remove();
+					idleWriters.add(writer);
+				}
+			}
+		}
+		for (PartitionWriter writer : idleWriters) {
+			writer.retire("idle");
+		}
+		for (PartitionWriter writer : writers) {
+			if (!idleWriters.contains(writer)) {
+				writer.rollIfExpired(now);
+			}
+		}
+	}
+
+	private long timestamp(Message<?> message) {
+		Object timestamp = this.timestampExpression.getValue(this.evaluationContext, message);
+		if (timestamp instanceof Number) {
+			return ((Number) timestamp).longValue();
+		}
+		else if (timestamp instanceof Date) {
+			return ((Date) timestamp).getTime();
+		}
+		throw new MessageHandlingException(message, "The timestamp expression must return epoch milliseconds "
+				+ "or java.util.Date, not: " + timestamp);
+	}
+
+	private static byte[] toRecord(Message<?> message) {
+		Object payload = message.getPayload();
+		if (payload instanceof byte[]) {
+			return (byte[]) payload;
+		}
+		else if (payload instanceof String) {
+			return ((String) payload).getBytes(StandardCharsets.UTF_8);
+		}
+		throw new MessageHandlingException(message, "The rolling writer supports only byte[] and String payloads");
+	}
+
+	private <T> T withAttempts(Supplier<T> request) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return request.get();
+			}
+			catch (AmazonClientException ex) {
+				if (attempt >= this.completeAttempts) {
+					throw ex;
+				}
+				if (LOGGER.isWarnEnabled()) {
+					LOGGER.warn("The S3 request failed on attempt " + attempt + "; retrying", ex);
+				}
+				try {
+					Thread.sleep(100L * attempt);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw ex;
+				}
+			}
+		}
+	}
+
+	private void record(String reason) {
+		if (this.meterRegistry != null) {
+			Counter.builder(OBJECTS_COUNTER_NAME)
+					.description("The number of completed rolling objects")
+					.tag("reason", reason)
+					.register(this.meterRegistry)
+					.increment();
+		}
+	}
+
+	/**
+	 * The {@link ByteArrayOutputStream} over a fixed size buffer to upload its content without
+	 * copying. The full part handler is called as soon as the buffer is full, so it never grows.
+	 */
+	private static final class PartBuffer extends ByteArrayOutputStream {
+
+		private final Runnable fullPartHandler;
+
+		PartBuffer(byte[] buffer, Runnable fullPartHandler) {
+			super(0);
+			this.buf = buffer;
+			this.fullPartHandler = fullPartHandler;
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			super.write(b);
+			handleIfFull();
+		}
+
+		@Override
+		public synchronized void write(byte[] bytes, int offset, int length) {
+			int position = offset;
+			int remaining = length;
+			while (remaining > 0) {
+				int chunk = Math.min(remaining, this.buf.length - this.count);
+				super.write(bytes, position, chunk);
+				position += chunk;
+				remaining -= chunk;
+				handleIfFull();
+			}
+		}
+
+		ByteArrayInputStream toInputStream() {
+			return new ByteArrayInputStream(this.buf, 0, this.count);
+		}
+
+		byte[] getBuffer() {
+			return this.buf;
+		}
+
+		private void handleIfFull() {
+			if (this.count == this.buf.length) {
+				this.fullPartHandler.run();
+			}
+		}
+
+	}
+
+	/**
+	 * The writer of the objects for one partition; an object is opened on the first record.
+	 */
+	private final class PartitionWriter {
+
+		private final String bucket;
+
+		private final String partition;
+
+		private volatile long lastWrite = System.currentTimeMillis();
+
+		private String key;
+
+		private PartBuffer partBuffer;
+
+		private OutputStream outputStream;
+
+		private String uploadId;
+
+		private final List<PartETag> partETags = new ArrayList<>();
+
+		private long uploadedBytes;
+
+		private long openedAt;
+
+		private boolean retired;
+
+		PartitionWriter(String bucket, String partition) {
+			this.bucket = bucket;
+			this.partition = partition;
+		}
+
+		synchronized boolean write(byte[] record) throws IOException {
+			if (this.retired) {
+				return false;
+			}
+			this.lastWrite = System.currentTimeMillis();
+			if (this.key == null) {
+				open();
+			}
+			try {
+				this.outputStream.write(record);
+				this.outputStream.write(RollingObjectWriter.this.recordSeparator);
+			}
+			catch (IOException | RuntimeException ex) {
+				abort();
+				throw ex;
+			}
+			if (this.uploadedBytes + this.partBuffer.size() >= RollingObjectWriter.this.maxObjectSize) {
+				close("size");
+			}
+			return true;
+		}
+
+		synchronized void rollIfExpired(long now) {
+			if (!this.retired && this.key != null && now - this.openedAt >= RollingObjectWriter.this.rollInterval) {
+				closeOrReport("time");
+			}
+		}
+
+		synchronized void retire(String reason) {
+			this.retired = true;
+			if (this.key != null) {
+				closeOrReport(reason);
+			}
+		}
+
+		private void open() throws IOException {
+			this.key = String.format("%s/part-%05d-%s%s", this.partition,
+					RollingObjectWriter.this.sequence.incrementAndGet(), RollingObjectWriter.this.writerId,
+					RollingObjectWriter.this.gzip ? ".gz" : "");
+			this.partBuffer =
+					new PartBuffer(RollingObjectWriter.this.partBufferPool.acquire(), () -> uploadPart(false));
+			this.outputStream =
+					RollingObjectWriter.this.gzip
+							? new GZIPOutputStream(this.partBuffer)
+							: this.partBuffer;
+			this.openedAt = System.currentTimeMillis();
+		}
+
+		private void closeOrReport(String reason) {
+			String object = this.bucket + "/" + this.key;
+			try {
+				close(reason);
+			}
+			catch (IOException | RuntimeException ex) {
+				record("failed");
+				RollingObjectWriter.this.errorHandler.handleError(
+						new MessagingException("Failed to complete the rolling object '" + object + "' on " + reason
+								+ "; the object is aborted with its records", ex));
+			}
+		}
+
+		private void close(String reason) throws IOException {
+			try {
+				this.outputStream.close();
+				if (this.uploadId == null) {
+					ObjectMetadata objectMetadata = newObjectMetadata();
+					objectMetadata.setContentLength(this.partBuffer.size());
+					PutObjectRequest putObjectRequest =
+							new PutObjectRequest(this.bucket, this.key, this.partBuffer.toInputStream(), objectMetadata)
+									.withCannedAcl(RollingObjectWriter.this.acl);
+					// Each attempt reads the part buffer from the start
+					withAttempts(() ->
+							amazonS3().putObject(putObjectRequest.withInputStream(this.partBuffer.toInputStream())));
+				}
+				else {
+					if (this.partBuffer.size() > 0) {
+						uploadPart(true);
+					}
+					CompleteMultipartUploadRequest completeMultipartUploadRequest =
+							new CompleteMultipartUploadRequest(this.bucket, this.key, this.uploadId, this.partETags);
+					withAttempts(() -> amazonS3().completeMultipartUpload(completeMultipartUploadRequest));
+				}
+			}
+			catch (IOException | RuntimeException ex) {
+				abort();
+				throw ex;
+			}
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("The rolling object '" + this.bucket + "/" + this.key + "' is completed on " + reason);
+			}
+			reset();
+			record(reason);
+		}
+
+		private void uploadPart(boolean lastPart) {
+			AmazonS3 amazonS3 = amazonS3();
+			if (this.uploadId == null) {
+				InitiateMultipartUploadRequest initiateMultipartUploadRequest =
+						new InitiateMultipartUploadRequest(this.bucket, this.key, newObjectMetadata())
+								.withCannedACL(RollingObjectWriter.this.acl);
+				this.uploadId =
+						withAttempts(() -> amazonS3.initiateMultipartUpload(initiateMultipartUploadRequest))
+								.getUploadId();
+			}
+			UploadPartRequest uploadPartRequest =
+					new UploadPartRequest()
+							.withBucketName(this.bucket)
+							.withKey(this.key)
+							.withUploadId(this.uploadId)
+							.withPartNumber(this.partETags.size() + 1)
+							.withPartSize(this.partBuffer.size())
+							.withLastPart(lastPart);
+			PartETag partETag =
+					withAttempts(() ->
+							amazonS3.uploadPart(uploadPartRequest.withInputStream(this.partBuffer.toInputStream())))
+							.getPartETag();
+			this.partETags.add(partETag);
+			this.uploadedBytes += this.partBuffer.size();
+			this.partBuffer.reset();
+		}
+
+		private void abort() {
+			if (this.uploadId != null) {
+				try {
+					amazonS3().abortMultipartUpload(
+							new AbortMultipartUploadRequest(this.bucket, this.key, this.uploadId));
+				}
+				catch (AmazonClientException ex) {
+					LOGGER.warn("Cannot abort the multipart upload of '" + this.bucket + "/" + this.key + "'", ex);
+				}
+			}
+			reset();
+		}
+
+		private void reset() {
+			if (this.partBuffer != null) {
+				RollingObjectWriter.this.partBufferPool.release(this.partBuffer.getBuffer());
+			}
+			this.key = null;
+			this.partBuffer = null;
+			this.outputStream = null;
+			this.uploadId = null;
+			this.partETags.clear();
+			this.uploadedBytes = 0;
+		}
+
+		private ObjectMetadata newObjectMetadata() {
+			ObjectMetadata objectMetadata = new ObjectMetadata();
+			if (RollingObjectWriter.this.gzip) {
+				objectMetadata.setContentType("application/gzip");
+			}
+			return objectMetadata;
+		}
+
+		private AmazonS3 amazonS3() {
+			return RollingObjectWriter.this.transferManager.getAmazonS3Client();
+		}
+
+	}
+
+}
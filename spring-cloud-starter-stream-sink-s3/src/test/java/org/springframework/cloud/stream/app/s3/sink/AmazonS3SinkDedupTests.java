@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.spy;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessagingException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"s3.bucket=" + AmazonS3SinkDedupTests.S3_BUCKET,
+				"s3.key-expression=headers.key",
+				"s3.dedup.enabled=true" })
+@DirtiesContext
+public class AmazonS3SinkDedupTests {
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	static final String S3_BUCKET = "dedup-bucket";
+
+	static final String VERIFIED_S3_BUCKET = "verified-dedup-bucket";
+
+	@Autowired
+	protected Sink channels;
+
+	@Autowired
+	protected AmazonS3 amazonS3;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${s3.bucket}")
+	protected String bucket;
+
+	@BeforeClass
+	public static void setup() {
+		for (String bucket : new String[] { S3_BUCKET, VERIFIED_S3_BUCKET }) {
+			S3_SERVER.createBucket(bucket);
+			S3_SERVER.putObject(bucket, "existing", "existing content".getBytes());
+		}
+	}
+
+	@Test
+	public void testUnchangedPayloadsAreNotUploaded() {
+		int putObjects = S3_SERVER.getRequestCount("PutObject");
+		int headObjects = S3_SERVER.getRequestCount("HeadObject");
+		double skipped = uploads("skipped");
+		double uploaded = uploads("uploaded");
+
+		this.channels.input().send(MessageBuilder.withPayload("existing content".getBytes())
+				.setHeader("key", "existing")
+				.build());
+
+		assertEquals(putObjects, S3_SERVER.getRequestCount("PutObject"));
+		assertEquals(headObjects + 1, S3_SERVER.getRequestCount("HeadObject"));
+
+		// The send returns when the upload is completed
+		byte[] content = "new content".getBytes();
+		this.channels.input().send(MessageBuilder.withPayload(content).setHeader("key", "new").build());
+		assertNotNull(S3_SERVER.getObject(this.bucket, "new"));
+
+		this.channels.input().send(MessageBuilder.withPayload(content).setHeader("key", "new").build());
+		this.channels.input().send(MessageBuilder.withPayload("changed content".getBytes())
+				.setHeader("key", "existing")
+				.build());
+
+		assertEquals(putObjects + 2, S3_SERVER.getRequestCount("PutObject"));
+		assertArrayEquals(content, S3_SERVER.getObject(this.bucket, "new"));
+
+		assertEquals(skipped + 2, uploads("skipped"), 0);
+		assertEquals(uploaded + 2, uploads("uploaded"), 0);
+	}
+
+	@Test
+	public void testFailedUploadFailsMessageAndIsNotCached() {
+		byte[] content = "failing content".getBytes();
+		this.channels.input().send(MessageBuilder.withPayload("first content".getBytes())
+				.setHeader("key", "failing")
+				.build());
+
+		S3_SERVER.setThrottlingRate(1);
+		try {
+			this.channels.input().send(MessageBuilder.withPayload(content).setHeader("key", "failing").build());
+			fail("MessagingException expected");
+		}
+		catch (MessagingException ex) {
+			assertNotNull(ex.getFailedMessage());
+		}
+		finally {
+			S3_SERVER.setThrottlingRate(0);
+		}
+
+		int putObjects = S3_SERVER.getRequestCount("PutObject");
+		this.channels.input().send(MessageBuilder.withPayload(content).setHeader("key", "failing").build());
+
+		assertEquals(putObjects + 1, S3_SERVER.getRequestCount("PutObject"));
+		assertArrayEquals(content, S3_SERVER.getObject(this.bucket, "failing"));
+	}
+
+	protected double uploads(String result) {
+		return this.meterRegistry.find(DeduplicatingUploadAdvice.UPLOADS_COUNTER_NAME)
+				.tag("result", result)
+				.counters()
+				.stream()
+				.mapToDouble(Counter::count)
+				.sum();
+	}
+
+	@TestPropertySource(properties = {
+			"s3.bucket=" + AmazonS3SinkDedupTests.VERIFIED_S3_BUCKET,
+			"s3.integrity.enabled=true" })
+	public static class AmazonS3SinkVerifiedDedupTests extends AmazonS3SinkDedupTests {
+
+		@Test
+		public void testCorruptedUploadIsRepeatedAndCachedWhenVerified() {
+			byte[] content = "corrupted content".getBytes();
+			willAnswer(invocation -> {
+				PutObjectResult result = (PutObjectResult) invocation.callRealMethod();
+				result.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash("other content".getBytes())));
+				return result;
+			})
+					.willCallRealMethod()
+					.given(this.amazonS3)
+					.putObject(argThat((PutObjectRequest request) -> "corrupted".equals(request.getKey())));
+
+			int putObjects = S3_SERVER.getRequestCount("PutObject");
+			double skipped = uploads("skipped");
+
+			// The upload repeated after the ETag mismatch must not be skipped as just cached
+			this.channels.input().send(MessageBuilder.withPayload(content).setHeader("key", "corrupted").build());
+
+			assertEquals(putObjects + 2, S3_SERVER.getRequestCount("PutObject"));
+			assertArrayEquals(content, S3_SERVER.getObject(this.bucket, "corrupted"));
+
+			this.channels.input().send(MessageBuilder.withPayload(content).setHeader("key", "corrupted").build());
+
+			assertEquals(putObjects + 2, S3_SERVER.getRequestCount("PutObject"));
+			assertEquals(skipped + 1, uploads("skipped"), 0);
+		}
+
+	}
+
+	@SpringBootApplication
+	public static class S3SinkDedupApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return spy(S3_SERVER.createClient());
+		}
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
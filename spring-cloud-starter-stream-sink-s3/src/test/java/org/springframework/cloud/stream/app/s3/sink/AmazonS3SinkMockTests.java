@@ -16,21 +16,38 @@
 
 package org.springframework.cloud.stream.app.s3.sink;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -43,35 +60,50 @@ import org.mockito.stubbing.Answer;
 
 import org.springframework.beans.DirectFieldAccessor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.ETagDigest;
+import org.springframework.cloud.stream.app.s3.InFlightTransfers;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.MediaType;
 import org.springframework.integration.aws.outbound.S3MessageHandler;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ErrorMessage;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
 
 import com.amazonaws.event.ProgressEvent;
 import com.amazonaws.event.ProgressEventType;
 import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.SetObjectAclRequest;
 import com.amazonaws.services.s3.transfer.PersistableTransfer;
+import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.internal.S3ProgressListener;
 import com.amazonaws.services.s3.transfer.internal.S3ProgressPublisher;
+import com.amazonaws.util.BinaryUtils;
 import com.amazonaws.util.Md5Utils;
 import com.amazonaws.util.StringInputStream;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 /**
  * @author Artem Bilan
  */
@@ -100,9 +132,12 @@ public abstract class AmazonS3SinkMockTests {
 	@Autowired
 	private AmazonS3Client amazonS3;
 
-	@Autowired
+	@Autowired(required = false)
 	protected S3MessageHandler s3MessageHandler;
 
+	@Autowired
+	protected TransferManager s3TransferManager;
+
 	@Autowired
 	protected Sink channels;
 
@@ -114,8 +149,6 @@ public abstract class AmazonS3SinkMockTests {
 
 	@Before
 	public void setupTest() {
-		Object transferManager = TestUtils.getPropertyValue(this.s3MessageHandler, "transferManager");
-
 		AmazonS3 amazonS3 = spy(this.amazonS3);
 
 		willAnswer(new Answer<PutObjectResult>() {
@@ -139,7 +172,7 @@ public abstract class AmazonS3SinkMockTests {
 		}).given(amazonS3)
 				.setObjectAcl(any(SetObjectAclRequest.class));
 
-		new DirectFieldAccessor(transferManager).setPropertyValue("s3", amazonS3);
+		new DirectFieldAccessor(this.s3TransferManager).setPropertyValue("s3", amazonS3);
 	}
 
 	public abstract void test() throws Exception;
@@ -230,9 +263,367 @@ public abstract class AmazonS3SinkMockTests {
 
 	}
 
+	@TestPropertySource(properties = {
+			"s3.key-expression=headers.key",
+			"s3.sharding.shards=16",
+			"s3.sharding.manifest-key=_sharding.json" })
+	public static class AmazonS3UploadShardedKeyTests extends AmazonS3SinkMockTests {
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			AmazonS3 amazonS3Client = TestUtils.getPropertyValue(this.s3MessageHandler, "transferManager.s3",
+					AmazonS3.class);
+
+			Message<?> message = MessageBuilder.withPayload("a".getBytes())
+					.setHeader("key", "2019/01/01/00/data.bin")
+					.build();
+
+			this.channels.input().send(message);
+
+			ArgumentCaptor<PutObjectRequest> putObjectRequestArgumentCaptor =
+					ArgumentCaptor.forClass(PutObjectRequest.class);
+			verify(amazonS3Client, timeout(10000).times(2)).putObject(putObjectRequestArgumentCaptor.capture());
+
+			List<PutObjectRequest> putObjectRequests = putObjectRequestArgumentCaptor.getAllValues();
+
+			PutObjectRequest manifestRequest = putObjectRequests.get(0);
+			assertThat(manifestRequest.getBucketName(), equalTo(S3_BUCKET));
+			assertThat(manifestRequest.getKey(), equalTo("_sharding.json"));
+			assertThat(manifestRequest.getMetadata().getContentType(), equalTo(MediaType.APPLICATION_JSON_VALUE));
+
+			byte[] md5 = Md5Utils.computeMD5Hash("2019/01/01/00/data.bin".getBytes(StandardCharsets.UTF_8));
+			int hash = ((md5[0] & 0xff) << 24) | ((md5[1] & 0xff) << 16) | ((md5[2] & 0xff) << 8) | (md5[3] & 0xff);
+			String shard = Integer.toHexString((hash & Integer.MAX_VALUE) % 16);
+
+			PutObjectRequest putObjectRequest = putObjectRequests.get(1);
+			assertThat(putObjectRequest.getBucketName(), equalTo(S3_BUCKET));
+			assertThat(putObjectRequest.getKey(), equalTo(shard + "/2019/01/01/00/data.bin"));
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"s3.key-expression=headers.key",
+			"s3.integrity.enabled=true" })
+	public static class AmazonS3VerifiedUploadTests extends AmazonS3SinkMockTests {
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			AmazonS3 amazonS3Client = TestUtils.getPropertyValue(this.s3MessageHandler, "transferManager.s3",
+					AmazonS3.class);
+
+			byte[] payload = "a".getBytes();
+
+			PutObjectResult corruptedResult = new PutObjectResult();
+			corruptedResult.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash("b".getBytes())));
+			PutObjectResult verifiedResult = new PutObjectResult();
+			verifiedResult.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(payload)));
+
+			willReturn(corruptedResult, verifiedResult)
+					.given(amazonS3Client)
+					.putObject(any(PutObjectRequest.class));
+
+			Message<?> message = MessageBuilder.withPayload(payload)
+					.setHeader("key", "myBytes")
+					.build();
+
+			this.channels.input().send(message);
+
+			ArgumentCaptor<PutObjectRequest> putObjectRequestArgumentCaptor =
+					ArgumentCaptor.forClass(PutObjectRequest.class);
+			verify(amazonS3Client, times(2)).putObject(putObjectRequestArgumentCaptor.capture());
+
+			PutObjectRequest putObjectRequest = putObjectRequestArgumentCaptor.getValue();
+			assertThat(putObjectRequest.getKey(), equalTo("myBytes"));
+			assertThat(putObjectRequest.getMetadata().getContentMD5(), equalTo(Md5Utils.md5AsBase64(payload)));
+
+			assertThat(this.meterRegistry.get(ETagDigest.VERIFICATION_TIMER_NAME)
+					.tag("operation", "upload")
+					.tag("result", "mismatch")
+					.timer()
+					.count(), equalTo(1L));
+
+			assertThat(this.meterRegistry.get(ETagDigest.VERIFICATION_TIMER_NAME)
+					.tag("operation", "upload")
+					.tag("result", "match")
+					.timer()
+					.count(), equalTo(1L));
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"s3.key-expression=headers.key",
+			"s3.integrity.enabled=true" })
+	public static class AmazonS3VerifiedInputStreamUploadTests extends AmazonS3SinkMockTests {
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			AmazonS3 amazonS3Client = TestUtils.getPropertyValue(this.s3MessageHandler, "transferManager.s3",
+					AmazonS3.class);
+
+			PutObjectResult corruptedResult = new PutObjectResult();
+			corruptedResult.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash("b".getBytes())));
+			PutObjectResult verifiedResult = new PutObjectResult();
+			verifiedResult.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash("a".getBytes())));
+
+			List<String> uploadedContents = new CopyOnWriteArrayList<>();
+			willAnswer(upload(uploadedContents, corruptedResult))
+					.willAnswer(upload(uploadedContents, verifiedResult))
+					.given(amazonS3Client)
+					.putObject(any(PutObjectRequest.class));
+
+			Message<?> message = MessageBuilder.withPayload(new StringInputStream("a"))
+					.setHeader("key", "myInputStream")
+					.build();
+
+			this.channels.input().send(message);
+
+			// The in-memory stream closed by the first upload is read again for the repeated one
+			assertThat(uploadedContents, contains("a", "a"));
+
+			assertThat(this.meterRegistry.get(ETagDigest.VERIFICATION_TIMER_NAME)
+					.tag("operation", "upload")
+					.tag("result", "mismatch")
+					.timer()
+					.count(), equalTo(1L));
+
+			assertThat(this.meterRegistry.get(ETagDigest.VERIFICATION_TIMER_NAME)
+					.tag("operation", "upload")
+					.tag("result", "match")
+					.timer()
+					.count(), equalTo(1L));
+		}
+
+		private static Answer<PutObjectResult> upload(List<String> uploadedContents, PutObjectResult result) {
+			return invocation -> {
+				// Like the AmazonS3Client, read the content and close the stream
+				PutObjectRequest putObjectRequest = invocation.getArgument(0);
+				try (InputStream inputStream = putObjectRequest.getInputStream()) {
+					uploadedContents.add(StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+				}
+				return result;
+			};
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"s3.key-expression=headers.key",
+			"s3.drain.enabled=true",
+			"s3.drain.orphaned-upload-age=0" })
+	public static class AmazonS3DrainedUploadTests extends AmazonS3SinkMockTests {
+
+		@Autowired
+		private InFlightTransfers s3InFlightUploads;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			AmazonS3 amazonS3Client = TestUtils.getPropertyValue(this.s3MessageHandler, "transferManager.s3",
+					AmazonS3.class);
+
+			CountDownLatch uploadLatch = new CountDownLatch(1);
+
+			willThrow(new AmazonS3Exception("Internal Error"))
+					.willAnswer(invocation -> {
+						uploadLatch.await(10, TimeUnit.SECONDS);
+						return new PutObjectResult();
+					})
+					.given(amazonS3Client)
+					.putObject(any(PutObjectRequest.class));
+
+			try {
+				this.channels.input().send(MessageBuilder.withPayload("a".getBytes())
+						.setHeader("key", "myFailedBytes")
+						.build());
+				fail("MessageHandlingException expected");
+			}
+			catch (MessageHandlingException ex) {
+				assertThat(ex.getCause(), instanceOf(AmazonS3Exception.class));
+			}
+			assertThat(this.s3InFlightUploads.getInFlight(), equalTo(0));
+
+			// The send returns only when the upload is done
+			AtomicReference<Exception> sendFailure = new AtomicReference<>();
+			Thread sender = new Thread(() -> {
+				try {
+					this.channels.input().send(MessageBuilder.withPayload("a".getBytes())
+							.setHeader("key", "myBytes")
+							.build());
+				}
+				catch (Exception ex) {
+					sendFailure.set(ex);
+				}
+			});
+			sender.start();
+
+			for (int i = 0; i < 100 && this.s3InFlightUploads.getInFlight() == 0; i++) {
+				Thread.sleep(100);
+			}
+			assertThat(this.s3InFlightUploads.getInFlight(), equalTo(1));
+			assertTrue(sender.isAlive());
+
+			Thread drain = new Thread(this.s3InFlightUploads::stop);
+			drain.start();
+
+			for (int i = 0; i < 100 && this.s3InFlightUploads.isRunning(); i++) {
+				Thread.sleep(100);
+			}
+			assertFalse(this.s3InFlightUploads.isRunning());
+
+			try {
+				this.channels.input().send(MessageBuilder.withPayload("b".getBytes())
+						.setHeader("key", "myOtherBytes")
+						.build());
+				fail("MessageHandlingException expected");
+			}
+			catch (MessageHandlingException ex) {
+				assertThat(ex.getMessage(), containsString("in-flight uploads are being drained"));
+			}
+
+			uploadLatch.countDown();
+			sender.join(10000);
+			drain.join(10000);
+
+			assertFalse(sender.isAlive());
+			assertNull(sendFailure.get());
+			assertFalse(drain.isAlive());
+			assertThat(this.s3InFlightUploads.getInFlight(), equalTo(0));
+
+			ArgumentCaptor<PutObjectRequest> putObjectRequestArgumentCaptor =
+					ArgumentCaptor.forClass(PutObjectRequest.class);
+			verify(amazonS3Client, times(2)).putObject(putObjectRequestArgumentCaptor.capture());
+			assertThat(putObjectRequestArgumentCaptor.getValue().getKey(), equalTo("myBytes"));
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"s3.rolling.enabled=true",
+			"s3.rolling.key-prefix=data",
+			"s3.rolling.timestamp-expression=headers.time",
+			"s3.rolling.gzip=false",
+			"s3.rolling.max-object-size=4",
+			"s3.rolling.idle-timeout=500",
+			// The captured requests are read after the uploads; their part buffers must not be reused
+			"s3.buffers.max-pooled=0" })
+	public static class AmazonS3RollingUploadTests extends AmazonS3SinkMockTests {
+
+		@Autowired
+		private RollingObjectWriter s3RollingObjectWriter;
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			assertNull(this.s3MessageHandler);
+
+			AmazonS3 amazonS3Client = this.s3TransferManager.getAmazonS3Client();
+
+			long time = ZonedDateTime.of(2019, 1, 1, 9, 30, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+
+			this.channels.input().send(MessageBuilder.withPayload("ab").setHeader("time", time).build());
+			this.channels.input().send(MessageBuilder.withPayload("cd".getBytes())
+					.setHeader("time", time + 1000)
+					.build());
+			this.channels.input().send(MessageBuilder.withPayload("ef")
+					.setHeader("time", time + TimeUnit.HOURS.toMillis(1))
+					.build());
+
+			ArgumentCaptor<PutObjectRequest> putObjectRequestArgumentCaptor =
+					ArgumentCaptor.forClass(PutObjectRequest.class);
+			verify(amazonS3Client, timeout(10000).times(2)).putObject(putObjectRequestArgumentCaptor.capture());
+
+			List<PutObjectRequest> putObjectRequests = putObjectRequestArgumentCaptor.getAllValues();
+
+			PutObjectRequest sizeRolledRequest = putObjectRequests.get(0);
+			assertThat(sizeRolledRequest.getBucketName(), equalTo(S3_BUCKET));
+			assertTrue(sizeRolledRequest.getKey().matches("data/dt=2019-01-01/hr=09/part-00001-\\w{8}"));
+			assertThat(StreamUtils.copyToString(sizeRolledRequest.getInputStream(), StandardCharsets.UTF_8),
+					equalTo("ab\ncd\n"));
+
+			PutObjectRequest idleRequest = putObjectRequests.get(1);
+			assertTrue(idleRequest.getKey().matches("data/dt=2019-01-01/hr=10/part-00002-\\w{8}"));
+			assertThat(StreamUtils.copyToString(idleRequest.getInputStream(), StandardCharsets.UTF_8),
+					equalTo("ef\n"));
+
+			assertThat(this.meterRegistry.get(RollingObjectWriter.OBJECTS_COUNTER_NAME)
+					.tag("reason", "size")
+					.counter()
+					.count(), equalTo(1.0));
+
+			for (int i = 0; i < 100 && this.s3RollingObjectWriter.getOpenPartitions() > 0; i++) {
+				Thread.sleep(100);
+			}
+			assertThat(this.s3RollingObjectWriter.getOpenPartitions(), equalTo(0));
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"s3.rolling.enabled=true",
+			"s3.rolling.gzip=false",
+			"s3.rolling.idle-timeout=200",
+			"s3.rolling.complete-attempts=2" })
+	public static class AmazonS3RollingUploadFailureTests extends AmazonS3SinkMockTests {
+
+		@Autowired
+		@Qualifier(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME)
+		private SubscribableChannel errorChannel;
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			AmazonS3 amazonS3Client = this.s3TransferManager.getAmazonS3Client();
+			willThrow(new AmazonS3Exception("Service Unavailable"))
+					.given(amazonS3Client)
+					.putObject(any(PutObjectRequest.class));
+
+			BlockingQueue<Message<?>> errors = new LinkedBlockingQueue<>();
+			this.errorChannel.subscribe(errors::add);
+
+			this.channels.input().send(MessageBuilder.withPayload("ab").build());
+
+			Message<?> error = errors.poll(10, TimeUnit.SECONDS);
+			assertNotNull(error);
+			assertThat(error, instanceOf(ErrorMessage.class));
+			assertThat(error.getPayload(), instanceOf(MessagingException.class));
+			assertThat(((MessagingException) error.getPayload()).getMessage(), containsString("on idle"));
+			assertThat(((MessagingException) error.getPayload()).getCause(), instanceOf(AmazonS3Exception.class));
+
+			verify(amazonS3Client, times(2)).putObject(any(PutObjectRequest.class));
+
+			assertThat(this.meterRegistry.get(RollingObjectWriter.OBJECTS_COUNTER_NAME)
+					.tag("reason", "failed")
+					.counter()
+					.count(), equalTo(1.0));
+		}
+
+	}
+
 	@SpringBootApplication
 	public static class S3SinkApplication {
 
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
 		@Bean
 		public CountDownLatch aclLatch() {
 			return new CountDownLatch(1);
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.ETagDigest;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"s3.bucket=" + AmazonS3SinkParallelUploadTests.S3_BUCKET,
+				"s3.integrity.enabled=true",
+				"s3.parallel-upload.enabled=true",
+				"s3.parallel-upload.multipart-threshold=" + S3StandInServer.MIN_PART_SIZE })
+@DirtiesContext
+public class AmazonS3SinkParallelUploadTests {
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	static final String S3_BUCKET = "parallel-upload-bucket";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Autowired
+	private Sink channels;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@BeforeClass
+	public static void setup() {
+		S3_SERVER.createBucket(S3_BUCKET);
+	}
+
+	@Test
+	public void testFileAndPathPayloadsAreUploadedInParallelParts() throws Exception {
+		byte[] content = new byte[2 * S3StandInServer.MIN_PART_SIZE + 1024];
+		new Random().nextBytes(content);
+		File largeFile = this.temporaryFolder.newFile("large.bin");
+		Files.write(largeFile.toPath(), content);
+
+		this.channels.input().send(MessageBuilder.withPayload(largeFile).build());
+
+		assertEquals(1, S3_SERVER.getRequestCount("CreateMultipartUpload"));
+		assertEquals(3, S3_SERVER.getRequestCount("UploadPart"));
+		assertEquals(1, S3_SERVER.getRequestCount("CompleteMultipartUpload"));
+		assertArrayEquals(content, S3_SERVER.getObject(S3_BUCKET, "large.bin"));
+
+		Path smallFile = this.temporaryFolder.newFile("small.txt").toPath();
+		Files.write(smallFile, "small content".getBytes());
+
+		this.channels.input().send(MessageBuilder.withPayload(smallFile).build());
+
+		assertEquals(1, S3_SERVER.getRequestCount("PutObject"));
+		assertArrayEquals("small content".getBytes(), S3_SERVER.getObject(S3_BUCKET, "small.txt"));
+
+		assertEquals(2, this.meterRegistry.get(ETagDigest.VERIFICATION_TIMER_NAME)
+				.tag("operation", "upload")
+				.tag("result", "match")
+				.timer()
+				.count());
+	}
+
+	@SpringBootApplication
+	public static class S3SinkParallelUploadApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return S3_SERVER.createClient();
+		}
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
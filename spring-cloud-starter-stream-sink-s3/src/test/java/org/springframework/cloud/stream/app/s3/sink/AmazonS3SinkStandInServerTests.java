@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * End-to-end tests of the sink against the {@link S3StandInServer} over HTTP.
+ *
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"s3.bucket=" + AmazonS3SinkStandInServerTests.S3_BUCKET,
+				"s3.rolling.enabled=true",
+				"s3.rolling.key-prefix=data",
+				"s3.rolling.timestamp-expression=0",
+				"s3.rolling.gzip=false",
+				"s3.rolling.record-separator=",
+				"s3.rolling.idle-timeout=500" })
+@DirtiesContext
+public class AmazonS3SinkStandInServerTests {
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	static final String S3_BUCKET = "stand-in-bucket";
+
+	private static final int RECORD_SIZE = 1024 * 1024;
+
+	private static final int RECORDS = 11;
+
+	@Autowired
+	private Sink channels;
+
+	@Autowired
+	private RollingObjectWriter s3RollingObjectWriter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@BeforeClass
+	public static void setup() {
+		S3_SERVER.createBucket(S3_BUCKET);
+		S3_SERVER.setLatency(5);
+	}
+
+	@Test
+	public void testMultipartRollingObjectOverHttp() throws Exception {
+		S3_SERVER.throttleNext(2);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < RECORDS; i++) {
+			byte[] record = new byte[RECORD_SIZE];
+			Arrays.fill(record, (byte) ('a' + i));
+			expected.write(record);
+			this.channels.input().send(MessageBuilder.withPayload(record).build());
+		}
+
+		for (int i = 0; i < 100 && this.s3RollingObjectWriter.getOpenPartitions() > 0; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(0, this.s3RollingObjectWriter.getOpenPartitions());
+
+		List<String> keys = S3_SERVER.getKeys(S3_BUCKET);
+		assertEquals(1, keys.size());
+		assertTrue(keys.get(0).matches("data/dt=1970-01-01/hr=00/part-00001-\\w{8}"));
+		assertArrayEquals(expected.toByteArray(), S3_SERVER.getObject(S3_BUCKET, keys.get(0)));
+
+		assertTrue(S3_SERVER.getRequestCount("UploadPart")
+				>= RECORDS * RECORD_SIZE / RollingObjectWriter.MIN_PART_SIZE);
+		assertEquals(0, S3_SERVER.getRequestCount("PutObject"));
+		assertEquals(0, S3_SERVER.getPendingUploads());
+
+		// The parts are uploaded from the same pooled buffer
+		assertEquals(1, this.meterRegistry.get(IoBufferPool.ALLOCATIONS_COUNTER_NAME)
+				.tag("pool", "part")
+				.counter()
+				.count(), 0);
+		assertEquals(0, this.meterRegistry.get(IoBufferPool.EXHAUSTED_COUNTER_NAME)
+				.tag("pool", "part")
+				.counter()
+				.count(), 0);
+	}
+
+	@SpringBootApplication
+	public static class S3SinkStandInApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return S3_SERVER.createClient();
+		}
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
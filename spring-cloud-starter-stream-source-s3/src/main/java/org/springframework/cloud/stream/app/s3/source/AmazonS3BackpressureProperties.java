@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the source backpressure on a slow downstream.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.backpressure")
+@Validated
+public class AmazonS3BackpressureProperties {
+
+	/**
+	 * Limit the local files staged for emission and pause the synchronization when the downstream is slow.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The maximum number of remote files transferred into the local directory but not yet emitted.
+	 */
+	private int maxStagedFiles = 100;
+
+	/**
+	 * The maximum number of bytes transferred into the local directory but not yet emitted.
+	 */
+	private long maxStagedBytes = 1024 * 1024 * 1024;
+
+	/**
+	 * The time in milliseconds of a send to the output above which the downstream is considered slow.
+	 */
+	private long maxSendTime = 1000;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Min(1)
+	public int getMaxStagedFiles() {
+		return this.maxStagedFiles;
+	}
+
+	public void setMaxStagedFiles(int maxStagedFiles) {
+		this.maxStagedFiles = maxStagedFiles;
+	}
+
+	@Min(1)
+	public long getMaxStagedBytes() {
+		return this.maxStagedBytes;
+	}
+
+	public void setMaxStagedBytes(long maxStagedBytes) {
+		this.maxStagedBytes = maxStagedBytes;
+	}
+
+	@Min(1)
+	public long getMaxSendTime() {
+		return this.maxSendTime;
+	}
+
+	public void setMaxSendTime(long maxSendTime) {
+		this.maxSendTime = maxSendTime;
+	}
+
+}
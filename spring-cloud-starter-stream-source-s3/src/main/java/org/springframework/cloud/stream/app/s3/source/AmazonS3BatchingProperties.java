@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for grouping the line messages of the {@code lines} reading mode into batches.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.batching")
+@Validated
+public class AmazonS3BatchingProperties {
+
+	/**
+	 * The maximum number of lines in one batch message; batching is disabled when less than 2.
+	 */
+	private int size = 1;
+
+	/**
+	 * The maximum number of bytes of lines in one batch message; 0 means no limit.
+	 */
+	private long maxBytes = 0;
+
+	/**
+	 * The time in milliseconds after which a partial batch is emitted.
+	 */
+	private long timeout = 1000;
+
+	/**
+	 * The batch message payload format: 'list' of lines or 'joined' newline-delimited byte array.
+	 */
+	private BatchFormat format = BatchFormat.list;
+
+	@Min(1)
+	public int getSize() {
+		return this.size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	@Min(0)
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@Min(1)
+	public long getTimeout() {
+		return this.timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	@NotNull
+	public BatchFormat getFormat() {
+		return this.format;
+	}
+
+	public void setFormat(BatchFormat format) {
+		this.format = format;
+	}
+
+	public boolean isEnabled() {
+		return this.size > 1;
+	}
+
+	public enum BatchFormat {
+
+		/**
+		 * A {@code List<String>} of lines.
+		 */
+		list,
+
+		/**
+		 * A {@code byte[]} of newline-joined lines.
+		 */
+		joined
+
+	}
+
+}
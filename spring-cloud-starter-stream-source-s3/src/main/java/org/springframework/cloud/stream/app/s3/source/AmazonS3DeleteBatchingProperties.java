@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the deletion of remote files in DeleteObjects batches.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.delete-batching")
+@Validated
+public class AmazonS3DeleteBatchingProperties {
+
+	/**
+	 * Delete the remote files with 's3.delete-remote-files' in DeleteObjects batches instead of one by one.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The number of remote files in a bucket to send them for deletion without waiting for the flush.
+	 */
+	private int batchSize = BatchingObjectDeleter.MAX_BATCH_SIZE;
+
+	/**
+	 * The interval in milliseconds to send all the queued remote files for deletion.
+	 */
+	private long flushInterval = 1000;
+
+	/**
+	 * Delete a remote file only after its local file has been sent downstream successfully.
+	 */
+	private boolean afterAck = false;
+
+	/**
+	 * The number of attempts to delete a remote file before it is left in the bucket.
+	 */
+	private int maxAttempts = 3;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Min(1)
+	@Max(BatchingObjectDeleter.MAX_BATCH_SIZE)
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	@Min(1)
+	public long getFlushInterval() {
+		return this.flushInterval;
+	}
+
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public boolean isAfterAck() {
+		return this.afterAck;
+	}
+
+	public void setAfterAck(boolean afterAck) {
+		this.afterAck = afterAck;
+	}
+
+	@Min(1)
+	public int getMaxAttempts() {
+		return this.maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+}
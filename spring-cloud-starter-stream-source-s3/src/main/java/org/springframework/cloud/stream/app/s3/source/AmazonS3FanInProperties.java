@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.NotBlank;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the synchronization of several remote directories by one source.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.fan-in")
+@Validated
+public class AmazonS3FanInProperties {
+
+	/**
+	 * The remote directories to synchronize instead of the 's3.remote-dir', each with its own filter.
+	 */
+	private List<RemoteDirectory> remoteDirs = new ArrayList<>();
+
+	@Valid
+	public List<RemoteDirectory> getRemoteDirs() {
+		return this.remoteDirs;
+	}
+
+	public void setRemoteDirs(List<RemoteDirectory> remoteDirs) {
+		this.remoteDirs = remoteDirs;
+	}
+
+	public boolean isEnabled() {
+		return !this.remoteDirs.isEmpty();
+	}
+
+	/**
+	 * The remote directory with its filter.
+	 */
+	public static class RemoteDirectory {
+
+		/**
+		 * AWS S3 bucket resource with an optional key prefix.
+		 */
+		private String remoteDir;
+
+		/**
+		 * The pattern to filter remote files.
+		 */
+		private String filenamePattern;
+
+		/**
+		 * The regexp to filter remote files.
+		 */
+		private Pattern filenameRegex;
+
+		@NotBlank
+		public String getRemoteDir() {
+			return this.remoteDir;
+		}
+
+		public void setRemoteDir(String remoteDir) {
+			this.remoteDir = remoteDir;
+		}
+
+		public String getFilenamePattern() {
+			return this.filenamePattern;
+		}
+
+		public void setFilenamePattern(String filenamePattern) {
+			this.filenamePattern = filenamePattern;
+		}
+
+		public Pattern getFilenameRegex() {
+			return this.filenameRegex;
+		}
+
+		public void setFilenameRegex(Pattern filenameRegex) {
+			this.filenameRegex = filenameRegex;
+		}
+
+		@AssertTrue(message = "filenamePattern and filenameRegex are mutually exclusive")
+		public boolean isExclusivePatterns() {
+			return !(this.filenamePattern != null && this.filenameRegex != null);
+		}
+
+	}
+
+}
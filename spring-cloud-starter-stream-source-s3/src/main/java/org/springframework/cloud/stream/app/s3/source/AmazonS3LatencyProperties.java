@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the latency tracing of the remote files from their creation to the output.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.latency")
+@Validated
+public class AmazonS3LatencyProperties {
+
+	/**
+	 * Add the timestamps of the source stages to the output messages and report the latency of each stage.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Publish the histogram buckets of the latency timers for the percentiles aggregated across the instances.
+	 */
+	private boolean percentileHistogram = true;
+
+	/**
+	 * The latency boundaries in milliseconds, e.g. the freshness SLA, to count the measurements within.
+	 */
+	private long[] sla = new long[0];
+
+	/**
+	 * The time in milliseconds to keep the listing and the transfer of a remote file until its local file is emitted.
+	 */
+	private long retention = 3600000;
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isPercentileHistogram() {
+		return this.percentileHistogram;
+	}
+
+	public void setPercentileHistogram(boolean percentileHistogram) {
+		this.percentileHistogram = percentileHistogram;
+	}
+
+	public long[] getSla() {
+		return this.sla;
+	}
+
+	public void setSla(long[] sla) {
+		this.sla = sla;
+	}
+
+	@Min(1)
+	public long getRetention() {
+		return this.retention;
+	}
+
+	public void setRetention(long retention) {
+		this.retention = retention;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Properties for the ordered processing of the local files in parallel partitions.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.partition")
+@Validated
+public class AmazonS3PartitionProperties {
+
+	/**
+	 * Process files in parallel partitions, preserving the order of files within a partition.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * The number of partitions processed in parallel.
+	 */
+	private int count = 4;
+
+	/**
+	 * The number of files waiting for processing in each partition before the polling is blocked.
+	 */
+	private int queueCapacity = 100;
+
+	/**
+	 * Expression to evaluate the partition key against the local file message; the parent directory by default.
+	 */
+	private Expression keyExpression = new SpelExpressionParser().parseExpression("payload.parent");
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Min(1)
+	public int getCount() {
+		return this.count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	@Min(1)
+	public int getQueueCapacity() {
+		return this.queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	@NotNull
+	public Expression getKeyExpression() {
+		return this.keyExpression;
+	}
+
+	public void setKeyExpression(Expression keyExpression) {
+		this.keyExpression = keyExpression;
+	}
+
+}
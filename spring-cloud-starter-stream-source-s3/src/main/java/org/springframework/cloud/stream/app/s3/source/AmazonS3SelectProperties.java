@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.StringUtils;
+import org.springframework.validation.annotation.Validated;
+
+import com.amazonaws.services.s3.model.CSVInput;
+import com.amazonaws.services.s3.model.CSVOutput;
+import com.amazonaws.services.s3.model.CompressionType;
+import com.amazonaws.services.s3.model.FileHeaderInfo;
+import com.amazonaws.services.s3.model.InputSerialization;
+import com.amazonaws.services.s3.model.JSONInput;
+import com.amazonaws.services.s3.model.JSONOutput;
+import com.amazonaws.services.s3.model.JSONType;
+import com.amazonaws.services.s3.model.OutputSerialization;
+
+/**
+ * Properties for the S3 Select server-side filtering of the remote objects.
+ *
+ * @author agent
+ */
+@ConfigurationProperties("s3.select")
+@Validated
+public class AmazonS3SelectProperties {
+
+	private static final String RECORD_DELIMITER = "\n";
+
+	/**
+	 * The S3 Select SQL expression to filter remote objects content; the whole object is downloaded when not set.
+	 */
+	private String expression;
+
+	/**
+	 * The format of the remote objects content.
+	 */
+	private InputFormat inputFormat = InputFormat.csv;
+
+	/**
+	 * The compression of the remote objects content.
+	 */
+	private CompressionType compressionType = CompressionType.NONE;
+
+	/**
+	 * How to treat the first line of the CSV object.
+	 */
+	private FileHeaderInfo csvFileHeaderInfo = FileHeaderInfo.USE;
+
+	/**
+	 * The CSV fields delimiter.
+	 */
+	private String csvFieldDelimiter = ",";
+
+	/**
+	 * The type of the JSON object: 'DOCUMENT' or 'LINES'.
+	 */
+	private JSONType jsonType = JSONType.LINES;
+
+	public String getExpression() {
+		return this.expression;
+	}
+
+	public void setExpression(String expression) {
+		this.expression = expression;
+	}
+
+	@NotNull
+	public InputFormat getInputFormat() {
+		return this.inputFormat;
+	}
+
+	public void setInputFormat(InputFormat inputFormat) {
+		this.inputFormat = inputFormat;
+	}
+
+	@NotNull
+	public CompressionType getCompressionType() {
+		return this.compressionType;
+	}
+
+	public void setCompressionType(CompressionType compressionType) {
+		this.compressionType = compressionType;
+	}
+
+	@NotNull
+	public FileHeaderInfo getCsvFileHeaderInfo() {
+		return this.csvFileHeaderInfo;
+	}
+
+	public void setCsvFileHeaderInfo(FileHeaderInfo csvFileHeaderInfo) {
+		this.csvFileHeaderInfo = csvFileHeaderInfo;
+	}
+
+	@NotBlank
+	public String getCsvFieldDelimiter() {
+		return this.csvFieldDelimiter;
+	}
+
+	public void setCsvFieldDelimiter(String csvFieldDelimiter) {
+		this.csvFieldDelimiter = csvFieldDelimiter;
+	}
+
+	@NotNull
+	public JSONType getJsonType() {
+		return this.jsonType;
+	}
+
+	public void setJsonType(JSONType jsonType) {
+		this.jsonType = jsonType;
+	}
+
+	public boolean isEnabled() {
+		return StringUtils.hasText(this.expression);
+	}
+
+	InputSerialization toInputSerialization() {
+		InputSerialization inputSerialization =
+				new InputSerialization()
+						.withCompressionType(this.compressionType);
+
+		if (InputFormat.json.equals(this.inputFormat)) {
+			inputSerialization.setJson(new JSONInput().withType(this.jsonType));
+		}
+		else {
+			inputSerialization.setCsv(
+					new CSVInput()
+							.withFileHeaderInfo(this.csvFileHeaderInfo)
+							.withFieldDelimiter(this.csvFieldDelimiter)
+							.withRecordDelimiter(RECORD_DELIMITER));
+		}
+		return inputSerialization;
+	}
+
+	OutputSerialization toOutputSerialization() {
+		OutputSerialization outputSerialization = new OutputSerialization();
+		if (InputFormat.json.equals(this.inputFormat)) {
+			outputSerialization.setJson(new JSONOutput().withRecordDelimiter(RECORD_DELIMITER));
+		}
+		else {
+			outputSerialization.setCsv(
+					new CSVOutput()
+							.withFieldDelimiter(this.csvFieldDelimiter)
+							.withRecordDelimiter(RECORD_DELIMITER));
+		}
+		return outputSerialization;
+	}
+
+	public enum InputFormat {
+
+		/**
+		 * The CSV content.
+		 */
+		csv,
+
+		/**
+		 * The JSON content.
+		 */
+		json
+
+	}
+
+}
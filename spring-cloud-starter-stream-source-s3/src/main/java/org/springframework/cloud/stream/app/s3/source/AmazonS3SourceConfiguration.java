@@ -16,36 +16,81 @@
 
 package org.springframework.cloud.stream.app.s3.source;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnEnabledEndpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.aws.core.env.ResourceIdResolver;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.app.file.FileConsumerProperties;
+import org.springframework.cloud.stream.app.file.FileReadingMode;
 import org.springframework.cloud.stream.app.file.FileUtils;
+import org.springframework.cloud.stream.app.s3.AdjustablePeriodicTrigger;
+import org.springframework.cloud.stream.app.s3.AmazonS3BufferProperties;
 import org.springframework.cloud.stream.app.s3.AmazonS3Configuration;
+import org.springframework.cloud.stream.app.s3.AmazonS3DrainProperties;
+import org.springframework.cloud.stream.app.s3.AmazonS3IntegrityProperties;
+import org.springframework.cloud.stream.app.s3.AmazonS3TransferProperties;
+import org.springframework.cloud.stream.app.s3.AmazonS3TuningEndpoint;
+import org.springframework.cloud.stream.app.s3.InFlightTransfers;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.cloud.stream.app.s3.RateLimitingRequestHandler;
+import org.springframework.cloud.stream.app.s3.TransferExecutors;
+import org.springframework.cloud.stream.app.s3.TransferPool;
 import org.springframework.cloud.stream.app.trigger.TriggerConfiguration;
 import org.springframework.cloud.stream.app.trigger.TriggerProperties;
 import org.springframework.cloud.stream.app.trigger.TriggerPropertiesMaxMessagesDefaultUnlimited;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.integration.aws.inbound.S3InboundFileSynchronizer;
 import org.springframework.integration.aws.inbound.S3InboundFileSynchronizingMessageSource;
 import org.springframework.integration.aws.support.S3SessionFactory;
 import org.springframework.integration.aws.support.filters.S3RegexPatternFileListFilter;
 import org.springframework.integration.aws.support.filters.S3SimplePatternFileListFilter;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.IntegrationFlowBuilder;
 import org.springframework.integration.dsl.IntegrationFlows;
+import org.springframework.integration.dsl.MessageChannels;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.scheduling.PollerMetadata;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.support.PeriodicTrigger;
 import org.springframework.util.StringUtils;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 /**
  * @author Artem Bilan
  */
 @EnableBinding(Source.class)
 @EnableConfigurationProperties({ AmazonS3SourceProperties.class, FileConsumerProperties.class,
-		TriggerPropertiesMaxMessagesDefaultUnlimited.class})
+		TriggerPropertiesMaxMessagesDefaultUnlimited.class, AmazonS3BatchingProperties.class,
+		AmazonS3SelectProperties.class, AmazonS3PipelineProperties.class, AmazonS3TransferProperties.class,
+		AmazonS3IntegrityProperties.class, AmazonS3DrainProperties.class, AmazonS3BackpressureProperties.class,
+		AmazonS3PartitionProperties.class, AmazonS3FanInProperties.class, AmazonS3DeleteBatchingProperties.class,
+		AmazonS3BufferProperties.class, AmazonS3LatencyProperties.class })
 @Import({ TriggerConfiguration.class, AmazonS3Configuration.class })
 public class AmazonS3SourceConfiguration {
 
@@ -53,16 +98,146 @@ public class AmazonS3SourceConfiguration {
 	private AmazonS3SourceProperties s3SourceProperties;
 
 	@Bean
-	public S3InboundFileSynchronizer s3InboundFileSynchronizer(AmazonS3 amazonS3,
-			ResourceIdResolver resourceIdResolver) {
-		S3SessionFactory s3SessionFactory = new S3SessionFactory(amazonS3, resourceIdResolver);
-		S3InboundFileSynchronizer synchronizer = new S3InboundFileSynchronizer(s3SessionFactory);
+	@ConditionalOnProperty(prefix = "s3.pipeline", name = "enabled")
+	public ExecutorService s3TransferExecutor(AmazonS3PipelineProperties pipelineProperties,
+			AmazonS3TransferProperties transferProperties) {
+		return TransferExecutors.create("s3-transfer-", pipelineProperties.getConcurrency(),
+				transferProperties.isVirtualThreads());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.partition", name = "enabled")
+	public ExecutorService s3PartitionExecutor(AmazonS3PartitionProperties partitionProperties,
+			AmazonS3TransferProperties transferProperties) {
+		return TransferExecutors.create("s3-partition-", partitionProperties.getCount(),
+				transferProperties.isVirtualThreads());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.partition", name = "enabled")
+	public PartitionedExecutorChannel s3PartitionChannel(AmazonS3PartitionProperties partitionProperties,
+			@Qualifier("s3PartitionExecutor") ExecutorService s3PartitionExecutor) {
+		return new PartitionedExecutorChannel(s3PartitionExecutor, partitionProperties.getCount(),
+				partitionProperties.getQueueCapacity(), partitionProperties.getKeyExpression());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.transfer", name = "virtual-threads")
+	public ExecutorService s3PollerExecutor() {
+		return TransferExecutors.create("s3-poller-", 1, true);
+	}
+
+	/**
+	 * Hand off polling tasks of the {@link PollerMetadata} from the {@link TriggerConfiguration}
+	 * to the {@code s3PollerExecutor}, so the blocking remote directory synchronization
+	 * doesn't occupy the scheduler thread.
+	 * @param s3PollerExecutor the executor for polling tasks.
+	 * @return the {@link BeanPostProcessor}.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.transfer", name = "virtual-threads")
+	public static BeanPostProcessor s3PollerExecutorPostProcessor(
+			@Qualifier("s3PollerExecutor") ObjectProvider<ExecutorService> s3PollerExecutor) {
+
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+				if (bean instanceof PollerMetadata && ((PollerMetadata) bean).getTaskExecutor() == null) {
+					((PollerMetadata) bean).setTaskExecutor(s3PollerExecutor.getObject());
+				}
+				return bean;
+			}
+
+		};
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.drain", name = "enabled")
+	public InFlightTransfers s3InFlightDownloads(AmazonS3DrainProperties drainProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		InFlightTransfers inFlightTransfers = new InFlightTransfers("download");
+		inFlightTransfers.setDrainTimeout(drainProperties.getTimeout());
+		inFlightTransfers.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return inFlightTransfers;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.backpressure", name = "enabled")
+	public DownstreamBackpressure s3DownstreamBackpressure(AmazonS3BackpressureProperties backpressureProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		DownstreamBackpressure downstreamBackpressure =
+				new DownstreamBackpressure(backpressureProperties.getMaxSendTime());
+		downstreamBackpressure.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return downstreamBackpressure;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.latency", name = "enabled")
+	public ObjectLatencyTracker s3ObjectLatencyTracker(AmazonS3LatencyProperties latencyProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		ObjectLatencyTracker objectLatencyTracker = new ObjectLatencyTracker();
+		objectLatencyTracker.setPercentileHistogram(latencyProperties.isPercentileHistogram());
+		objectLatencyTracker.setSla(latencyProperties.getSla());
+		objectLatencyTracker.setRetention(latencyProperties.getRetention());
+		objectLatencyTracker.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return objectLatencyTracker;
+	}
+
+	@Bean
+	public IoBufferPool s3IoBufferPool(AmazonS3BufferProperties bufferProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		IoBufferPool ioBufferPool =
+				new IoBufferPool("download", bufferProperties.getBufferSize(), bufferProperties.getMaxPooled());
+		ioBufferPool.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return ioBufferPool;
+	}
+
+	@Bean
+	public S3SessionFactory s3SessionFactory(AmazonS3 amazonS3, ResourceIdResolver resourceIdResolver) {
+		return new S3SessionFactory(amazonS3, resourceIdResolver);
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "s3.delete-batching", name = "enabled")
+	public BatchingObjectDeleter s3ObjectDeleter(S3SessionFactory s3SessionFactory,
+			@Qualifier(IntegrationContextUtils.TASK_SCHEDULER_BEAN_NAME) TaskScheduler taskScheduler,
+			AmazonS3DeleteBatchingProperties deleteBatchingProperties, ObjectProvider<MeterRegistry> meterRegistry) {
+
+		BatchingObjectDeleter batchingObjectDeleter =
+				new BatchingObjectDeleter(s3SessionFactory, taskScheduler, deleteBatchingProperties.getBatchSize(),
+						deleteBatchingProperties.getFlushInterval());
+		batchingObjectDeleter.setMaxAttempts(deleteBatchingProperties.getMaxAttempts());
+		batchingObjectDeleter.bindTo(meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		return batchingObjectDeleter;
+	}
+
+	@Bean
+	public S3InboundFileSynchronizer s3InboundFileSynchronizer(S3SessionFactory s3SessionFactory,
+			ResourceIdResolver resourceIdResolver, AmazonS3SelectProperties selectProperties,
+			AmazonS3PipelineProperties pipelineProperties, AmazonS3IntegrityProperties integrityProperties,
+			@Qualifier("s3TransferExecutor") ObjectProvider<ExecutorService> s3TransferExecutor,
+			ObjectProvider<MeterRegistry> meterRegistry, ObjectProvider<InFlightTransfers> s3InFlightDownloads,
+			AmazonS3BackpressureProperties backpressureProperties,
+			ObjectProvider<DownstreamBackpressure> s3DownstreamBackpressure,
+			AmazonS3FanInProperties fanInProperties, AmazonS3DeleteBatchingProperties deleteBatchingProperties,
+			ObjectProvider<BatchingObjectDeleter> s3ObjectDeleter, IoBufferPool s3IoBufferPool,
+			ObjectProvider<ObjectLatencyTracker> s3ObjectLatencyTracker) {
+
+		AmazonS3SourceFileSynchronizer synchronizer = new AmazonS3SourceFileSynchronizer(s3SessionFactory);
 		synchronizer.setDeleteRemoteFiles(this.s3SourceProperties.isDeleteRemoteFiles());
 		synchronizer.setPreserveTimestamp(this.s3SourceProperties.isPreserveTimestamp());
 		String remoteDir = this.s3SourceProperties.getRemoteDir();
 		synchronizer.setRemoteDirectory(remoteDir);
 		synchronizer.setRemoteFileSeparator(this.s3SourceProperties.getRemoteFileSeparator());
 		synchronizer.setTemporaryFileSuffix(this.s3SourceProperties.getTmpFileSuffix());
+		synchronizer.setResumeDownloads(this.s3SourceProperties.isResumeDownloads());
+		synchronizer.setResourceIdResolver(resourceIdResolver);
+		synchronizer.setBufferPool(s3IoBufferPool);
+		s3InFlightDownloads.ifAvailable(synchronizer::setInFlightTransfers);
+		s3ObjectLatencyTracker.ifAvailable(synchronizer::setLatencyTracker);
+		s3ObjectDeleter.ifAvailable(objectDeleter ->
+				synchronizer.setObjectDeleter(objectDeleter, deleteBatchingProperties.isAfterAck()));
 
 		if (StringUtils.hasText(this.s3SourceProperties.getFilenamePattern())) {
 			synchronizer.setFilter(new S3SimplePatternFileListFilter(this.s3SourceProperties.getFilenamePattern()));
@@ -71,20 +246,247 @@ public class AmazonS3SourceConfiguration {
 			synchronizer.setFilter(new S3RegexPatternFileListFilter(this.s3SourceProperties.getFilenameRegex()));
 		}
 
+		for (AmazonS3FanInProperties.RemoteDirectory remoteDirectory : fanInProperties.getRemoteDirs()) {
+			FileListFilter<S3ObjectSummary> filter = null;
+			if (StringUtils.hasText(remoteDirectory.getFilenamePattern())) {
+				filter = new S3SimplePatternFileListFilter(remoteDirectory.getFilenamePattern());
+			}
+			else if (remoteDirectory.getFilenameRegex() != null) {
+				filter = new S3RegexPatternFileListFilter(remoteDirectory.getFilenameRegex());
+			}
+			synchronizer.addRemoteDirectory(remoteDirectory.getRemoteDir(), filter);
+		}
+
+		if (pipelineProperties.isEnabled()) {
+			synchronizer.setPipeline(s3TransferExecutor.getObject(), pipelineProperties.getConcurrency(),
+					pipelineProperties.getQueueCapacity());
+		}
+
+		s3DownstreamBackpressure.ifAvailable(downstreamBackpressure ->
+				synchronizer.setBackpressure(downstreamBackpressure, backpressureProperties.getMaxStagedFiles(),
+						backpressureProperties.getMaxStagedBytes()));
+
+		if (integrityProperties.isEnabled()) {
+			synchronizer.setIntegrity(integrityProperties.getMaxAttempts(),
+					meterRegistry.getIfUnique(() -> Metrics.globalRegistry));
+		}
+
+		if (selectProperties.isEnabled()) {
+			synchronizer.setSelect(selectProperties.getExpression(), selectProperties.toInputSerialization(),
+					selectProperties.toOutputSerialization());
+		}
+
 		return synchronizer;
 	}
 
 	@Bean
 	public IntegrationFlow s3InboundFlow(FileConsumerProperties fileConsumerProperties,
-			S3InboundFileSynchronizer s3InboundFileSynchronizer) {
-		S3InboundFileSynchronizingMessageSource s3MessageSource =
-				new S3InboundFileSynchronizingMessageSource(s3InboundFileSynchronizer);
+			AmazonS3BatchingProperties batchingProperties, S3InboundFileSynchronizer s3InboundFileSynchronizer,
+			ObjectProvider<DownstreamBackpressure> s3DownstreamBackpressure,
+			ObjectProvider<PartitionedExecutorChannel> s3PartitionChannel, AmazonS3FanInProperties fanInProperties,
+			AmazonS3DeleteBatchingProperties deleteBatchingProperties,
+			ObjectProvider<ObjectLatencyTracker> s3ObjectLatencyTracker) {
+
+		PartitionedExecutorChannel partitionChannel = s3PartitionChannel.getIfAvailable();
+		S3InboundFileSynchronizingMessageSource s3MessageSource;
+		if (partitionChannel != null) {
+			// The local files mirror the remote keys, so they are emitted in the order of the remote listing
+			s3MessageSource =
+					new S3InboundFileSynchronizingMessageSource(s3InboundFileSynchronizer,
+							Comparator.comparing(File::getPath));
+		}
+		else {
+			s3MessageSource = new S3InboundFileSynchronizingMessageSource(s3InboundFileSynchronizer);
+		}
 		s3MessageSource.setLocalDirectory(this.s3SourceProperties.getLocalDir());
 		s3MessageSource.setAutoCreateLocalDirectory(this.s3SourceProperties.isAutoCreateLocalDir());
 
-		return FileUtils.enhanceFlowForReadingMode(IntegrationFlows.from(s3MessageSource), fileConsumerProperties)
+		IntegrationFlowBuilder sourceFlowBuilder = IntegrationFlows.from(s3MessageSource);
+		if (fanInProperties.isEnabled()) {
+			// The local files are stored under 'localDir/bucket/key'
+			File localDir = this.s3SourceProperties.getLocalDir().getAbsoluteFile();
+			sourceFlowBuilder.enrichHeaders(headers -> headers
+					.<File>headerFunction(AmazonS3SourceFileSynchronizer.BUCKET_HEADER,
+							message -> remotePath(localDir, message.getPayload()).getName(0).toString())
+					.<File>headerFunction(AmazonS3SourceFileSynchronizer.KEY_HEADER,
+							message -> {
+								Path remotePath = remotePath(localDir, message.getPayload());
+								return remotePath.subpath(1, remotePath.getNameCount())
+										.toString()
+										.replace(File.separatorChar, '/');
+							}));
+		}
+		DownstreamBackpressure downstreamBackpressure = s3DownstreamBackpressure.getIfAvailable();
+		ObjectLatencyTracker latencyTracker = s3ObjectLatencyTracker.getIfAvailable();
+		if (latencyTracker != null) {
+			sourceFlowBuilder.channel(MessageChannels.direct().interceptor(new ChannelInterceptor() {
+
+				@Override
+				public Message<?> preSend(Message<?> message, MessageChannel channel) {
+					return latencyTracker.stamp(message);
+				}
+
+			}));
+		}
+		if (partitionChannel != null) {
+			if (downstreamBackpressure != null) {
+				// The local files waiting in the partition queues count against the staging limits
+				sourceFlowBuilder.channel(MessageChannels.direct().interceptor(new ChannelInterceptor() {
+
+					@Override
+					public Message<?> preSend(Message<?> message, MessageChannel channel) {
+						downstreamBackpressure.stage((File) message.getPayload());
+						return message;
+					}
+
+					@Override
+					public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+							Exception ex) {
+
+						if (!sent || ex != null) {
+							downstreamBackpressure.release((File) message.getPayload());
+						}
+					}
+
+				}));
+			}
+			sourceFlowBuilder.channel(partitionChannel);
+			if (downstreamBackpressure != null) {
+				sourceFlowBuilder.channel(MessageChannels.direct().interceptor(new ChannelInterceptor() {
+
+					@Override
+					public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+							Exception ex) {
+
+						downstreamBackpressure.release((File) message.getPayload());
+					}
+
+				}));
+			}
+		}
+		if (this.s3SourceProperties.isDeleteRemoteFiles() && deleteBatchingProperties.isEnabled()
+				&& deleteBatchingProperties.isAfterAck()) {
+
+			// The send of the local file returns when the whole downstream flow is done with it:
+			// with the lines batching, the file marker flushes the last batch of the file on this thread,
+			// and a batch which failed on its timeout fails the send of its file
+			AmazonS3SourceFileSynchronizer synchronizer = (AmazonS3SourceFileSynchronizer) s3InboundFileSynchronizer;
+			sourceFlowBuilder.channel(MessageChannels.direct().interceptor(new ChannelInterceptor() {
+
+				@Override
+				public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+						Exception ex) {
+
+					synchronizer.acknowledge((File) message.getPayload(), sent && ex == null);
+				}
+
+			}));
+		}
+
+		boolean linesBatching =
+				FileReadingMode.lines.equals(fileConsumerProperties.getMode()) && batchingProperties.isEnabled();
+
+		FileConsumerProperties readingModeProperties = fileConsumerProperties;
+		if (linesBatching) {
+			// The end-of-file marker flushes the last batch of the file
+			readingModeProperties = new FileConsumerProperties();
+			BeanUtils.copyProperties(fileConsumerProperties, readingModeProperties);
+			readingModeProperties.setWithMarkers(true);
+		}
+
+		IntegrationFlowBuilder flowBuilder =
+				FileUtils.enhanceFlowForReadingMode(sourceFlowBuilder, readingModeProperties);
+
+		if (linesBatching) {
+			LineBatchingMessageHandler lineBatchingMessageHandler =
+					new LineBatchingMessageHandler(batchingProperties.getSize(), batchingProperties.getFormat());
+			lineBatchingMessageHandler.setMaxBytes(batchingProperties.getMaxBytes());
+			lineBatchingMessageHandler.setTimeout(batchingProperties.getTimeout());
+			lineBatchingMessageHandler.setEmitFileMarkers(Boolean.TRUE.equals(fileConsumerProperties.getWithMarkers()));
+			flowBuilder.handle(lineBatchingMessageHandler);
+		}
+
+		if (downstreamBackpressure != null) {
+			flowBuilder.channel(MessageChannels.direct().interceptor(downstreamBackpressure));
+		}
+		if (latencyTracker != null) {
+			flowBuilder.channel(MessageChannels.direct().interceptor(latencyTracker));
+		}
+
+		return flowBuilder
 				.channel(Source.OUTPUT)
 				.get();
 	}
 
+	private static Path remotePath(File localDir, File localFile) {
+		return localDir.toPath().relativize(localFile.getAbsoluteFile().toPath());
+	}
+
+	/**
+	 * The {@link AmazonS3TuningEndpoint} for the pipelined transfers, the rate limit
+	 * and the poll period, when the actuator is present.
+	 */
+	@Configuration
+	@ConditionalOnClass(Endpoint.class)
+	protected static class AmazonS3SourceTuningConfiguration {
+
+		/**
+		 * Replace the {@link PeriodicTrigger} of the {@link PollerMetadata} from the
+		 * {@link TriggerConfiguration} with the {@link AdjustablePeriodicTrigger} of the same schedule.
+		 * @return the {@link BeanPostProcessor}.
+		 */
+		@Bean
+		@ConditionalOnEnabledEndpoint(endpoint = AmazonS3TuningEndpoint.class)
+		public static BeanPostProcessor s3AdjustablePollerTriggerPostProcessor() {
+			return new BeanPostProcessor() {
+
+				@Override
+				public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+					if (bean instanceof PollerMetadata) {
+						PollerMetadata pollerMetadata = (PollerMetadata) bean;
+						if (pollerMetadata.getTrigger() instanceof PeriodicTrigger) {
+							pollerMetadata.setTrigger(
+									new AdjustablePeriodicTrigger((PeriodicTrigger) pollerMetadata.getTrigger()));
+						}
+					}
+					return bean;
+				}
+
+			};
+		}
+
+		@Bean
+		@ConditionalOnEnabledEndpoint
+		public AmazonS3TuningEndpoint s3TuningEndpoint(S3InboundFileSynchronizer s3InboundFileSynchronizer,
+				@Qualifier("s3TransferExecutor") ObjectProvider<ExecutorService> s3TransferExecutor,
+				ObjectProvider<RateLimitingRequestHandler> s3RateLimitingRequestHandler,
+				@Qualifier(PollerMetadata.DEFAULT_POLLER) ObjectProvider<PollerMetadata> defaultPoller) {
+
+			AmazonS3TuningEndpoint tuningEndpoint = new AmazonS3TuningEndpoint();
+			ExecutorService transferExecutor = s3TransferExecutor.getIfAvailable();
+			if (transferExecutor != null) {
+				AmazonS3SourceFileSynchronizer synchronizer =
+						(AmazonS3SourceFileSynchronizer) s3InboundFileSynchronizer;
+				TransferPool transferPool =
+						new TransferPool(transferExecutor, synchronizer.getTransferConcurrency(),
+								synchronizer::getQueuedFiles, synchronizer::getTransferredFiles);
+				transferPool.setConcurrencyListener(synchronizer::setTransferConcurrency);
+				tuningEndpoint.addTransferPool("download", transferPool);
+			}
+			else {
+				tuningEndpoint.addDisabledTransferPool("download",
+						"The files are downloaded on the poller thread; enable parallel downloads with "
+								+ "'s3.pipeline.enabled=true'");
+			}
+			s3RateLimitingRequestHandler.ifAvailable(tuningEndpoint::setRateLimitingRequestHandler);
+			defaultPoller.ifAvailable(pollerMetadata -> {
+				if (pollerMetadata.getTrigger() instanceof AdjustablePeriodicTrigger) {
+					tuningEndpoint.setPollTrigger((AdjustablePeriodicTrigger) pollerMetadata.getTrigger());
+				}
+			});
+			return tuningEndpoint;
+		}
+
+	}
+
 }
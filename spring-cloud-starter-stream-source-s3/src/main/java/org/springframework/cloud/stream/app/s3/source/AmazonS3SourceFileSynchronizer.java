@@ -0,0 +1,1043 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.aws.core.env.ResourceIdResolver;
+import org.springframework.cloud.stream.app.s3.ETagDigest;
+import org.springframework.cloud.stream.app.s3.InFlightTransfers;
+import org.springframework.cloud.stream.app.s3.IoBufferPool;
+import org.springframework.integration.aws.inbound.S3InboundFileSynchronizer;
+import org.springframework.integration.aws.support.filters.S3PersistentAcceptOnceFileListFilter;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.filters.ReversibleFileListFilter;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.SimpleMetadataStore;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StreamUtils;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ExpressionType;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InputSerialization;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.OutputSerialization;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.services.s3.model.SelectObjectContentRequest;
+import com.amazonaws.services.s3.model.SelectObjectContentResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The {@link S3InboundFileSynchronizer} extension which transfers remote objects
+ * directly with the {@link AmazonS3} client of the session.
+ * <p>
+ * One synchronization lists the remote directories, filters the remote files and transfers
+ * them into temporary local files which are renamed when complete. Several remote directories
+ * share the session factory and the transfer executor, each with its own filter and a local
+ * sub-directory named after the bucket; each synchronization starts from the next one, so all
+ * of them get their share of the limits, and a failure of one doesn't prevent the others.
+ * <p>
+ * The number of the files transferred in one synchronization is bounded by the
+ * {@code maxFetchSize} and, with the {@link DownstreamBackpressure}, by the files and bytes
+ * still staged in the local directory and the partition queues; the synchronization is skipped
+ * while the downstream is slow or these limits are reached. With a transfer {@link Executor},
+ * the remote files are fed page by page into a bounded queue drained by concurrent workers,
+ * so the transfers start before the listing is finished and the listing is paused while the
+ * queue is full; the number of the workers can be changed at runtime with the
+ * {@link #setTransferConcurrency(int)}. The remote files which are not transferred, because
+ * of the limits or of a graceful drain with the {@link InFlightTransfers}, are rolled back
+ * in the filter to be transferred next time.
+ * <p>
+ * A transfer fetches either the whole remote object or, with an S3 Select expression, only
+ * its matching records. With the resume enabled, the temporary file of a failed transfer is
+ * kept with the ETag of its remote object and the next transfer of the unchanged object
+ * continues from its end with a range request. With the integrity verification, the ETag of
+ * the content is calculated while it is written and the transfer is repeated from scratch
+ * on mismatch.
+ * <p>
+ * A transferred remote file is deleted, when requested, either directly or by the
+ * {@link BatchingObjectDeleter}, optionally only once its local file is
+ * {@link #acknowledge(File, boolean) acknowledged} as processed. The listing and the transfer
+ * of each remote file are reported to the {@link ObjectLatencyTracker}, if any.
+ *
+ * @author agent
+ */
+public class AmazonS3SourceFileSynchronizer extends S3InboundFileSynchronizer {
+
+	/**
+	 * The header for the bucket of the remote file when several remote directories are synchronized.
+	 */
+	public static final String BUCKET_HEADER = "s3_bucket";
+
+	/**
+	 * The header for the key of the remote file when several remote directories are synchronized.
+	 */
+	public static final String KEY_HEADER = "s3_key";
+
+	private static final Log LOGGER = LogFactory.getLog(AmazonS3SourceFileSynchronizer.class);
+
+	private static final String ETAG_FILE_SUFFIX = ".etag";
+
+	private static final long QUEUE_POLL_TIMEOUT = 100;
+
+	private final SessionFactory<S3ObjectSummary> sessionFactory;
+
+	private final List<RemoteDirectory> remoteDirectories = new ArrayList<>();
+
+	private final AtomicInteger nextRemoteDirectory = new AtomicInteger();
+
+	private final Map<String, S3ObjectSummary> unacknowledgedFiles = new ConcurrentHashMap<>();
+
+	private final Set<PipelinedTransfer> pipelinedTransfers = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong transferredFiles = new AtomicLong();
+
+	private FileListFilter<S3ObjectSummary> filter =
+			new S3PersistentAcceptOnceFileListFilter(new SimpleMetadataStore(), "s3MessageSource");
+
+	private String remoteDirectory;
+
+	private ResourceIdResolver resourceIdResolver;
+
+	private Executor transferExecutor;
+
+	private volatile int transferConcurrency = 1;
+
+	private int transferQueueCapacity = 1000;
+
+	private String temporaryFileSuffix = ".writing";
+
+	private boolean preserveTimestamp;
+
+	private boolean deleteRemoteFiles;
+
+	private boolean resumeDownloads;
+
+	private int integrityMaxAttempts;
+
+	private MeterRegistry meterRegistry;
+
+	private InFlightTransfers inFlightTransfers;
+
+	private BatchingObjectDeleter objectDeleter;
+
+	private boolean deleteAfterAcknowledgement;
+
+	private DownstreamBackpressure backpressure;
+
+	private ObjectLatencyTracker latencyTracker;
+
+	private int maxStagedFiles;
+
+	private long maxStagedBytes;
+
+	private volatile StagingBudget stagingBudget;
+
+	private volatile File stagingDirectory;
+
+	private volatile int fetchLimit = -1;
+
+	private IoBufferPool bufferPool = new IoBufferPool("download", StreamUtils.BUFFER_SIZE, 0);
+
+	private String selectExpression;
+
+	private InputSerialization selectInputSerialization;
+
+	private OutputSerialization selectOutputSerialization;
+
+	public AmazonS3SourceFileSynchronizer(SessionFactory<S3ObjectSummary> sessionFactory) {
+		super(sessionFactory);
+		this.sessionFactory = sessionFactory;
+	}
+
+	@Override
+	public void setFilter(FileListFilter<S3ObjectSummary> filter) {
+		super.setFilter(filter);
+		this.filter = filter;
+	}
+
+	@Override
+	public void setRemoteDirectory(String remoteDirectory) {
+		super.setRemoteDirectory(remoteDirectory);
+		this.remoteDirectory = remoteDirectory;
+	}
+
+	/**
+	 * Add a remote directory to synchronize. When at least one remote directory is added,
+	 * the {@link #setRemoteDirectory(String) remote directory} and the
+	 * {@link #setFilter(FileListFilter) filter} of this synchronizer are ignored.
+	 * @param remoteDirectory the remote directory in the {@code bucket/prefix} format.
+	 * @param filter the filter for the files of this remote directory;
+	 * accept-once in memory if null.
+	 */
+	public void addRemoteDirectory(String remoteDirectory, FileListFilter<S3ObjectSummary> filter) {
+		Assert.hasText(remoteDirectory, "'remoteDirectory' must not be empty");
+		this.remoteDirectories.add(
+				new RemoteDirectory(remoteDirectory,
+						filter != null
+								? filter
+								: new S3PersistentAcceptOnceFileListFilter(new SimpleMetadataStore(), "s3MessageSource")));
+	}
+
+	/**
+	 * Set the {@link ResourceIdResolver} to resolve the bucket of the remote directory
+	 * for the pipelined listing.
+	 * @param resourceIdResolver the {@link ResourceIdResolver} to use.
+	 */
+	public void setResourceIdResolver(ResourceIdResolver resourceIdResolver) {
+		this.resourceIdResolver = resourceIdResolver;
+	}
+
+	@Override
+	public void setTemporaryFileSuffix(String temporaryFileSuffix) {
+		super.setTemporaryFileSuffix(temporaryFileSuffix);
+		this.temporaryFileSuffix = temporaryFileSuffix;
+	}
+
+	@Override
+	public void setPreserveTimestamp(boolean preserveTimestamp) {
+		super.setPreserveTimestamp(preserveTimestamp);
+		this.preserveTimestamp = preserveTimestamp;
+	}
+
+	@Override
+	public void setDeleteRemoteFiles(boolean deleteRemoteFiles) {
+		super.setDeleteRemoteFiles(deleteRemoteFiles);
+		this.deleteRemoteFiles = deleteRemoteFiles;
+	}
+
+	/**
+	 * Set to true to keep the temporary file of a failed transfer and resume it next time
+	 * from the current offset, if the remote object has not been changed.
+	 * Ignored for S3 Select transfers.
+	 * @param resumeDownloads true to resume partial downloads.
+	 */
+	public void setResumeDownloads(boolean resumeDownloads) {
+		this.resumeDownloads = resumeDownloads;
+	}
+
+	/**
+	 * Enable the verification of the transferred content against the ETag of the remote file.
+	 * The MD5 digest is calculated while the content is written into the local file.
+	 * Ignored for S3 Select transfers and for remote files with not MD5 based ETags.
+	 * @param maxAttempts the number of transfer attempts before the checksum mismatch is thrown.
+	 * @param meterRegistry the {@link MeterRegistry} to report the time spent on the verification.
+	 */
+	public void setIntegrity(int maxAttempts, MeterRegistry meterRegistry) {
+		Assert.isTrue(maxAttempts > 0, "'maxAttempts' must be greater than 0");
+		Assert.notNull(meterRegistry, "'meterRegistry' must not be null");
+		this.integrityMaxAttempts = maxAttempts;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Set the {@link InFlightTransfers} to register transfers in.
+	 * @param inFlightTransfers the {@link InFlightTransfers} to use.
+	 */
+	public void setInFlightTransfers(InFlightTransfers inFlightTransfers) {
+		this.inFlightTransfers = inFlightTransfers;
+	}
+
+	/**
+	 * Set the {@link BatchingObjectDeleter} to queue the transferred remote files for deletion;
+	 * only used when the remote files are to be deleted.
+	 * @param objectDeleter the {@link BatchingObjectDeleter} to use.
+	 * @param afterAcknowledgement true to queue a remote file only when its local file is acknowledged.
+	 */
+	public void setObjectDeleter(BatchingObjectDeleter objectDeleter, boolean afterAcknowledgement) {
+		Assert.notNull(objectDeleter, "'objectDeleter' must not be null");
+		this.objectDeleter = objectDeleter;
+		this.deleteAfterAcknowledgement = afterAcknowledgement;
+	}
+
+	/**
+	 * Acknowledge the processing of the local file, so its remote file is queued for deletion
+	 * when the deletion after acknowledgement is requested.
+	 * @param localFile the local file emitted by the source.
+	 * @param processed false if the processing has failed and the remote file must be kept.
+	 */
+	public void acknowledge(File localFile, boolean processed) {
+		S3ObjectSummary remoteFile = this.unacknowledgedFiles.remove(localFile.getAbsolutePath());
+		if (remoteFile != null) {
+			if (processed) {
+				this.objectDeleter.delete(remoteFile.getBucketName(), remoteFile.getKey());
+			}
+			else if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("The remote file '" + remoteFile.getKey() + "' is not deleted: its processing has failed");
+			}
+		}
+	}
+
+	/**
+	 * Enable the backpressure on a slow downstream.
+	 * @param backpressure the {@link DownstreamBackpressure} to check before synchronization.
+	 * @param maxStagedFiles the maximum number of files transferred in one synchronization.
+	 * @param maxStagedBytes the maximum number of bytes transferred in one synchronization;
+	 * the first file is transferred regardless of its size.
+	 */
+	public void setBackpressure(DownstreamBackpressure backpressure, int maxStagedFiles, long maxStagedBytes) {
+		Assert.notNull(backpressure, "'backpressure' must not be null");
+		Assert.isTrue(maxStagedFiles > 0, "'maxStagedFiles' must be greater than 0");
+		Assert.isTrue(maxStagedBytes > 0, "'maxStagedBytes' must be greater than 0");
+		this.backpressure = backpressure;
+		this.maxStagedFiles = maxStagedFiles;
+		this.maxStagedBytes = maxStagedBytes;
+	}
+
+	/**
+	 * Set the {@link ObjectLatencyTracker} to report the listing and the transfer of the remote files to.
+	 * @param latencyTracker the {@link ObjectLatencyTracker} to use.
+	 */
+	public void setLatencyTracker(ObjectLatencyTracker latencyTracker) {
+		this.latencyTracker = latencyTracker;
+	}
+
+	/**
+	 * Enable the pipelined listing and transfer of remote files.
+	 * @param transferExecutor the {@link Executor} to run transfer workers.
+	 * @param concurrency the number of concurrent transfer workers.
+	 * @param queueCapacity the number of listed files waiting for transfer before the listing is paused.
+	 */
+	public void setPipeline(Executor transferExecutor, int concurrency, int queueCapacity) {
+		Assert.notNull(transferExecutor, "'transferExecutor' must not be null");
+		Assert.isTrue(concurrency > 0, "'concurrency' must be greater than 0");
+		Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be greater than 0");
+		this.transferExecutor = transferExecutor;
+		this.transferConcurrency = concurrency;
+		this.transferQueueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Change the number of the concurrent transfer workers of the pipelined synchronization;
+	 * applied to the next synchronization. The transfer executor must be able to run them.
+	 * @param concurrency the number of concurrent transfer workers.
+	 */
+	public void setTransferConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "'concurrency' must be greater than 0");
+		this.transferConcurrency = concurrency;
+	}
+
+	public int getTransferConcurrency() {
+		return this.transferConcurrency;
+	}
+
+	/**
+	 * Return the number of the listed remote files waiting for the pipelined transfer.
+	 * @return the number of the queued remote files.
+	 */
+	public int getQueuedFiles() {
+		int queued = 0;
+		for (PipelinedTransfer pipelinedTransfer : this.pipelinedTransfers) {
+			queued += pipelinedTransfer.queue.size();
+		}
+		return queued;
+	}
+
+	/**
+	 * Return the number of the remote files transferred by this synchronizer.
+	 * @return the number of the transferred remote files.
+	 */
+	public long getTransferredFiles() {
+		return this.transferredFiles.get();
+	}
+
+	/**
+	 * Set the {@link IoBufferPool} to borrow the buffers for copying and digesting the content from.
+	 * By default, a buffer is allocated for each transfer.
+	 * @param bufferPool the {@link IoBufferPool} to use.
+	 */
+	public void setBufferPool(IoBufferPool bufferPool) {
+		Assert.notNull(bufferPool, "'bufferPool' must not be null");
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Configure an S3 Select SQL expression to transfer only matching records of remote objects.
+	 * @param expression the SQL expression.
+	 * @param inputSerialization the format of the remote objects.
+	 * @param outputSerialization the format of the records to store in the local file.
+	 */
+	public void setSelect(String expression, InputSerialization inputSerialization,
+			OutputSerialization outputSerialization) {
+
+		Assert.hasText(expression, "'expression' must not be empty");
+		Assert.notNull(inputSerialization, "'inputSerialization' must not be null");
+		Assert.notNull(outputSerialization, "'outputSerialization' must not be null");
+		this.selectExpression = expression;
+		this.selectInputSerialization = inputSerialization;
+		this.selectOutputSerialization = outputSerialization;
+	}
+
+	@Override
+	public void synchronizeToLocalDirectory(File localDirectory, int maxFetchSize) {
+		if (this.backpressure != null) {
+			if (this.backpressure.isPaused()) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("The downstream is slow; skipping synchronization to '" + localDirectory + "'");
+				}
+				return;
+			}
+			// The local files emitted but not sent downstream yet are still staged
+			int stagedFiles = this.backpressure.getStagedFiles();
+			long stagedBytes = this.backpressure.getStagedBytes();
+			if (stagedFiles >= this.maxStagedFiles || stagedBytes >= this.maxStagedBytes) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("The staging limits are reached by " + stagedFiles + " files waiting downstream; "
+							+ "skipping synchronization to '" + localDirectory + "'");
+				}
+				return;
+			}
+			this.stagingBudget =
+					new StagingBudget(this.maxStagedFiles - stagedFiles, this.maxStagedBytes - stagedBytes);
+		}
+
+		if (this.remoteDirectories.isEmpty()) {
+			synchronizeRemoteDirectory(this.remoteDirectory, localDirectory, maxFetchSize);
+			return;
+		}
+
+		RuntimeException failure = null;
+		int count = this.remoteDirectories.size();
+		int first = (this.nextRemoteDirectory.getAndIncrement() & Integer.MAX_VALUE) % count;
+		for (int i = 0; i < count; i++) {
+			RemoteDirectory remoteDir = this.remoteDirectories.get((first + i) % count);
+			setFilter(remoteDir.filter);
+			super.setRemoteDirectory(remoteDir.path);
+			try {
+				synchronizeRemoteDirectory(remoteDir.path, new File(localDirectory, remoteDir.bucket), maxFetchSize);
+			}
+			catch (RuntimeException ex) {
+				LOGGER.error("Failed to synchronize '" + remoteDir.path + "' to local directory", ex);
+				if (failure == null) {
+					failure = ex;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void synchronizeRemoteDirectory(String remoteDir, File localDirectory, int maxFetchSize) {
+		this.stagingDirectory = localDirectory;
+
+		if (this.transferExecutor == null) {
+			// The super class drops the filtered files beyond the maxFetchSize without a callback
+			this.fetchLimit = maxFetchSize;
+			try {
+				super.synchronizeToLocalDirectory(localDirectory, maxFetchSize);
+			}
+			finally {
+				this.fetchLimit = -1;
+			}
+			return;
+		}
+
+		if (maxFetchSize == 0) {
+			return;
+		}
+
+		Session<S3ObjectSummary> session = this.sessionFactory.getSession();
+		PipelinedTransfer pipelinedTransfer =
+				new PipelinedTransfer(session, remoteDir, localDirectory, maxFetchSize);
+		this.pipelinedTransfers.add(pipelinedTransfer);
+		try {
+			pipelinedTransfer.run();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException("Interrupted while synchronizing '" + remoteDir
+					+ "' to local directory", ex);
+		}
+		catch (Exception ex) {
+			throw new MessagingException("Problem occurred while synchronizing '" + remoteDir
+					+ "' to local directory", ex);
+		}
+		finally {
+			this.pipelinedTransfers.remove(pipelinedTransfer);
+			session.close();
+		}
+	}
+
+	@Override
+	protected List<S3ObjectSummary> filterFiles(S3ObjectSummary[] files) {
+		List<S3ObjectSummary> filteredFiles =
+				admit(this.filter != null ? this.filter.filterFiles(files) : Arrays.asList(files));
+		if (this.latencyTracker != null) {
+			int fetchLimit = this.fetchLimit;
+			this.latencyTracker.listed(fetchLimit >= 0 && filteredFiles.size() > fetchLimit
+					? filteredFiles.subList(0, fetchLimit)
+					: filteredFiles);
+		}
+		return filteredFiles;
+	}
+
+	private List<S3ObjectSummary> admit(List<S3ObjectSummary> filteredFiles) {
+		StagingBudget budget = this.stagingBudget;
+		if (budget == null) {
+			return filteredFiles;
+		}
+		for (int i = 0; i < filteredFiles.size(); i++) {
+			S3ObjectSummary remoteFile = filteredFiles.get(i);
+			if (isFile(remoteFile) && !isTransferred(remoteFile, this.stagingDirectory) && !budget.admit(remoteFile)) {
+				for (S3ObjectSummary rejectedFile : filteredFiles.subList(i, filteredFiles.size())) {
+					rollback(rejectedFile);
+				}
+				return filteredFiles.subList(0, i);
+			}
+		}
+		return filteredFiles;
+	}
+
+	@Override
+	protected boolean copyFileToLocalDirectory(String remoteDirectoryPath, S3ObjectSummary remoteFile,
+			File localDirectory, Session<S3ObjectSummary> session) throws IOException {
+
+		if (!isFile(remoteFile)) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("cannot copy, not a file: " + remoteFile.getKey());
+			}
+			discardLatency(remoteFile);
+			return false;
+		}
+
+		File localFile = new File(localDirectory, getFilename(remoteFile));
+		long modified = getModified(remoteFile);
+		if (localFile.exists()) {
+			if (!this.preserveTimestamp || modified == localFile.lastModified()) {
+				discardLatency(remoteFile);
+				return false;
+			}
+			if (!localFile.delete()) {
+				LOGGER.warn("Cannot delete local file '" + localFile + "' in order to transfer modified remote file '"
+						+ remoteFile.getKey() + "'. The local file may be busy in some other process.");
+				discardLatency(remoteFile);
+				return false;
+			}
+		}
+		else {
+			localFile.getParentFile().mkdirs();
+		}
+
+		if (this.inFlightTransfers == null) {
+			return copyFileToLocalFile(remoteFile, localFile, modified, session);
+		}
+
+		if (!this.inFlightTransfers.begin()) {
+			throw new IOException("The transfer of '" + remoteFile.getKey()
+					+ "' is rejected: in-flight transfers are being drained");
+		}
+		try {
+			return copyFileToLocalFile(remoteFile, localFile, modified, session);
+		}
+		finally {
+			this.inFlightTransfers.end();
+		}
+	}
+
+	private boolean copyFileToLocalFile(S3ObjectSummary remoteFile, File localFile, long modified,
+			Session<S3ObjectSummary> session) throws IOException {
+
+		long startedAt = System.currentTimeMillis();
+		AmazonS3 amazonS3 = (AmazonS3) session.getClientInstance();
+		File tempFile = new File(localFile.getAbsolutePath() + this.temporaryFileSuffix);
+		boolean resume = this.resumeDownloads && this.selectExpression == null && remoteFile.getETag() != null;
+		File eTagFile = new File(localFile.getAbsolutePath() + ETAG_FILE_SUFFIX + this.temporaryFileSuffix);
+
+		for (int attempt = 1; ; attempt++) {
+			long offset = resume ? resumeOffset(remoteFile, tempFile, eTagFile) : 0;
+			ETagDigest eTagDigest = newETagDigest(amazonS3, remoteFile);
+			ObjectMetadata objectMetadata = null;
+
+			if (eTagDigest != null && offset > 0) {
+				try (InputStream inputStream = new FileInputStream(tempFile)) {
+					eTagDigest.update(inputStream, this.bufferPool);
+				}
+			}
+
+			// Not buffered: the content is written in the chunks of the pooled buffer size
+			try (OutputStream outputStream = new FileOutputStream(tempFile, offset > 0)) {
+				if (resume && offset == 0) {
+					FileCopyUtils.copy(remoteFile.getETag().getBytes(StandardCharsets.UTF_8), eTagFile);
+				}
+				if (offset == 0 || offset < remoteFile.getSize()) {
+					objectMetadata =
+							transfer(amazonS3, remoteFile, offset,
+									eTagDigest != null ? eTagDigest.digesting(outputStream) : outputStream);
+				}
+			}
+			catch (IOException | RuntimeException ex) {
+				if (!resume && !tempFile.delete() && LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Cannot delete temporary file: " + tempFile);
+				}
+				throw ex;
+			}
+
+			if (eTagDigest == null || verify(remoteFile, objectMetadata, eTagDigest, attempt, tempFile, eTagFile)) {
+				break;
+			}
+		}
+
+		if (!tempFile.renameTo(localFile)) {
+			throw new IOException("Failed to rename local file '" + tempFile + "' to '" + localFile + "'");
+		}
+
+		if (resume && !eTagFile.delete() && LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Cannot delete ETag file: " + eTagFile);
+		}
+
+		if (this.deleteRemoteFiles) {
+			if (this.objectDeleter == null) {
+				amazonS3.deleteObject(remoteFile.getBucketName(), remoteFile.getKey());
+			}
+			else if (this.deleteAfterAcknowledgement) {
+				this.unacknowledgedFiles.put(localFile.getAbsolutePath(), remoteFile);
+			}
+			else {
+				this.objectDeleter.delete(remoteFile.getBucketName(), remoteFile.getKey());
+			}
+		}
+
+		if (this.preserveTimestamp && !localFile.setLastModified(modified)) {
+			throw new IllegalStateException("Could not set last modified on file: " + localFile);
+		}
+
+		if (this.latencyTracker != null) {
+			this.latencyTracker.transferred(remoteFile, localFile, startedAt);
+		}
+
+		this.transferredFiles.incrementAndGet();
+		return true;
+	}
+
+	private boolean isTransferred(S3ObjectSummary remoteFile, File localDirectory) {
+		File localFile = new File(localDirectory, getFilename(remoteFile));
+		return localFile.exists() && (!this.preserveTimestamp || getModified(remoteFile) == localFile.lastModified());
+	}
+
+	private ETagDigest newETagDigest(AmazonS3 amazonS3, S3ObjectSummary remoteFile) {
+		if (this.integrityMaxAttempts == 0 || this.selectExpression != null
+				|| !ETagDigest.isMd5ETag(remoteFile.getETag())) {
+
+			return null;
+		}
+		if (ETagDigest.isMultipartETag(remoteFile.getETag())) {
+			GetObjectMetadataRequest firstPartRequest =
+					new GetObjectMetadataRequest(remoteFile.getBucketName(), remoteFile.getKey())
+							.withPartNumber(1);
+			long partSize = amazonS3.getObjectMetadata(firstPartRequest).getContentLength();
+			return new ETagDigest(partSize, false);
+		}
+		return new ETagDigest();
+	}
+
+	private boolean verify(S3ObjectSummary remoteFile, ObjectMetadata objectMetadata, ETagDigest eTagDigest,
+			int attempt, File tempFile, File eTagFile) throws IOException {
+
+		if (objectMetadata != null
+				&& (SSEAlgorithm.KMS.getAlgorithm().equals(objectMetadata.getSSEAlgorithm())
+				|| objectMetadata.getSSECustomerAlgorithm() != null)) {
+
+			eTagDigest.record(this.meterRegistry, "download", "skipped");
+			return true;
+		}
+
+		if (eTagDigest.matches(remoteFile.getETag())) {
+			eTagDigest.record(this.meterRegistry, "download", "match");
+			return true;
+		}
+
+		eTagDigest.record(this.meterRegistry, "download", "mismatch");
+
+		if (!tempFile.delete() && LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Cannot delete temporary file: " + tempFile);
+		}
+		if (eTagFile.exists() && !eTagFile.delete() && LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Cannot delete ETag file: " + eTagFile);
+		}
+
+		String message = "The checksum '" + eTagDigest.getETag() + "' of the transferred remote file '"
+				+ remoteFile.getKey() + "' doesn't match its ETag '" + remoteFile.getETag() + "'";
+
+		if (attempt >= this.integrityMaxAttempts) {
+			throw new IOException(message + " after " + attempt + " attempts");
+		}
+
+		LOGGER.warn(message + "; retrying the transfer");
+		return false;
+	}
+
+	private long resumeOffset(S3ObjectSummary remoteFile, File tempFile, File eTagFile) throws IOException {
+		if (tempFile.exists() && eTagFile.exists()) {
+			String eTag = new String(FileCopyUtils.copyToByteArray(eTagFile), StandardCharsets.UTF_8);
+			long offset = tempFile.length();
+			if (eTag.equals(remoteFile.getETag()) && offset <= remoteFile.getSize()) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Resuming transfer of '" + remoteFile.getKey() + "' from offset " + offset);
+				}
+				return offset;
+			}
+		}
+		if (tempFile.exists() && !tempFile.delete()) {
+			throw new IOException("Cannot delete stale temporary file: " + tempFile);
+		}
+		return 0;
+	}
+
+	private ObjectMetadata transfer(AmazonS3 amazonS3, S3ObjectSummary remoteFile, long offset,
+			OutputStream outputStream) throws IOException {
+
+		if (this.selectExpression != null) {
+			SelectObjectContentRequest selectObjectContentRequest =
+					new SelectObjectContentRequest()
+							.withBucketName(remoteFile.getBucketName())
+							.withKey(remoteFile.getKey())
+							.withExpression(this.selectExpression)
+							.withExpressionType(ExpressionType.SQL)
+							.withInputSerialization(this.selectInputSerialization)
+							.withOutputSerialization(this.selectOutputSerialization);
+
+			try (SelectObjectContentResult result = amazonS3.selectObjectContent(selectObjectContentRequest);
+					InputStream records = result.getPayload().getRecordsInputStream()) {
+
+				this.bufferPool.copy(records, outputStream);
+			}
+			return null;
+		}
+		else if (offset > 0) {
+			GetObjectRequest getObjectRequest =
+					new GetObjectRequest(remoteFile.getBucketName(), remoteFile.getKey())
+							.withRange(offset)
+							.withMatchingETagConstraint(remoteFile.getETag());
+
+			S3Object s3Object = amazonS3.getObject(getObjectRequest);
+			if (s3Object == null) {
+				throw new IOException("The remote file '" + remoteFile.getKey()
+						+ "' has been changed since the last transfer attempt");
+			}
+			try (S3Object object = s3Object) {
+				this.bufferPool.copy(object.getObjectContent(), outputStream);
+				return object.getObjectMetadata();
+			}
+		}
+		else {
+			try (S3Object s3Object = amazonS3.getObject(remoteFile.getBucketName(), remoteFile.getKey())) {
+				this.bufferPool.copy(s3Object.getObjectContent(), outputStream);
+				return s3Object.getObjectMetadata();
+			}
+		}
+	}
+
+	private void discardLatency(S3ObjectSummary remoteFile) {
+		if (this.latencyTracker != null) {
+			this.latencyTracker.discard(remoteFile);
+		}
+	}
+
+	private void rollback(S3ObjectSummary remoteFile) {
+		discardLatency(remoteFile);
+		if (this.filter instanceof ReversibleFileListFilter) {
+			((ReversibleFileListFilter<S3ObjectSummary>) this.filter)
+					.rollback(remoteFile, Collections.singletonList(remoteFile));
+		}
+	}
+
+	/**
+	 * The number and size of the remote files which can still be transferred in one synchronization.
+	 */
+	private static final class StagingBudget {
+
+		private int files;
+
+		private long bytes;
+
+		private boolean admitted;
+
+		StagingBudget(int files, long bytes) {
+			this.files = files;
+			this.bytes = bytes;
+		}
+
+		synchronized boolean admit(S3ObjectSummary remoteFile) {
+			if (this.files == 0 || this.admitted && remoteFile.getSize() > this.bytes) {
+				return false;
+			}
+			this.files--;
+			this.bytes -= remoteFile.getSize();
+			this.admitted = true;
+			return true;
+		}
+
+	}
+
+	/**
+	 * One of the remote directories to synchronize with its own filter.
+	 */
+	private static final class RemoteDirectory {
+
+		private final String path;
+
+		private final String bucket;
+
+		private final FileListFilter<S3ObjectSummary> filter;
+
+		RemoteDirectory(String path, FileListFilter<S3ObjectSummary> filter) {
+			this.path = path;
+			String bucket = path.startsWith("/") ? path.substring(1) : path;
+			int separatorIndex = bucket.indexOf('/');
+			this.bucket = separatorIndex > 0 ? bucket.substring(0, separatorIndex) : bucket;
+			this.filter = filter;
+		}
+
+	}
+
+	/**
+	 * The state of one pipelined synchronization: the listing is performed on the calling
+	 * thread and transfers on the workers of the transfer executor.
+	 */
+	private final class PipelinedTransfer {
+
+		private final BlockingQueue<S3ObjectSummary> queue =
+				new LinkedBlockingQueue<>(AmazonS3SourceFileSynchronizer.this.transferQueueCapacity);
+
+		private final AtomicInteger reserved = new AtomicInteger();
+
+		private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+		private final Session<S3ObjectSummary> session;
+
+		private final String remoteDirectory;
+
+		private final File localDirectory;
+
+		private final int maxFetchSize;
+
+		private volatile boolean listingDone;
+
+		private volatile boolean stopped;
+
+		PipelinedTransfer(Session<S3ObjectSummary> session, String remoteDirectory, File localDirectory,
+				int maxFetchSize) {
+
+			this.session = session;
+			this.remoteDirectory = remoteDirectory;
+			this.localDirectory = localDirectory;
+			this.maxFetchSize = maxFetchSize;
+		}
+
+		void run() throws Exception {
+			int concurrency = AmazonS3SourceFileSynchronizer.this.transferConcurrency;
+			CountDownLatch workersDone = new CountDownLatch(concurrency);
+			int workers = 0;
+			boolean listed = false;
+			try {
+				for (; workers < concurrency; workers++) {
+					AmazonS3SourceFileSynchronizer.this.transferExecutor.execute(() -> {
+						try {
+							transferLoop();
+						}
+						finally {
+							workersDone.countDown();
+						}
+					});
+				}
+				list();
+				listed = true;
+			}
+			catch (InterruptedException | RuntimeException ex) {
+				this.failure.compareAndSet(null, ex);
+			}
+			finally {
+				// A rejected worker submission stops the already started workers as well
+				if (!listed) {
+					this.stopped = true;
+				}
+				this.listingDone = true;
+				for (int i = workers; i < concurrency; i++) {
+					workersDone.countDown();
+				}
+			}
+
+			workersDone.await();
+
+			Exception exception = this.failure.get();
+			if (exception != null) {
+				throw exception;
+			}
+		}
+
+		private void list() throws InterruptedException {
+			AmazonS3 amazonS3 = (AmazonS3) this.session.getClientInstance();
+			String remoteDir = this.remoteDirectory;
+			if (remoteDir.startsWith("/")) {
+				remoteDir = remoteDir.substring(1);
+			}
+			int separatorIndex = remoteDir.indexOf('/');
+			String bucket = separatorIndex > 0 ? remoteDir.substring(0, separatorIndex) : remoteDir;
+			if (AmazonS3SourceFileSynchronizer.this.resourceIdResolver != null) {
+				bucket = AmazonS3SourceFileSynchronizer.this.resourceIdResolver.resolveToPhysicalResourceId(bucket);
+			}
+			ListObjectsRequest listObjectsRequest = new ListObjectsRequest().withBucketName(bucket);
+			if (separatorIndex > 0 && separatorIndex < remoteDir.length() - 1) {
+				listObjectsRequest.setPrefix(remoteDir.substring(separatorIndex + 1));
+			}
+
+			ObjectListing objectListing = amazonS3.listObjects(listObjectsRequest);
+			while (true) {
+				S3ObjectSummary[] remoteFiles =
+						objectListing.getObjectSummaries().toArray(new S3ObjectSummary[0]);
+				List<S3ObjectSummary> filteredFiles = filterFiles(remoteFiles);
+
+				InterruptedException interrupted = null;
+				for (S3ObjectSummary remoteFile : filteredFiles) {
+					if (this.stopped) {
+						rollback(remoteFile);
+					}
+					else {
+						try {
+							this.queue.put(remoteFile);
+						}
+						catch (InterruptedException ex) {
+							interrupted = ex;
+							this.stopped = true;
+							rollback(remoteFile);
+						}
+					}
+				}
+
+				if (interrupted != null) {
+					throw interrupted;
+				}
+
+				if (this.stopped || !objectListing.isTruncated()) {
+					break;
+				}
+				objectListing = amazonS3.listNextBatchOfObjects(objectListing);
+			}
+		}
+
+		private void transferLoop() {
+			while (true) {
+				S3ObjectSummary remoteFile;
+				try {
+					remoteFile = this.queue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					this.stopped = true;
+					this.failure.compareAndSet(null, ex);
+					drainQueue();
+					return;
+				}
+
+				if (remoteFile == null) {
+					if (this.listingDone) {
+						return;
+					}
+				}
+				else if (this.stopped || isDraining() || !reserve()) {
+					rollback(remoteFile);
+				}
+				else {
+					transfer(remoteFile);
+				}
+			}
+		}
+
+		private boolean isDraining() {
+			InFlightTransfers inFlightTransfers = AmazonS3SourceFileSynchronizer.this.inFlightTransfers;
+			if (inFlightTransfers != null && !inFlightTransfers.isRunning()) {
+				this.stopped = true;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean reserve() {
+			if (this.maxFetchSize < 0) {
+				return true;
+			}
+			if (this.reserved.incrementAndGet() > this.maxFetchSize) {
+				this.reserved.decrementAndGet();
+				this.stopped = true;
+				return false;
+			}
+			return true;
+		}
+
+		private void transfer(S3ObjectSummary remoteFile) {
+			boolean transferred = false;
+			try {
+				transferred = copyFileToLocalDirectory(this.remoteDirectory, remoteFile, this.localDirectory,
+						this.session);
+			}
+			catch (Exception ex) {
+				rollback(remoteFile);
+				this.stopped = true;
+				this.failure.compareAndSet(null, ex);
+			}
+			finally {
+				if (!transferred && this.maxFetchSize > 0) {
+					this.reserved.decrementAndGet();
+				}
+			}
+		}
+
+		private void drainQueue() {
+			S3ObjectSummary remoteFile;
+			while ((remoteFile = this.queue.poll()) != null) {
+				rollback(remoteFile);
+			}
+		}
+
+	}
+
+}
@@ -80,6 +80,11 @@ public class AmazonS3SourceProperties {
 	 */
 	private boolean preserveTimestamp = true;
 
+	/**
+	 * Resume or not the transfer of a remote file from its partial temporary file after failure or restart.
+	 */
+	private boolean resumeDownloads = false;
+
 	@Length(min = 3)
 	public String getRemoteDir() {
 		return this.remoteDir;
@@ -156,6 +161,14 @@ public class AmazonS3SourceProperties {
 		this.preserveTimestamp = preserveTimestamp;
 	}
 
+	public boolean isResumeDownloads() {
+		return this.resumeDownloads;
+	}
+
+	public void setResumeDownloads(boolean resumeDownloads) {
+		this.resumeDownloads = resumeDownloads;
+	}
+
 	@AssertTrue(message = "filenamePattern and filenameRegex are mutually exclusive")
 	public boolean isExclusivePatterns() {
 		return !(this.filenamePattern != null && this.filenameRegex != null);
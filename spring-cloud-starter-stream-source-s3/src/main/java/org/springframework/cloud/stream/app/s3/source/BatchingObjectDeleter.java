@@ -0,0 +1,254 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.Assert;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The deleter of remote files which sends them in DeleteObjects batches.
+ * <p>
+ * The remote files are queued per bucket; a batch is sent when the batch size is reached
+ * for the bucket, and all the queued remote files are sent each flush interval and on
+ * shutdown. The remote files which cannot be deleted are queued again for the next flush,
+ * up to the maximum number of attempts; then they are logged, counted per key and left
+ * in the bucket. The remote files which still cannot be deleted by the flush on shutdown
+ * are given up the same way, without waiting for their remaining attempts.
+ *
+ * @author agent
+ */
+public class BatchingObjectDeleter implements InitializingBean, DisposableBean, MeterBinder {
+
+	/**
+	 * The name of the {@link Counter} for the deleted remote files, tagged with the result.
+	 */
+	public static final String DELETES_COUNTER_NAME = "s3.deletes";
+
+	/**
+	 * The maximum number of keys in one DeleteObjects request allowed by S3.
+	 */
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	private static final Log LOGGER = LogFactory.getLog(BatchingObjectDeleter.class);
+
+	private final Map<String, List<String>> pending = new HashMap<>();
+
+	private final Map<String, Integer> failedAttempts = new HashMap<>();
+
+	private final SessionFactory<S3ObjectSummary> sessionFactory;
+
+	private final TaskScheduler taskScheduler;
+
+	private final int batchSize;
+
+	private final long flushInterval;
+
+	private int maxAttempts = 3;
+
+	private MeterRegistry meterRegistry;
+
+	private ScheduledFuture<?> flushTask;
+
+	/**
+	 * Create an instance with the batch size and the flush interval.
+	 * @param sessionFactory the {@link SessionFactory} for the S3 client.
+	 * @param taskScheduler the {@link TaskScheduler} to flush the batches periodically.
+	 * @param batchSize the number of keys in a bucket to send them without waiting for the flush.
+	 * @param flushInterval the interval in milliseconds to send all the queued keys.
+	 */
+	public BatchingObjectDeleter(SessionFactory<S3ObjectSummary> sessionFactory, TaskScheduler taskScheduler,
+			int batchSize, long flushInterval) {
+
+		Assert.notNull(sessionFactory, "'sessionFactory' must not be null");
+		Assert.notNull(taskScheduler, "'taskScheduler' must not be null");
+		Assert.isTrue(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+				"'batchSize' must be between 1 and " + MAX_BATCH_SIZE);
+		Assert.isTrue(flushInterval > 0, "'flushInterval' must be greater than 0");
+		this.sessionFactory = sessionFactory;
+		this.taskScheduler = taskScheduler;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Set the number of attempts to delete a remote file before it is left in the bucket.
+	 * @param maxAttempts the maximum number of attempts.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		Assert.isTrue(maxAttempts > 0, "'maxAttempts' must be greater than 0");
+		this.maxAttempts = maxAttempts;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.meterRegistry = registry;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		this.flushTask = this.taskScheduler.scheduleWithFixedDelay(this::flush, this.flushInterval);
+	}
+
+	@Override
+	public void destroy() {
+		if (this.flushTask != null) {
+			this.flushTask.cancel(false);
+		}
+		flush();
+		int givenUp = 0;
+		synchronized (this.pending) {
+			for (Map.Entry<String, List<String>> entry : this.pending.entrySet()) {
+				for (String key : entry.getValue()) {
+					LOGGER.error("Failed to delete remote file '" + entry.getKey() + '/' + key
+							+ "' before shutdown; it is left in the bucket");
+					givenUp++;
+				}
+			}
+			this.pending.clear();
+			this.failedAttempts.clear();
+		}
+		record("failed", givenUp);
+	}
+
+	/**
+	 * Queue the remote file for deletion.
+	 * @param bucket the bucket of the remote file.
+	 * @param key the key of the remote file.
+	 */
+	public void delete(String bucket, String key) {
+		List<String> batch = null;
+		synchronized (this.pending) {
+			List<String> keys = this.pending.computeIfAbsent(bucket, b -> new ArrayList<>());
+			keys.add(key);
+			if (keys.size() >= this.batchSize) {
+				batch = this.pending.remove(bucket);
+			}
+		}
+		if (batch != null) {
+			send(bucket, batch);
+		}
+	}
+
+	/**
+	 * Send all the queued remote files.
+	 */
+	public void flush() {
+		Map<String, List<String>> batches;
+		synchronized (this.pending) {
+			batches = new HashMap<>(this.pending);
+			this.pending.clear();
+		}
+		batches.forEach(this::send);
+	}
+
+	private void send(String bucket, List<String> keys) {
+		Set<String> failedKeys = new HashSet<>();
+		try {
+			Session<S3ObjectSummary> session = this.sessionFactory.getSession();
+			try {
+				AmazonS3 amazonS3 = (AmazonS3) session.getClientInstance();
+				amazonS3.deleteObjects(
+						new DeleteObjectsRequest(bucket)
+								.withKeys(keys.toArray(new String[0]))
+								.withQuiet(true));
+			}
+			finally {
+				session.close();
+			}
+		}
+		catch (MultiObjectDeleteException ex) {
+			for (MultiObjectDeleteException.DeleteError error : ex.getErrors()) {
+				if (LOGGER.isWarnEnabled()) {
+					LOGGER.warn("Failed to delete remote file '" + bucket + "/" + error.getKey() + "': "
+							+ error.getCode() + " - " + error.getMessage());
+				}
+				failedKeys.add(error.getKey());
+			}
+		}
+		catch (AmazonClientException ex) {
+			if (LOGGER.isWarnEnabled()) {
+				LOGGER.warn("Failed to delete remote files " + keys + " in bucket '" + bucket + "'", ex);
+			}
+			failedKeys.addAll(keys);
+		}
+		record("deleted", keys.size() - failedKeys.size());
+		retryOrGiveUp(bucket, keys, failedKeys);
+	}
+
+	private void retryOrGiveUp(String bucket, List<String> keys, Set<String> failedKeys) {
+		int givenUp = 0;
+		synchronized (this.pending) {
+			if (!this.failedAttempts.isEmpty()) {
+				for (String key : keys) {
+					if (!failedKeys.contains(key)) {
+						this.failedAttempts.remove(bucket + '/' + key);
+					}
+				}
+			}
+			for (String key : failedKeys) {
+				String remoteFile = bucket + '/' + key;
+				int attempts = this.failedAttempts.merge(remoteFile, 1, Integer::sum);
+				if (attempts < this.maxAttempts) {
+					this.pending.computeIfAbsent(bucket, b -> new ArrayList<>()).add(key);
+				}
+				else {
+					this.failedAttempts.remove(remoteFile);
+					LOGGER.error("Failed to delete remote file '" + remoteFile + "' in " + attempts
+							+ " attempts; it is left in the bucket");
+					givenUp++;
+				}
+			}
+		}
+		record("failed", givenUp);
+	}
+
+	private void record(String result, int count) {
+		if (this.meterRegistry != null && count > 0) {
+			Counter.builder(DELETES_COUNTER_NAME)
+					.description("The number of remote files sent for deletion in DeleteObjects batches")
+					.tag("result", result)
+					.register(this.meterRegistry)
+					.increment(count);
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@link ChannelInterceptor} to measure the sends of the source messages downstream.
+ * <p>
+ * The output of the source is synchronous, so a send returns when the binder has accepted
+ * the message, e.g. when the Kafka producer buffer has room for it. When a send takes longer
+ * than the {@code maxSendTime}, the downstream is considered slow and this is paused for
+ * the same time as the send has taken, so the source doesn't list and transfer remote files
+ * which cannot be emitted anyway. This is also paused while any send in progress has been
+ * taking longer than the {@code maxSendTime}; the sends in progress within that time, e.g.
+ * on the workers of the partitions, don't pause this.
+ * <p>
+ * The local files which are already emitted by the message source, but still wait to be
+ * sent downstream, e.g. in the queues of the {@link PartitionedExecutorChannel}, can be
+ * {@link #stage(File) staged} here until they are {@link #release(File) released}, so the
+ * synchronization counts them against its staging limits.
+ *
+ * @author agent
+ */
+public class DownstreamBackpressure implements ChannelInterceptor, MeterBinder {
+
+	/**
+	 * The name of the {@link Timer} for the sends downstream.
+	 */
+	public static final String SEND_TIMER_NAME = "s3.backpressure.send";
+
+	/**
+	 * The name of the {@link Gauge} for the sends downstream not completed yet.
+	 */
+	public static final String PENDING_GAUGE_NAME = "s3.backpressure.pending";
+
+	private static final Log LOGGER = LogFactory.getLog(DownstreamBackpressure.class);
+
+	private final ConcurrentMap<Thread, Long> sendStarts = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<File, Long> stagedFiles = new ConcurrentHashMap<>();
+
+	private final AtomicLong stagedBytes = new AtomicLong();
+
+	private final long maxSendTimeNanos;
+
+	private volatile long pausedUntil = System.nanoTime();
+
+	private volatile Timer sendTimer;
+
+	public DownstreamBackpressure(long maxSendTime) {
+		Assert.isTrue(maxSendTime > 0, "'maxSendTime' must be greater than 0");
+		this.maxSendTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxSendTime);
+	}
+
+	/**
+	 * Return the number of sends downstream not completed yet.
+	 * @return the number of pending sends.
+	 */
+	public int getPending() {
+		return this.sendStarts.size();
+	}
+
+	/**
+	 * Check if the downstream has been slow recently or a send in progress is slow.
+	 * @return true if no new remote files should be transferred.
+	 */
+	public boolean isPaused() {
+		long now = System.nanoTime();
+		if (this.pausedUntil - now > 0) {
+			return true;
+		}
+		for (Long start : this.sendStarts.values()) {
+			if (now - start > this.maxSendTimeNanos) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Count the local file as staged until it is {@link #release(File) released}.
+	 * @param file the local file waiting to be sent downstream.
+	 */
+	public void stage(File file) {
+		long length = file.length();
+		if (this.stagedFiles.putIfAbsent(file, length) == null) {
+			this.stagedBytes.addAndGet(length);
+		}
+	}
+
+	/**
+	 * Stop counting the local file as staged.
+	 * @param file the local file which has been sent downstream or failed.
+	 */
+	public void release(File file) {
+		Long length = this.stagedFiles.remove(file);
+		if (length != null) {
+			this.stagedBytes.addAndGet(-length);
+		}
+	}
+
+	/**
+	 * Return the number of the local files {@link #stage(File) staged} and not released yet.
+	 * @return the number of the staged files.
+	 */
+	public int getStagedFiles() {
+		return this.stagedFiles.size();
+	}
+
+	/**
+	 * Return the size of the local files {@link #stage(File) staged} and not released yet.
+	 * @return the number of the staged bytes.
+	 */
+	public long getStagedBytes() {
+		return this.stagedBytes.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder(PENDING_GAUGE_NAME, this, DownstreamBackpressure::getPending)
+				.description("The number of source messages being sent downstream")
+				.register(registry);
+		this.sendTimer =
+				Timer.builder(SEND_TIMER_NAME)
+						.description("The time of the source message sends downstream")
+						.register(registry);
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		this.sendStarts.put(Thread.currentThread(), System.nanoTime());
+		return message;
+	}
+
+	@Override
+	public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+		Long start = this.sendStarts.remove(Thread.currentThread());
+		if (start == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		long sendTime = now - start;
+		Timer timer = this.sendTimer;
+		if (timer != null) {
+			timer.record(sendTime, TimeUnit.NANOSECONDS);
+		}
+		if (sendTime > this.maxSendTimeNanos) {
+			long until = now + sendTime;
+			if (until - this.pausedUntil > 0) {
+				this.pausedUntil = until;
+			}
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Slow downstream: the send has taken " + TimeUnit.NANOSECONDS.toMillis(sendTime)
+						+ " ms; pausing the remote files synchronization");
+			}
+		}
+	}
+
+}
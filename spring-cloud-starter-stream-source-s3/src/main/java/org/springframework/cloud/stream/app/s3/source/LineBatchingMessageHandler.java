@@ -0,0 +1,286 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.splitter.FileSplitter;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * The {@link AbstractMessageProducingHandler} to group line messages produced by the
+ * {@link FileSplitter} into batch messages.
+ * <p>
+ * The lines are batched per file, by the {@link FileHeaders#ORIGINAL_FILE} header (or
+ * the correlation id), so the lines of several files may be interleaved, e.g. when the
+ * files are split on the workers of the {@link PartitionedExecutorChannel}. A batch is
+ * emitted when the configured number of lines or bytes is reached, when the batch timeout
+ * is expired, or when a file marker of its file arrives. The splitter must produce file
+ * markers for the last batch of a file to be emitted as soon as the file is over. The
+ * batch never spans several files, so the file headers of its first line are preserved,
+ * except the sequence details of the split. File markers are emitted as is, after the
+ * last batch of their file, unless {@link #setEmitFileMarkers(boolean)} is {@code false}.
+ * <p>
+ * Since the last batch of a file is emitted on the thread of its file marker, the send of
+ * the file returns after all its batches are emitted. A failure to emit a batch on the timeout
+ * is rethrown on the next line or marker of the same file, so it fails the send of the file too.
+ *
+ * @author agent
+ */
+public class LineBatchingMessageHandler extends AbstractMessageProducingHandler {
+
+	private static final byte[] LINE_SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+
+	private static final Object NO_FILE = new Object();
+
+	private final int batchSize;
+
+	private final AmazonS3BatchingProperties.BatchFormat format;
+
+	private final Map<Object, FileBatch> batches = new ConcurrentHashMap<>();
+
+	private long maxBytes;
+
+	private long timeout = 1000;
+
+	private boolean emitFileMarkers = true;
+
+	public LineBatchingMessageHandler(int batchSize, AmazonS3BatchingProperties.BatchFormat format) {
+		Assert.isTrue(batchSize > 0, "'batchSize' must be greater than 0");
+		Assert.notNull(format, "'format' must not be null");
+		this.batchSize = batchSize;
+		this.format = format;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public void setTimeout(long timeout) {
+		Assert.isTrue(timeout > 0, "'timeout' must be greater than 0");
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Specify whether the file markers are emitted after the last batch of their file
+	 * or only used to flush it.
+	 * @param emitFileMarkers false to drop the file markers.
+	 */
+	public void setEmitFileMarkers(boolean emitFileMarkers) {
+		this.emitFileMarkers = emitFileMarkers;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "s3:line-batching-handler";
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		Object fileKey = fileKey(message);
+		while (true) {
+			FileBatch batch = this.batches.computeIfAbsent(fileKey, FileBatch::new);
+			synchronized (batch) {
+				// A batch flushed on the timeout in the meantime is replaced with a new one
+				if (!batch.discarded) {
+					handleMessage(batch, message);
+					return;
+				}
+			}
+		}
+	}
+
+	private void handleMessage(FileBatch batch, Message<?> message) {
+		if (isFileMarker(message)) {
+			try {
+				rethrowTimeoutFailure(batch, message);
+				flush(batch);
+			}
+			finally {
+				discard(batch);
+			}
+			if (this.emitFileMarkers) {
+				produceOutput(message, message);
+			}
+			return;
+		}
+
+		rethrowTimeoutFailure(batch, message);
+
+		String line = message.getPayload().toString();
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		if (batch.firstMessage == null) {
+			batch.firstMessage = message;
+			batch.startTime = System.currentTimeMillis();
+			batch.timeoutFuture =
+					getTaskScheduler().schedule(() -> flushOnTimeout(batch), new Date(batch.startTime + this.timeout));
+		}
+
+		if (AmazonS3BatchingProperties.BatchFormat.joined.equals(this.format)) {
+			if (batch.lineCount > 0) {
+				batch.joinedLines.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+			}
+			batch.joinedLines.write(bytes, 0, bytes.length);
+		}
+		else {
+			batch.lines.add(line);
+		}
+
+		batch.lineCount++;
+		batch.byteCount += bytes.length;
+
+		if (batch.lineCount >= this.batchSize || (this.maxBytes > 0 && batch.byteCount >= this.maxBytes)) {
+			flush(batch);
+		}
+	}
+
+	private void rethrowTimeoutFailure(FileBatch batch, Message<?> message) {
+		if (batch.timeoutFailure != null) {
+			RuntimeException timeoutFailure = batch.timeoutFailure;
+			batch.timeoutFailure = null;
+			throw new MessageHandlingException(message, "Failed to emit a batch of the file on timeout",
+					timeoutFailure);
+		}
+	}
+
+	private void flushOnTimeout(FileBatch batch) {
+		synchronized (batch) {
+			if (!batch.discarded && batch.firstMessage != null
+					&& System.currentTimeMillis() - batch.startTime >= this.timeout) {
+
+				try {
+					flush(batch);
+					discard(batch);
+				}
+				catch (RuntimeException ex) {
+					// The batch never outlives its file marker, so the file is still being sent
+					batch.timeoutFailure = ex;
+				}
+			}
+		}
+	}
+
+	private void discard(FileBatch batch) {
+		if (batch.timeoutFuture != null) {
+			batch.timeoutFuture.cancel(false);
+			batch.timeoutFuture = null;
+		}
+		batch.discarded = true;
+		this.batches.remove(batch.fileKey, batch);
+	}
+
+	private void flush(FileBatch batch) {
+		if (batch.firstMessage == null) {
+			return;
+		}
+
+		if (batch.timeoutFuture != null) {
+			batch.timeoutFuture.cancel(false);
+			batch.timeoutFuture = null;
+		}
+
+		Object payload;
+		String contentType;
+		if (AmazonS3BatchingProperties.BatchFormat.joined.equals(this.format)) {
+			payload = batch.joinedLines.toByteArray();
+			batch.joinedLines.reset();
+			contentType = MimeTypeUtils.TEXT_PLAIN_VALUE;
+		}
+		else {
+			payload = new ArrayList<>(batch.lines);
+			batch.lines.clear();
+			contentType = MimeTypeUtils.APPLICATION_JSON_VALUE;
+		}
+
+		Message<?> batchMessage = getMessageBuilderFactory()
+				.withPayload(payload)
+				.copyHeaders(batch.firstMessage.getHeaders())
+				.removeHeaders(IntegrationMessageHeaderAccessor.CORRELATION_ID,
+						IntegrationMessageHeaderAccessor.SEQUENCE_NUMBER,
+						IntegrationMessageHeaderAccessor.SEQUENCE_SIZE,
+						IntegrationMessageHeaderAccessor.SEQUENCE_DETAILS)
+				.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+				.build();
+
+		Message<?> requestMessage = batch.firstMessage;
+		batch.firstMessage = null;
+		batch.lineCount = 0;
+		batch.byteCount = 0;
+
+		produceOutput(batchMessage, requestMessage);
+	}
+
+	private static Object fileKey(Message<?> message) {
+		Object fileKey = message.getHeaders().get(FileHeaders.ORIGINAL_FILE);
+		if (fileKey == null) {
+			fileKey = message.getHeaders().get(IntegrationMessageHeaderAccessor.CORRELATION_ID);
+		}
+		return fileKey != null ? fileKey : NO_FILE;
+	}
+
+	private static boolean isFileMarker(Message<?> message) {
+		return message.getPayload() instanceof FileSplitter.FileMarker
+				|| message.getHeaders().containsKey(FileHeaders.MARKER);
+	}
+
+	/**
+	 * The lines of a file which are not emitted yet and the state of their batch.
+	 */
+	private static final class FileBatch {
+
+		private final Object fileKey;
+
+		private final List<String> lines = new ArrayList<>();
+
+		private final ByteArrayOutputStream joinedLines = new ByteArrayOutputStream();
+
+		private Message<?> firstMessage;
+
+		private int lineCount;
+
+		private long byteCount;
+
+		private long startTime;
+
+		private ScheduledFuture<?> timeoutFuture;
+
+		private RuntimeException timeoutFailure;
+
+		private boolean discarded;
+
+		FileBatch(Object fileKey) {
+			this.fileKey = fileKey;
+		}
+
+	}
+
+}
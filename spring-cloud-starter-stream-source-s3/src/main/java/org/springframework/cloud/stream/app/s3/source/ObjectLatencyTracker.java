@@ -0,0 +1,336 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.util.Assert;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Traces the latency of the remote files through the source stages: from the creation
+ * of the S3 Object (its {@code LastModified}) to the listing, the transfer into the local
+ * file and the emission to the output.
+ * <p>
+ * The synchronizer reports the listing and the transfer of each remote file; the timestamps
+ * are {@link #stamp(Message) stamped} into the headers of the local file message and copied
+ * into the messages produced from it, e.g. the lines. As a {@link ChannelInterceptor} of the
+ * output, this adds the emission timestamp to each output message and records the time of its
+ * send downstream; the emission and the end-to-end latency are recorded once per remote file,
+ * with its first output message.
+ * <p>
+ * The listings and the transfers which are not followed by the emission of the local file,
+ * e.g. the remote files rolled back or the local files rejected by the local filter, are
+ * forgotten after the {@link #setRetention(long) retention}; they are expired by the listings,
+ * the transfers and the emissions, at most once a minute.
+ * <p>
+ * All the timestamps are epoch milliseconds of the local clock, except the {@code LastModified}
+ * of the S3 clock; the negative latencies of a clock skew are recorded as zero.
+ *
+ * @author agent
+ */
+public class ObjectLatencyTracker implements ChannelInterceptor, MeterBinder {
+
+	/**
+	 * The header for the {@code LastModified} of the remote file.
+	 */
+	public static final String LAST_MODIFIED_HEADER = "s3_last_modified";
+
+	/**
+	 * The header for the time the remote file has been listed.
+	 */
+	public static final String LISTED_AT_HEADER = "s3_listed_at";
+
+	/**
+	 * The header for the time the transfer of the remote file has started.
+	 */
+	public static final String DOWNLOAD_STARTED_AT_HEADER = "s3_download_started_at";
+
+	/**
+	 * The header for the time the remote file has been transferred into the local file.
+	 */
+	public static final String DOWNLOAD_FINISHED_AT_HEADER = "s3_download_finished_at";
+
+	/**
+	 * The header for the time the message has been emitted to the output.
+	 */
+	public static final String EMITTED_AT_HEADER = "s3_emitted_at";
+
+	/**
+	 * The name of the {@link Timer} for the latency of the source stages, tagged with the {@code stage}.
+	 */
+	public static final String LATENCY_TIMER_NAME = "s3.latency";
+
+	/**
+	 * The header shared by the messages of one local file to record its emission once; it is not output.
+	 */
+	private static final String EMISSION_RECORDED_HEADER = "s3_emission_recorded";
+
+	/**
+	 * The maximum interval in milliseconds between the expirations of the stale listings and transfers.
+	 */
+	private static final long EXPIRATION_INTERVAL = 60000;
+
+	private final Map<String, Long> listedAt = new ConcurrentHashMap<>();
+
+	private final Map<String, Map<String, Object>> transferred = new ConcurrentHashMap<>();
+
+	private final AtomicLong nextExpiration = new AtomicLong();
+
+	private final ThreadLocal<Long> sendStart = new ThreadLocal<>();
+
+	private volatile Map<Stage, Timer> timers = Collections.emptyMap();
+
+	private boolean percentileHistogram = true;
+
+	private Duration[] sla = new Duration[0];
+
+	private long retention = 3600000;
+
+	/**
+	 * Publish the histogram buckets of the latency timers; must be set before binding.
+	 * @param percentileHistogram false to not publish the histogram buckets.
+	 */
+	public void setPercentileHistogram(boolean percentileHistogram) {
+		this.percentileHistogram = percentileHistogram;
+	}
+
+	/**
+	 * Set the latency boundaries to count the measurements within; must be set before binding.
+	 * @param sla the boundaries in milliseconds.
+	 */
+	public void setSla(long... sla) {
+		Assert.notNull(sla, "'sla' must not be null");
+		this.sla = Arrays.stream(sla).mapToObj(Duration::ofMillis).toArray(Duration[]::new);
+	}
+
+	/**
+	 * Set the time to keep the listing and the transfer of a remote file until its local file is emitted.
+	 * @param retention the retention in milliseconds.
+	 */
+	public void setRetention(long retention) {
+		Assert.isTrue(retention > 0, "'retention' must be greater than 0");
+		this.retention = retention;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+		for (Stage stage : Stage.values()) {
+			timers.put(stage,
+					Timer.builder(LATENCY_TIMER_NAME)
+							.description("The latency of the remote files through the source stages")
+							.tag("stage", stage.tag)
+							.publishPercentileHistogram(this.percentileHistogram)
+							.sla(this.sla)
+							.register(registry));
+		}
+		this.timers = timers;
+	}
+
+	/**
+	 * Register the listing of the remote files to be transferred.
+	 * @param remoteFiles the listed remote files.
+	 */
+	public void listed(Collection<S3ObjectSummary> remoteFiles) {
+		Long now = System.currentTimeMillis();
+		expire(now);
+		for (S3ObjectSummary remoteFile : remoteFiles) {
+			this.listedAt.put(id(remoteFile), now);
+		}
+	}
+
+	/**
+	 * Forget the listing of the remote file which is not transferred.
+	 * @param remoteFile the listed remote file.
+	 */
+	public void discard(S3ObjectSummary remoteFile) {
+		this.listedAt.remove(id(remoteFile));
+	}
+
+	/**
+	 * Register the transfer of the remote file into the local file and record the latency
+	 * of its listing, waiting for the transfer and the transfer itself.
+	 * @param remoteFile the transferred remote file.
+	 * @param localFile the local file.
+	 * @param startedAt the time the transfer has started.
+	 */
+	public void transferred(S3ObjectSummary remoteFile, File localFile, long startedAt) {
+		long finishedAt = System.currentTimeMillis();
+		expire(finishedAt);
+		Long listedAt = this.listedAt.remove(id(remoteFile));
+		Long lastModified = remoteFile.getLastModified() != null ? remoteFile.getLastModified().getTime() : null;
+
+		Map<String, Object> timestamps = new HashMap<>();
+		if (lastModified != null) {
+			timestamps.put(LAST_MODIFIED_HEADER, lastModified);
+		}
+		if (listedAt != null) {
+			timestamps.put(LISTED_AT_HEADER, listedAt);
+			record(Stage.LISTING, lastModified, listedAt);
+			record(Stage.QUEUE, listedAt, startedAt);
+		}
+		timestamps.put(DOWNLOAD_STARTED_AT_HEADER, startedAt);
+		timestamps.put(DOWNLOAD_FINISHED_AT_HEADER, finishedAt);
+		record(Stage.TRANSFER, startedAt, finishedAt);
+		this.transferred.put(localFile.getAbsolutePath(), timestamps);
+	}
+
+	/**
+	 * Add the timestamps of the listing and the transfer into the headers of the local file message.
+	 * @param message the message with the local file payload.
+	 * @return the message with the timestamps or the same message if the local file has not been
+	 * transferred by this source.
+	 */
+	public Message<?> stamp(Message<?> message) {
+		expire(System.currentTimeMillis());
+		if (message.getPayload() instanceof File) {
+			Map<String, Object> timestamps =
+					this.transferred.remove(((File) message.getPayload()).getAbsolutePath());
+			if (timestamps != null) {
+				return MessageBuilder.fromMessage(message)
+						.copyHeaders(timestamps)
+						.setHeader(EMISSION_RECORDED_HEADER, new AtomicBoolean())
+						.build();
+			}
+		}
+		return message;
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		MessageHeaders headers = message.getHeaders();
+		if (!headers.containsKey(DOWNLOAD_FINISHED_AT_HEADER)) {
+			return message;
+		}
+		long emittedAt = System.currentTimeMillis();
+		// The lines of one file share the flag: its latencies are not weighted by the number of lines
+		AtomicBoolean emissionRecorded = headers.get(EMISSION_RECORDED_HEADER, AtomicBoolean.class);
+		if (emissionRecorded != null && emissionRecorded.compareAndSet(false, true)) {
+			record(Stage.EMIT, headers.get(DOWNLOAD_FINISHED_AT_HEADER, Long.class), emittedAt);
+			record(Stage.END_TO_END, headers.get(LAST_MODIFIED_HEADER, Long.class), emittedAt);
+		}
+		this.sendStart.set(System.nanoTime());
+		return MessageBuilder.fromMessage(message)
+				.removeHeader(EMISSION_RECORDED_HEADER)
+				.setHeader(EMITTED_AT_HEADER, emittedAt)
+				.build();
+	}
+
+	@Override
+	public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+		Long start = this.sendStart.get();
+		this.sendStart.remove();
+		Timer timer = this.timers.get(Stage.SEND);
+		if (start != null && timer != null) {
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Forget the listings and the transfers older than the retention, unless they have been
+	 * expired less than the expiration interval ago; only one caller expires them at a time.
+	 * @param now the current time.
+	 */
+	private void expire(long now) {
+		long nextExpiration = this.nextExpiration.get();
+		if (now < nextExpiration || !this.nextExpiration.compareAndSet(nextExpiration,
+				now + Math.min(this.retention, EXPIRATION_INTERVAL))) {
+			return;
+		}
+		long expiredBefore = now - this.retention;
+		this.listedAt.values().removeIf(listedAt -> listedAt < expiredBefore);
+		this.transferred.values()
+				.removeIf(timestamps -> (Long) timestamps.get(DOWNLOAD_FINISHED_AT_HEADER) < expiredBefore);
+	}
+
+	private void record(Stage stage, Long from, long to) {
+		Timer timer = this.timers.get(stage);
+		if (timer != null && from != null) {
+			timer.record(Math.max(0, to - from), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static String id(S3ObjectSummary remoteFile) {
+		return remoteFile.getBucketName() + '/' + remoteFile.getKey();
+	}
+
+	/**
+	 * The source stages with the values of their {@code stage} tag.
+	 */
+	private enum Stage {
+
+		/**
+		 * From the {@code LastModified} to the listing.
+		 */
+		LISTING("listing"),
+
+		/**
+		 * From the listing to the start of the transfer.
+		 */
+		QUEUE("queue"),
+
+		/**
+		 * The transfer into the local file.
+		 */
+		TRANSFER("transfer"),
+
+		/**
+		 * From the end of the transfer to the emission of the first output message.
+		 */
+		EMIT("emit"),
+
+		/**
+		 * The send of the output message downstream.
+		 */
+		SEND("send"),
+
+		/**
+		 * From the {@code LastModified} to the emission of the first output message.
+		 */
+		END_TO_END("end-to-end");
+
+		private final String tag;
+
+		Stage(String tag) {
+			this.tag = tag;
+		}
+
+	}
+
+}
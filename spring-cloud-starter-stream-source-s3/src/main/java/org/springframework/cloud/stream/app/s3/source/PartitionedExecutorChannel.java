@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.channel.AbstractSubscribableChannel;
+import org.springframework.integration.channel.MessagePublishingErrorHandler;
+import org.springframework.integration.dispatcher.MessageDispatcher;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.support.channel.BeanFactoryChannelResolver;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+import org.springframework.util.ErrorHandler;
+
+/**
+ * The {@link AbstractSubscribableChannel} which dispatches messages to its subscriber
+ * on one of several partition workers.
+ * <p>
+ * The partition of a message is derived from the hash code of the partition key expression
+ * result, so the messages with the same key are always handled by the same worker in the
+ * order they have been sent, while the messages with different keys are handled in parallel.
+ * The partition number is set into the {@link #PARTITION_HEADER} of the dispatched message.
+ * <p>
+ * Each partition has a bounded queue; a send to a partition with a full queue is blocked,
+ * so the sender doesn't get ahead of a slow partition.
+ * <p>
+ * The send returns when the message is queued, so a subscriber failure on a partition worker
+ * is handled with the {@link ErrorHandler}; by default, like for the
+ * {@link org.springframework.integration.channel.ExecutorChannel}, it is a
+ * {@link MessagePublishingErrorHandler} for the {@code errorChannel}.
+ *
+ * @author agent
+ */
+public class PartitionedExecutorChannel extends AbstractSubscribableChannel implements DisposableBean {
+
+	/**
+	 * The header for the partition number of the message.
+	 */
+	public static final String PARTITION_HEADER = "s3_partition";
+
+	private static final long QUEUE_POLL_TIMEOUT = 100;
+
+	private final PartitionedDispatcher dispatcher = new PartitionedDispatcher();
+
+	private final Executor executor;
+
+	private final BlockingQueue<Message<?>>[] partitions;
+
+	private final Expression partitionKeyExpression;
+
+	private EvaluationContext evaluationContext;
+
+	private ErrorHandler errorHandler;
+
+	private volatile boolean stopped;
+
+	/**
+	 * Create an instance for the provided number of partitions.
+	 * @param executor the {@link Executor} to run a worker for each partition.
+	 * @param partitionCount the number of partitions.
+	 * @param queueCapacity the number of messages waiting in each partition.
+	 * @param partitionKeyExpression the expression to evaluate the partition key against a message.
+	 */
+	@SuppressWarnings("unchecked")
+	public PartitionedExecutorChannel(Executor executor, int partitionCount, int queueCapacity,
+			Expression partitionKeyExpression) {
+
+		Assert.notNull(executor, "'executor' must not be null");
+		Assert.isTrue(partitionCount > 0, "'partitionCount' must be greater than 0");
+		Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be greater than 0");
+		Assert.notNull(partitionKeyExpression, "'partitionKeyExpression' must not be null");
+		this.executor = executor;
+		this.partitions = new BlockingQueue[partitionCount];
+		for (int i = 0; i < partitionCount; i++) {
+			this.partitions[i] = new LinkedBlockingQueue<>(queueCapacity);
+		}
+		this.partitionKeyExpression = partitionKeyExpression;
+	}
+
+	/**
+	 * Provide an {@link ErrorHandler} for the subscriber failures on the partition workers.
+	 * @param errorHandler the {@link ErrorHandler}.
+	 */
+	public void setErrorHandler(ErrorHandler errorHandler) {
+		this.errorHandler = errorHandler;
+	}
+
+	@Override
+	protected MessageDispatcher getDispatcher() {
+		return this.dispatcher;
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+		if (this.errorHandler == null) {
+			this.errorHandler = new MessagePublishingErrorHandler(new BeanFactoryChannelResolver(getBeanFactory()));
+		}
+		for (int i = 0; i < this.partitions.length; i++) {
+			int partition = i;
+			this.executor.execute(() -> work(partition));
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.stopped = true;
+	}
+
+	/**
+	 * Return the partition for the provided message.
+	 * @param message the message to evaluate the partition key against.
+	 * @return the partition number.
+	 */
+	public int partitionFor(Message<?> message) {
+		Object key = this.partitionKeyExpression.getValue(this.evaluationContext, message);
+		return (Objects.hashCode(key) & Integer.MAX_VALUE) % this.partitions.length;
+	}
+
+	private void work(int partition) {
+		BlockingQueue<Message<?>> queue = this.partitions[partition];
+		while (!this.stopped || !queue.isEmpty()) {
+			Message<?> message;
+			try {
+				message = queue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (message != null) {
+				try {
+					this.dispatcher.handle(message);
+				}
+				catch (Exception ex) {
+					this.errorHandler.handleError(ex instanceof MessagingException
+							? ex
+							: new MessageHandlingException(message,
+									"Failed to handle message in partition " + partition, ex));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The {@link MessageDispatcher} to enqueue messages into their partitions
+	 * to be handled by the single subscriber on the partition workers.
+	 */
+	private final class PartitionedDispatcher implements MessageDispatcher {
+
+		private final CopyOnWriteArrayList<MessageHandler> handlers = new CopyOnWriteArrayList<>();
+
+		@Override
+		public boolean addHandler(MessageHandler handler) {
+			Assert.state(this.handlers.isEmpty(), "Only one subscriber is allowed for the partitioned channel");
+			return this.handlers.add(handler);
+		}
+
+		@Override
+		public boolean removeHandler(MessageHandler handler) {
+			return this.handlers.remove(handler);
+		}
+
+		@Override
+		public int getHandlerCount() {
+			return this.handlers.size();
+		}
+
+		@Override
+		public boolean dispatch(Message<?> message) {
+			if (this.handlers.isEmpty()) {
+				throw new MessageDeliveryException(message, "Dispatcher has no subscribers for channel '"
+						+ getFullChannelName() + "'.");
+			}
+			int partition = partitionFor(message);
+			Message<?> partitionedMessage =
+					getMessageBuilderFactory()
+							.fromMessage(message)
+							.setHeader(PARTITION_HEADER, partition)
+							.build();
+			try {
+				PartitionedExecutorChannel.this.partitions[partition].put(partitionedMessage);
+				return true;
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new MessagingException(message, "Interrupted while waiting for partition " + partition, ex);
+			}
+		}
+
+		void handle(Message<?> message) {
+			if (this.handlers.isEmpty()) {
+				throw new MessageDeliveryException(message, "Dispatcher has no subscribers for channel '"
+						+ getFullChannelName() + "'.");
+			}
+			this.handlers.get(0).handleMessage(message);
+		}
+
+	}
+
+}
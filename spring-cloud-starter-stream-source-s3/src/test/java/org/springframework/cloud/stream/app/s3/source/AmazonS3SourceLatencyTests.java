@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.context.annotation.Bean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"trigger.initialDelay=1",
+				"file.consumer.mode=lines",
+				"s3.remoteDir=" + AmazonS3SourceLatencyTests.S3_BUCKET,
+				"s3.latency.enabled=true",
+				"s3.latency.sla=60000" })
+@DirtiesContext
+public class AmazonS3SourceLatencyTests {
+
+	@ClassRule
+	public static final TemporaryFolder TEMPORARY_FOLDER = new TemporaryFolder();
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	static final String S3_BUCKET = "latency-bucket";
+
+	@Autowired
+	private Source channels;
+
+	@Autowired
+	private MessageCollector messageCollector;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		S3_SERVER.putObject(S3_BUCKET, "1.test", "Line 1\nLine 2".getBytes(StandardCharsets.UTF_8));
+		S3_SERVER.putObject(S3_BUCKET, "2.test", "Line 3\nLine 4".getBytes(StandardCharsets.UTF_8));
+
+		System.setProperty("s3.localDir", TEMPORARY_FOLDER.newFolder("local").getAbsolutePath());
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		System.clearProperty("s3.localDir");
+	}
+
+	@Test
+	public void testStageTimestampsAndLatencies() throws Exception {
+		BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+		for (int i = 0; i < 4; i++) {
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			MessageHeaders headers = received.getHeaders();
+			long listedAt = headers.get(ObjectLatencyTracker.LISTED_AT_HEADER, Long.class);
+			long startedAt = headers.get(ObjectLatencyTracker.DOWNLOAD_STARTED_AT_HEADER, Long.class);
+			long finishedAt = headers.get(ObjectLatencyTracker.DOWNLOAD_FINISHED_AT_HEADER, Long.class);
+			long emittedAt = headers.get(ObjectLatencyTracker.EMITTED_AT_HEADER, Long.class);
+			assertNotNull(headers.get(ObjectLatencyTracker.LAST_MODIFIED_HEADER, Long.class));
+			assertFalse(headers.containsKey("s3_emission_recorded"));
+			assertTrue(listedAt <= startedAt);
+			assertTrue(startedAt <= finishedAt);
+			assertTrue(finishedAt <= emittedAt);
+		}
+
+		assertEquals(2, this.meterRegistry.get(ObjectLatencyTracker.LATENCY_TIMER_NAME)
+				.tag("stage", "transfer")
+				.timer()
+				.count());
+		// The emission is recorded once per file, not per line
+		assertEquals(2, this.meterRegistry.get(ObjectLatencyTracker.LATENCY_TIMER_NAME)
+				.tag("stage", "emit")
+				.timer()
+				.count());
+		assertEquals(2, this.meterRegistry.get(ObjectLatencyTracker.LATENCY_TIMER_NAME)
+				.tag("stage", "end-to-end")
+				.timer()
+				.count());
+		// The send is recorded when it returns from the binder
+		Timer sendTimer = this.meterRegistry.get(ObjectLatencyTracker.LATENCY_TIMER_NAME)
+				.tag("stage", "send")
+				.timer();
+		for (int i = 0; i < 100 && sendTimer.count() < 4; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(4, sendTimer.count());
+	}
+
+	@SpringBootApplication
+	public static class S3SourceLatencyApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return S3_SERVER.createClient();
+		}
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
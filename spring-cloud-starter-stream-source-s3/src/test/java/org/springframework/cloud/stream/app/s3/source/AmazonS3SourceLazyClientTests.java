@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.AmazonS3StartupEnvironmentPostProcessor;
+import org.springframework.cloud.stream.app.s3.LazyAmazonS3TargetSource;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-gov-west-1",
+				"trigger.initialDelay=600000",
+				"s3.remoteDir=S3_BUCKET",
+				"s3.client.lazy-init=true",
+				"s3.client.background-init=false",
+				"s3.client.trim-auto-configuration=true" })
+@DirtiesContext
+public class AmazonS3SourceLazyClientTests {
+
+	@Autowired
+	private AmazonS3 amazonS3;
+
+	@Autowired
+	private Environment environment;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	public void testClientIsBuiltOnFirstRequest() throws Exception {
+		assertTrue(AopUtils.isAopProxy(this.amazonS3));
+		Object targetSource = ((Advised) this.amazonS3).getTargetSource();
+		assertThat(targetSource, instanceOf(LazyAmazonS3TargetSource.class));
+		assertFalse(((LazyAmazonS3TargetSource) targetSource).isInitialized());
+
+		assertThat(Arrays.asList(this.environment.getProperty("spring.autoconfigure.exclude", String[].class)),
+				hasItem(AmazonS3StartupEnvironmentPostProcessor.EXCLUDED_AUTO_CONFIGURATIONS.get(0)));
+		assertEquals("false", this.environment.getProperty("spring.jmx.enabled"));
+
+		assertEquals("us-gov-west-1", this.amazonS3.getRegionName());
+		assertTrue(((LazyAmazonS3TargetSource) targetSource).isInitialized());
+
+		assertEquals(1, this.meterRegistry.get(LazyAmazonS3TargetSource.INITIALIZATION_TIMER_NAME)
+				.tag("mode", "lazy")
+				.timer()
+				.count());
+	}
+
+	@SpringBootApplication
+	public static class S3SourceLazyClientApplication {
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
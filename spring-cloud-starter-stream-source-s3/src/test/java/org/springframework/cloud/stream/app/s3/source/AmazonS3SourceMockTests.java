@@ -17,25 +17,44 @@
 package org.springframework.cloud.stream.app.s3.source;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.springframework.integration.test.matcher.HeaderMatcher.hasHeader;
 import static org.springframework.integration.test.matcher.PayloadMatcher.hasPayload;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -44,18 +63,26 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
 import org.springframework.beans.DirectFieldAccessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.ETagDigest;
+import org.springframework.cloud.stream.app.s3.InFlightTransfers;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.aws.inbound.S3InboundFileSynchronizer;
 import org.springframework.integration.aws.support.S3Session;
 import org.springframework.integration.endpoint.SourcePollingChannelAdapter;
 import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -63,13 +90,26 @@ import org.springframework.util.FileCopyUtils;
 
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.internal.SdkFilterInputStream;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.Region;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.SelectObjectContentEventStream;
+import com.amazonaws.services.s3.model.SelectObjectContentRequest;
+import com.amazonaws.services.s3.model.SelectObjectContentResult;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 /**
  * @author Artem Bilan
@@ -132,6 +172,7 @@ public abstract class AmazonS3SourceMockTests {
 			s3Object.setBucketName(S3_BUCKET);
 			s3Object.setKey(file.getName());
 			s3Object.setObjectContent(new FileInputStream(file));
+			s3Object.getObjectMetadata().setHeader(Headers.ETAG, BinaryUtils.toHex(Md5Utils.computeMD5Hash(file)));
 			S3_OBJECTS.add(s3Object);
 		}
 
@@ -160,6 +201,7 @@ public abstract class AmazonS3SourceMockTests {
 				S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
 				s3ObjectSummary.setBucketName(S3_BUCKET);
 				s3ObjectSummary.setKey(s3Object.getKey());
+				s3ObjectSummary.setETag(s3Object.getObjectMetadata().getETag());
 				Calendar calendar = Calendar.getInstance();
 				calendar.add(Calendar.DATE, 1);
 				s3ObjectSummary.setLastModified(calendar.getTime());
@@ -172,6 +214,21 @@ public abstract class AmazonS3SourceMockTests {
 			willAnswer(invocation -> s3Object).given(amazonS3).getObject(S3_BUCKET, s3Object.getKey());
 		}
 
+		willAnswer(invocation -> {
+			ByteArrayOutputStream eventStream = new ByteArrayOutputStream();
+			eventStream.write(selectEvent("Records", "Other2\n".getBytes()));
+			eventStream.write(selectEvent("End", new byte[0]));
+			SdkFilterInputStream inputStream =
+					new SdkFilterInputStream(new ByteArrayInputStream(eventStream.toByteArray())) {
+
+					};
+			return new SelectObjectContentResult()
+					.withPayload(new SelectObjectContentEventStream(inputStream));
+		}).given(amazonS3).selectObjectContent(any(SelectObjectContentRequest.class));
+
+		willAnswer(invocation -> new DeleteObjectsResult(Collections.emptyList()))
+				.given(amazonS3).deleteObjects(any(DeleteObjectsRequest.class));
+
 
 		new DirectFieldAccessor(s3Session).setPropertyValue("amazonS3", amazonS3);
 		this.s3ChannelAdapter.start();
@@ -179,6 +236,39 @@ public abstract class AmazonS3SourceMockTests {
 
 	public abstract void test() throws Exception;
 
+	private static byte[] selectEvent(String eventType, byte[] payload) {
+		ByteArrayOutputStream headers = new ByteArrayOutputStream();
+		eventHeader(headers, ":message-type", "event");
+		eventHeader(headers, ":event-type", eventType);
+		byte[] headersBytes = headers.toByteArray();
+		int totalLength = 16 + headersBytes.length + payload.length;
+		ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+		buffer.putInt(totalLength)
+				.putInt(headersBytes.length)
+				.putInt(crc32(buffer.array(), 8))
+				.put(headersBytes)
+				.put(payload)
+				.putInt(crc32(buffer.array(), totalLength - 4));
+		return buffer.array();
+	}
+
+	private static void eventHeader(ByteArrayOutputStream headers, String name, String value) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		headers.write(nameBytes.length);
+		headers.write(nameBytes, 0, nameBytes.length);
+		headers.write(7); // string header value type
+		headers.write(valueBytes.length >> 8);
+		headers.write(valueBytes.length);
+		headers.write(valueBytes, 0, valueBytes.length);
+	}
+
+	private static int crc32(byte[] bytes, int length) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(bytes, 0, length);
+		return (int) crc32.getValue();
+	}
+
 	@TestPropertySource(properties = {
 			"file.consumer.mode=ref",
 			"s3.filenameRegex=.*\\\\.test$" })
@@ -245,9 +335,433 @@ public abstract class AmazonS3SourceMockTests {
 
 	}
 
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.pipeline.enabled=true",
+			"s3.pipeline.concurrency=2",
+			"s3.pipeline.queue-capacity=1" })
+	public static class AmazonS3PipelinedFilesTransferredTests extends AmazonS3SourceMockTests {
+
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			Set<File> files = new HashSet<>();
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+				files.add(new File(received.getPayload().toString().replaceAll("\"", "")));
+			}
+
+			assertThat(files, containsInAnyOrder(new File(this.config.getLocalDir(), "1.test"),
+					new File(this.config.getLocalDir(), "2.test")));
+
+			this.s3ChannelAdapter.stop();
+
+			assertEquals(2, this.config.getLocalDir().list().length);
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=lines",
+			"s3.filenamePattern=otherFile",
+			"s3.batching.size=10",
+			"s3.batching.timeout=60000",
+			"s3.batching.format=joined" })
+	public static class AmazonS3LinesBatchTransferredTests extends AmazonS3SourceMockTests {
+
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+			// The end of the file flushes the batch long before the timeout
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			assertThat(received, hasPayload("Other\nOther2"));
+			assertThat(received,
+					hasHeader(FileHeaders.ORIGINAL_FILE, new File(this.config.getLocalDir(), "otherFile")));
+			assertFalse(received.getHeaders().containsKey(IntegrationMessageHeaderAccessor.CORRELATION_ID));
+			assertFalse(received.getHeaders().containsKey(IntegrationMessageHeaderAccessor.SEQUENCE_NUMBER));
+			assertFalse(received.getHeaders().containsKey(IntegrationMessageHeaderAccessor.SEQUENCE_SIZE));
+
+			assertNull(messages.poll(10, TimeUnit.MILLISECONDS));
+
+			this.s3ChannelAdapter.stop();
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=lines",
+			"s3.filenamePattern=otherFile",
+			"s3.select.expression=SELECT * FROM S3Object s WHERE s._1 = 'Other2'",
+			"s3.select.csv-file-header-info=NONE" })
+	public static class AmazonS3SelectTransferredTests extends AmazonS3SourceMockTests {
+
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			assertThat(received, hasPayload("Other2"));
+			assertThat(received,
+					hasHeader(FileHeaders.ORIGINAL_FILE, new File(this.config.getLocalDir(), "otherFile")));
+
+			assertNull(messages.poll(10, TimeUnit.MILLISECONDS));
+
+			this.s3ChannelAdapter.stop();
+
+			assertEquals(1, this.config.getLocalDir().list().length);
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=lines",
+			"s3.filenamePattern=otherFile",
+			"file.consumer.with-markers=false",
+			"s3.integrity.enabled=true" })
+	public static class AmazonS3VerifiedLinesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			assertThat(received, hasPayload("Other"));
+
+			received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			assertThat(received, hasPayload("Other2"));
+
+			this.s3ChannelAdapter.stop();
+
+			Timer timer = this.meterRegistry.find(ETagDigest.VERIFICATION_TIMER_NAME)
+					.tag("operation", "download")
+					.tag("result", "match")
+					.timer();
+			assertNotNull(timer);
+			assertEquals(1, timer.count());
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.drain.enabled=true" })
+	public static class AmazonS3DrainedFilesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Autowired
+		private InFlightTransfers s3InFlightDownloads;
+
+		@Autowired
+		private S3InboundFileSynchronizer s3InboundFileSynchronizer;
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+			}
+
+			this.s3ChannelAdapter.stop();
+			this.s3InFlightDownloads.stop();
+
+			assertFalse(this.s3InFlightDownloads.isRunning());
+			assertEquals(0, this.s3InFlightDownloads.getInFlight());
+			assertEquals(0, this.meterRegistry.get(InFlightTransfers.IN_FLIGHT_GAUGE_NAME)
+					.tag("operation", "download")
+					.gauge()
+					.value(), 0);
+
+			File localDir = TEMPORARY_FOLDER.newFolder();
+			try {
+				this.s3InboundFileSynchronizer.synchronizeToLocalDirectory(localDir);
+				fail("MessagingException expected");
+			}
+			catch (MessagingException ex) {
+				assertThat(ex.getMostSpecificCause().getMessage(),
+						containsString("in-flight transfers are being drained"));
+			}
+
+			assertEquals(0, localDir.list().length);
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.backpressure.enabled=true",
+			"s3.backpressure.max-staged-files=1" })
+	public static class AmazonS3BackpressureFilesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Autowired
+		private DownstreamBackpressure s3DownstreamBackpressure;
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			Set<File> files = new HashSet<>();
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+				files.add(new File(received.getPayload().toString().replaceAll("\"", "")));
+			}
+
+			assertThat(files, containsInAnyOrder(new File(this.config.getLocalDir(), "1.test"),
+					new File(this.config.getLocalDir(), "2.test")));
+
+			this.s3ChannelAdapter.stop();
+
+			assertEquals(2, this.config.getLocalDir().list().length);
+
+			Timer sendTimer = this.meterRegistry.get(DownstreamBackpressure.SEND_TIMER_NAME).timer();
+			for (int i = 0; i < 100 && sendTimer.count() < 2; i++) {
+				Thread.sleep(100);
+			}
+			assertEquals(2, sendTimer.count());
+			assertEquals(0, this.s3DownstreamBackpressure.getPending());
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.backpressure.enabled=true",
+			"s3.backpressure.max-staged-files=1",
+			"s3.backpressure.max-send-time=500",
+			"s3.partition.enabled=true",
+			"s3.partition.count=2" })
+	public static class AmazonS3BackpressurePartitionedFilesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Autowired
+		private DownstreamBackpressure s3DownstreamBackpressure;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			Set<File> files = new HashSet<>();
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+				assertThat(received, hasHeader(PartitionedExecutorChannel.PARTITION_HEADER, notNullValue()));
+				files.add(new File(received.getPayload().toString().replaceAll("\"", "")));
+			}
+
+			assertThat(files, containsInAnyOrder(new File(this.config.getLocalDir(), "1.test"),
+					new File(this.config.getLocalDir(), "2.test")));
+
+			this.s3ChannelAdapter.stop();
+
+			for (int i = 0; i < 100 && this.s3DownstreamBackpressure.getPending() > 0; i++) {
+				Thread.sleep(100);
+			}
+
+			// The files are staged only until their partition workers have sent them
+			for (int i = 0; i < 100 && this.s3DownstreamBackpressure.getStagedFiles() > 0; i++) {
+				Thread.sleep(100);
+			}
+			assertEquals(0, this.s3DownstreamBackpressure.getStagedFiles());
+			assertEquals(0, this.s3DownstreamBackpressure.getStagedBytes());
+
+			// A send in progress pauses the synchronization only when it is slow
+			Message<?> message = MessageBuilder.withPayload("test").build();
+			this.s3DownstreamBackpressure.preSend(message, this.channels.output());
+			assertEquals(1, this.s3DownstreamBackpressure.getPending());
+			assertFalse(this.s3DownstreamBackpressure.isPaused());
+
+			Thread.sleep(600);
+			assertTrue(this.s3DownstreamBackpressure.isPaused());
+
+			this.s3DownstreamBackpressure.afterSendCompletion(message, this.channels.output(), true, null);
+			assertEquals(0, this.s3DownstreamBackpressure.getPending());
+			assertTrue(this.s3DownstreamBackpressure.isPaused());
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.partition.enabled=true",
+			"s3.partition.count=2" })
+	public static class AmazonS3PartitionedFilesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			List<Message<?>> messages = new ArrayList<>();
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+				assertThat(received, hasHeader(PartitionedExecutorChannel.PARTITION_HEADER, notNullValue()));
+				messages.add(received);
+			}
+
+			this.s3ChannelAdapter.stop();
+
+			for (int i = 1; i <= 2; i++) {
+				assertThat(new File(messages.get(i - 1).getPayload().toString().replaceAll("\"", "")),
+						equalTo(new File(this.config.getLocalDir() + File.separator + i + ".test")));
+			}
+
+			assertEquals(messages.get(0).getHeaders().get(PartitionedExecutorChannel.PARTITION_HEADER),
+					messages.get(1).getHeaders().get(PartitionedExecutorChannel.PARTITION_HEADER));
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.fan-in.remote-dirs[0].remote-dir=" + AmazonS3SourceMockTests.S3_BUCKET,
+			"s3.fan-in.remote-dirs[0].filename-pattern=1.test",
+			"s3.fan-in.remote-dirs[1].remote-dir=" + AmazonS3SourceMockTests.S3_BUCKET,
+			"s3.fan-in.remote-dirs[1].filename-regex=.*2\\\\.test$" })
+	public static class AmazonS3FanInFilesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			Set<Object> keys = new HashSet<>();
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+				assertThat(received, hasHeader(AmazonS3SourceFileSynchronizer.BUCKET_HEADER, S3_BUCKET));
+				Object key = received.getHeaders().get(AmazonS3SourceFileSynchronizer.KEY_HEADER);
+				keys.add(key);
+				assertThat(new File(received.getPayload().toString().replaceAll("\"", "")),
+						equalTo(new File(this.config.getLocalDir() + File.separator + S3_BUCKET
+								+ File.separator + key)));
+			}
+
+			this.s3ChannelAdapter.stop();
+
+			assertEquals(new HashSet<>(Arrays.asList("1.test", "2.test")), keys);
+			assertEquals(2, new File(this.config.getLocalDir(), S3_BUCKET).list().length);
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=ref",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.delete-remote-files=true",
+			"s3.delete-batching.enabled=true",
+			"s3.delete-batching.batch-size=2",
+			"s3.delete-batching.after-ack=true" })
+	public static class AmazonS3BatchDeletedFilesTransferredTests extends AmazonS3SourceMockTests {
+
+		@Autowired
+		private MeterRegistry meterRegistry;
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = this.messageCollector.forChannel(this.channels.output())
+						.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+			}
+
+			AmazonS3 amazonS3 = TestUtils.getPropertyValue(this.s3ChannelAdapter,
+					"source.synchronizer.remoteFileTemplate.sessionFactory.s3Session.amazonS3", AmazonS3.class);
+
+			ArgumentCaptor<DeleteObjectsRequest> deleteObjectsRequestArgumentCaptor =
+					ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+			verify(amazonS3, timeout(10000)).deleteObjects(deleteObjectsRequestArgumentCaptor.capture());
+
+			this.s3ChannelAdapter.stop();
+
+			DeleteObjectsRequest deleteObjectsRequest = deleteObjectsRequestArgumentCaptor.getValue();
+			assertEquals(S3_BUCKET, deleteObjectsRequest.getBucketName());
+			List<String> keys = new ArrayList<>();
+			for (DeleteObjectsRequest.KeyVersion keyVersion : deleteObjectsRequest.getKeys()) {
+				keys.add(keyVersion.getKey());
+			}
+			assertThat(keys, containsInAnyOrder("1.test", "2.test"));
+
+			verify(amazonS3, never()).deleteObject(anyString(), anyString());
+
+			assertThat(this.meterRegistry.get(BatchingObjectDeleter.DELETES_COUNTER_NAME)
+					.tag("result", "deleted")
+					.counter()
+					.count(), equalTo(2.0));
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"file.consumer.mode=lines",
+			"s3.filenameRegex=.*\\\\.test$",
+			"s3.batching.size=10",
+			"s3.batching.timeout=60000",
+			"s3.delete-remote-files=true",
+			"s3.delete-batching.enabled=true",
+			"s3.delete-batching.batch-size=2",
+			"s3.delete-batching.after-ack=true" })
+	public static class AmazonS3BatchDeletedLinesBatchTransferredTests extends AmazonS3SourceMockTests {
+
+		@Test
+		@Override
+		public void test() throws Exception {
+			AmazonS3 amazonS3 = TestUtils.getPropertyValue(this.s3ChannelAdapter,
+					"source.synchronizer.remoteFileTemplate.sessionFactory.s3Session.amazonS3", AmazonS3.class);
+
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+			// The file marker flushes the batch of each file before its send returns and the file is acknowledged
+			for (int i = 1; i <= 2; i++) {
+				Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+			}
+
+			ArgumentCaptor<DeleteObjectsRequest> deleteObjectsRequestArgumentCaptor =
+					ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+			verify(amazonS3, timeout(10000)).deleteObjects(deleteObjectsRequestArgumentCaptor.capture());
+
+			this.s3ChannelAdapter.stop();
+
+			List<String> keys = new ArrayList<>();
+			for (DeleteObjectsRequest.KeyVersion keyVersion : deleteObjectsRequestArgumentCaptor.getValue().getKeys()) {
+				keys.add(keyVersion.getKey());
+			}
+			assertThat(keys, containsInAnyOrder("1.test", "2.test"));
+		}
+
+	}
+
 	@SpringBootApplication
 	public static class S3SourceApplication {
 
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
 	}
 
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.endpoint.SourcePollingChannelAdapter;
+import org.springframework.messaging.Message;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.FileCopyUtils;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Tests of resuming the transfers from the partial temporary files left in the local directory.
+ * <p>
+ * The partial temporary files are not the prefixes of their remote objects, so the content
+ * of a local file shows whether the transfer was resumed with a range request or started over.
+ *
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"trigger.initialDelay=1",
+				"file.consumer.mode=ref",
+				"s3.remoteDir=" + AmazonS3SourceResumeDownloadTests.S3_BUCKET,
+				"s3.resume-downloads=true" })
+@DirtiesContext
+public class AmazonS3SourceResumeDownloadTests {
+
+	@ClassRule
+	public static final TemporaryFolder TEMPORARY_FOLDER = new TemporaryFolder();
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	static final String S3_BUCKET = "resume-bucket";
+
+	private static final String CONTENT = "0123456789ABCDEF";
+
+	@Autowired
+	private SourcePollingChannelAdapter s3ChannelAdapter;
+
+	@Autowired
+	private Source channels;
+
+	@Autowired
+	private MessageCollector messageCollector;
+
+	private static File localDir;
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+		S3_SERVER.putObject(S3_BUCKET, "resumed", content);
+		S3_SERVER.putObject(S3_BUCKET, "changed", content);
+		S3_SERVER.putObject(S3_BUCKET, "longer", content);
+		String eTag = S3_SERVER.createClient().getObjectMetadata(S3_BUCKET, "resumed").getETag();
+
+		localDir = TEMPORARY_FOLDER.newFolder("local");
+		partialFile("resumed", "xxxxxx", eTag);
+		partialFile("changed", "xxxxxx", "0123456789abcdef0123456789abcdef");
+		partialFile("longer", CONTENT + "xxxxxx", eTag);
+
+		System.setProperty("s3.localDir", localDir.getAbsolutePath());
+	}
+
+	private static void partialFile(String name, String content, String eTag) throws IOException {
+		FileCopyUtils.copy(content.getBytes(StandardCharsets.UTF_8), new File(localDir, name + ".tmp"));
+		FileCopyUtils.copy(eTag.getBytes(StandardCharsets.UTF_8), new File(localDir, name + ".etag.tmp"));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		System.clearProperty("s3.localDir");
+	}
+
+	@Test
+	public void testPartialFilesResumedOrTransferredAgain() throws Exception {
+		BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+		Map<String, String> files = new HashMap<>();
+		for (int i = 0; i < 3; i++) {
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			File file = new File(received.getPayload().toString().replaceAll("\"", ""));
+			files.put(file.getName(), new String(FileCopyUtils.copyToByteArray(file), StandardCharsets.UTF_8));
+		}
+		this.s3ChannelAdapter.stop();
+
+		// Only the missing bytes are requested from the unchanged remote object
+		assertEquals("xxxxxx6789ABCDEF", files.get("resumed"));
+		// The ETag of the remote object is not the one of the partial file
+		assertEquals(CONTENT, files.get("changed"));
+		// The partial file is longer than the remote object
+		assertEquals(CONTENT, files.get("longer"));
+
+		assertEquals(3, S3_SERVER.getRequestCount("GetObject"));
+		for (String name : files.keySet()) {
+			assertFalse(new File(localDir, name + ".tmp").exists());
+			assertFalse(new File(localDir, name + ".etag.tmp").exists());
+		}
+	}
+
+	@SpringBootApplication
+	public static class S3SourceResumeApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return S3_SERVER.createClient();
+		}
+
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.endpoint.SourcePollingChannelAdapter;
+import org.springframework.messaging.Message;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * End-to-end tests of the source against the {@link S3StandInServer} over HTTP.
+ *
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"trigger.initialDelay=1",
+				"file.consumer.mode=ref",
+				"s3.remoteDir=" + AmazonS3SourceStandInServerTests.S3_BUCKET,
+				"s3.filenameRegex=.*\\\\.test$",
+				"s3.delete-remote-files=true",
+				"s3.delete-batching.enabled=true",
+				"s3.delete-batching.flush-interval=100",
+				"s3.pipeline.enabled=true",
+				"s3.pipeline.concurrency=4" })
+@DirtiesContext
+public class AmazonS3SourceStandInServerTests {
+
+	@ClassRule
+	public static final TemporaryFolder TEMPORARY_FOLDER = new TemporaryFolder();
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	static final String S3_BUCKET = "stand-in-bucket";
+
+	private static final int OBJECTS = 30;
+
+	@Autowired
+	private SourcePollingChannelAdapter s3ChannelAdapter;
+
+	@Autowired
+	private Source channels;
+
+	@Autowired
+	private MessageCollector messageCollector;
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		for (int i = 0; i < OBJECTS; i++) {
+			S3_SERVER.putObject(S3_BUCKET, String.format("%02d.test", i),
+					("Object " + i).getBytes(StandardCharsets.UTF_8));
+		}
+		S3_SERVER.putObject(S3_BUCKET, "otherFile", "Other".getBytes(StandardCharsets.UTF_8));
+		S3_SERVER.setPageSize(7);
+		S3_SERVER.setLatency(5);
+		S3_SERVER.throttleNext(3);
+
+		System.setProperty("s3.localDir", TEMPORARY_FOLDER.newFolder("local").getAbsolutePath());
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		System.clearProperty("s3.localDir");
+	}
+
+	@Test
+	public void testFilesTransferredOverHttp() throws Exception {
+		BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.channels.output());
+		Set<String> files = new HashSet<>();
+		for (int i = 0; i < OBJECTS; i++) {
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			files.add(new File(received.getPayload().toString().replaceAll("\"", "")).getName());
+		}
+		assertEquals(OBJECTS, files.size());
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (S3_SERVER.getKeys(S3_BUCKET).size() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		this.s3ChannelAdapter.stop();
+
+		assertEquals(1, S3_SERVER.getKeys(S3_BUCKET).size());
+		assertTrue(S3_SERVER.getRequestCount("ListObjects") >= (OBJECTS + 1) / 7);
+		assertTrue(S3_SERVER.getRequestCount("DeleteObjects") < OBJECTS);
+		assertEquals(0, S3_SERVER.getRequestCount("DeleteObject"));
+	}
+
+	@SpringBootApplication
+	public static class S3SourceStandInApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return S3_SERVER.createClient();
+		}
+
+	}
+
+}
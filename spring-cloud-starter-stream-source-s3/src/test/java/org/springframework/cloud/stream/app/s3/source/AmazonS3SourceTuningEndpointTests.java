@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.s3.AdjustablePeriodicTrigger;
+import org.springframework.cloud.stream.app.s3.AmazonS3TuningEndpoint;
+import org.springframework.cloud.stream.app.s3.test.S3StandInServer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.aws.inbound.S3InboundFileSynchronizer;
+import org.springframework.integration.scheduling.PollerMetadata;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * @author agent
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"cloud.aws.stack.auto=false",
+				"cloud.aws.credentials.accessKey=test.accessKey",
+				"cloud.aws.credentials.secretKey=test.secretKey",
+				"cloud.aws.region.static=us-east-1",
+				"trigger.fixedDelay=2",
+				"trigger.initialDelay=600",
+				"s3.remoteDir=tuning-bucket",
+				"s3.pipeline.enabled=true",
+				"s3.pipeline.concurrency=2" })
+@DirtiesContext
+public class AmazonS3SourceTuningEndpointTests {
+
+	@ClassRule
+	public static final S3StandInServer S3_SERVER = new S3StandInServer();
+
+	@Autowired
+	private AmazonS3TuningEndpoint s3TuningEndpoint;
+
+	@Autowired
+	private S3InboundFileSynchronizer s3InboundFileSynchronizer;
+
+	@Autowired
+	@Qualifier("s3TransferExecutor")
+	private ExecutorService s3TransferExecutor;
+
+	@Autowired
+	@Qualifier(PollerMetadata.DEFAULT_POLLER)
+	private PollerMetadata defaultPoller;
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testTransferConcurrencyAndPollPeriodAreTunedAtRuntime() {
+		Map<String, Object> tuning = this.s3TuningEndpoint.tuning();
+		Map<String, Object> download = (Map<String, Object>) ((Map<String, Object>) tuning.get("transferPools"))
+				.get("download");
+		assertEquals(2, download.get("concurrency"));
+		assertEquals(0, download.get("queueDepth"));
+		assertEquals(2000L, ((Map<String, Object>) tuning.get("poller")).get("period"));
+		assertFalse(tuning.containsKey("rateLimit"));
+
+		this.s3TuningEndpoint.tuneTransferPool("download", 4);
+		assertEquals(4, ((AmazonS3SourceFileSynchronizer) this.s3InboundFileSynchronizer).getTransferConcurrency());
+		assertEquals(4, ((ThreadPoolExecutor) this.s3TransferExecutor).getCorePoolSize());
+		assertEquals(4, ((ThreadPoolExecutor) this.s3TransferExecutor).getMaximumPoolSize());
+
+		this.s3TuningEndpoint.tuneTransferPool("download", 1);
+		assertEquals(1, ((ThreadPoolExecutor) this.s3TransferExecutor).getMaximumPoolSize());
+
+		assertNull(this.s3TuningEndpoint.tuneTransferPool("upload", 4));
+
+		this.s3TuningEndpoint.tune(null, null, 500L);
+		assertEquals(500, ((AdjustablePeriodicTrigger) this.defaultPoller.getTrigger()).getPeriod());
+
+		try {
+			this.s3TuningEndpoint.tune(10.0, null, null);
+			fail("InvalidEndpointRequestException expected");
+		}
+		catch (InvalidEndpointRequestException ex) {
+			assertEquals("The rate limit is not enabled", ex.getMessage());
+		}
+	}
+
+	@SpringBootApplication
+	public static class S3SourceTuningApplication {
+
+		@Bean
+		public AmazonS3 amazonS3() {
+			return S3_SERVER.createClient();
+		}
+
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.scheduling.TaskScheduler;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author agent
+ */
+public class BatchingObjectDeleterTests {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailedKeysRetriedOnNextFlush() {
+		AmazonS3 amazonS3 = mock(AmazonS3.class);
+		Session<S3ObjectSummary> session = mock(Session.class);
+		given(session.getClientInstance()).willReturn(amazonS3);
+		SessionFactory<S3ObjectSummary> sessionFactory = mock(SessionFactory.class);
+		given(sessionFactory.getSession()).willReturn(session);
+
+		MultiObjectDeleteException.DeleteError deleteError = new MultiObjectDeleteException.DeleteError();
+		deleteError.setKey("b");
+		deleteError.setCode("InternalError");
+		willThrow(new MultiObjectDeleteException(Collections.singletonList(deleteError), Collections.emptyList()))
+				.willThrow(new AmazonS3Exception("Service Unavailable"))
+				.willReturn(new DeleteObjectsResult(Collections.emptyList()))
+				.given(amazonS3)
+				.deleteObjects(any(DeleteObjectsRequest.class));
+
+		BatchingObjectDeleter deleter =
+				new BatchingObjectDeleter(sessionFactory, mock(TaskScheduler.class), 10, 1000);
+		deleter.setMaxAttempts(3);
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		deleter.bindTo(meterRegistry);
+
+		deleter.delete("bucket", "a");
+		deleter.delete("bucket", "b");
+		deleter.flush();
+		deleter.flush();
+		deleter.flush();
+		deleter.flush();
+
+		ArgumentCaptor<DeleteObjectsRequest> deleteObjectsRequestArgumentCaptor =
+				ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+		verify(amazonS3, times(3)).deleteObjects(deleteObjectsRequestArgumentCaptor.capture());
+		List<DeleteObjectsRequest> requests = deleteObjectsRequestArgumentCaptor.getAllValues();
+		assertThat(keys(requests.get(0)), contains("a", "b"));
+		assertThat(keys(requests.get(1)), contains("b"));
+		assertThat(keys(requests.get(2)), contains("b"));
+
+		assertThat(meterRegistry.get(BatchingObjectDeleter.DELETES_COUNTER_NAME)
+				.tag("result", "deleted")
+				.counter()
+				.count(), equalTo(2.0));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailedKeysLeftAfterMaxAttempts() {
+		AmazonS3 amazonS3 = mock(AmazonS3.class);
+		Session<S3ObjectSummary> session = mock(Session.class);
+		given(session.getClientInstance()).willReturn(amazonS3);
+		SessionFactory<S3ObjectSummary> sessionFactory = mock(SessionFactory.class);
+		given(sessionFactory.getSession()).willReturn(session);
+
+		willThrow(new AmazonS3Exception("Access Denied"))
+				.given(amazonS3)
+				.deleteObjects(any(DeleteObjectsRequest.class));
+
+		BatchingObjectDeleter deleter =
+				new BatchingObjectDeleter(sessionFactory, mock(TaskScheduler.class), 10, 1000);
+		deleter.setMaxAttempts(2);
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		deleter.bindTo(meterRegistry);
+
+		deleter.delete("bucket", "a");
+		deleter.flush();
+		deleter.flush();
+		deleter.flush();
+
+		verify(amazonS3, times(2)).deleteObjects(any(DeleteObjectsRequest.class));
+
+		assertThat(meterRegistry.get(BatchingObjectDeleter.DELETES_COUNTER_NAME)
+				.tag("result", "failed")
+				.counter()
+				.count(), equalTo(1.0));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailedKeysLeftOnShutdown() {
+		AmazonS3 amazonS3 = mock(AmazonS3.class);
+		Session<S3ObjectSummary> session = mock(Session.class);
+		given(session.getClientInstance()).willReturn(amazonS3);
+		SessionFactory<S3ObjectSummary> sessionFactory = mock(SessionFactory.class);
+		given(sessionFactory.getSession()).willReturn(session);
+
+		willThrow(new AmazonS3Exception("Service Unavailable"))
+				.given(amazonS3)
+				.deleteObjects(any(DeleteObjectsRequest.class));
+
+		BatchingObjectDeleter deleter =
+				new BatchingObjectDeleter(sessionFactory, mock(TaskScheduler.class), 10, 1000);
+		deleter.setMaxAttempts(3);
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		deleter.bindTo(meterRegistry);
+
+		deleter.delete("bucket", "a");
+		deleter.delete("bucket", "b");
+		deleter.destroy();
+		deleter.flush();
+
+		verify(amazonS3, times(1)).deleteObjects(any(DeleteObjectsRequest.class));
+
+		assertThat(meterRegistry.get(BatchingObjectDeleter.DELETES_COUNTER_NAME)
+				.tag("result", "failed")
+				.counter()
+				.count(), equalTo(2.0));
+	}
+
+	private static List<String> keys(DeleteObjectsRequest deleteObjectsRequest) {
+		List<String> keys = new ArrayList<>();
+		for (DeleteObjectsRequest.KeyVersion keyVersion : deleteObjectsRequest.getKeys()) {
+			keys.add(keyVersion.getKey());
+		}
+		return keys;
+	}
+
+}
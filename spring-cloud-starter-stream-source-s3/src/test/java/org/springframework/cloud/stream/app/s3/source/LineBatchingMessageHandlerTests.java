@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * @author agent
+ */
+public class LineBatchingMessageHandlerTests {
+
+	@Test
+	public void testInterleavedFilesAreBatchedSeparately() {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		QueueChannel outputChannel = new QueueChannel();
+
+		LineBatchingMessageHandler handler =
+				new LineBatchingMessageHandler(2, AmazonS3BatchingProperties.BatchFormat.list);
+		handler.setTimeout(60000);
+		handler.setEmitFileMarkers(false);
+		handler.setOutputChannel(outputChannel);
+		handler.setTaskScheduler(taskScheduler);
+		handler.setBeanFactory(new DefaultListableBeanFactory());
+		handler.afterPropertiesSet();
+
+		File first = new File("first.txt");
+		File second = new File("second.txt");
+
+		try {
+			handler.handleMessage(line(first, "a1"));
+			handler.handleMessage(line(second, "b1"));
+			handler.handleMessage(line(first, "a2"));
+			handler.handleMessage(line(second, "b2"));
+			handler.handleMessage(line(first, "a3"));
+			handler.handleMessage(line(second, "b3"));
+			handler.handleMessage(endOfFile(second));
+			handler.handleMessage(endOfFile(first));
+
+			assertBatch(outputChannel.receive(0), first, "a1", "a2");
+			assertBatch(outputChannel.receive(0), second, "b1", "b2");
+			assertBatch(outputChannel.receive(0), second, "b3");
+			assertBatch(outputChannel.receive(0), first, "a3");
+			assertNull(outputChannel.receive(0));
+		}
+		finally {
+			taskScheduler.destroy();
+		}
+	}
+
+	private static Message<String> line(File file, String line) {
+		return MessageBuilder.withPayload(line)
+				.setHeader(FileHeaders.ORIGINAL_FILE, file)
+				.build();
+	}
+
+	private static Message<String> endOfFile(File file) {
+		return MessageBuilder.withPayload("")
+				.setHeader(FileHeaders.ORIGINAL_FILE, file)
+				.setHeader(FileHeaders.MARKER, "END")
+				.build();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void assertBatch(Message<?> batch, File file, String... lines) {
+		assertNotNull(batch);
+		assertThat(batch.getHeaders().get(FileHeaders.ORIGINAL_FILE), equalTo(file));
+		assertThat((Iterable<String>) batch.getPayload(), contains(lines));
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author agent
+ */
+public class ObjectLatencyTrackerTests {
+
+	@Test
+	public void testEmissionRecordedOncePerFile() {
+		ObjectLatencyTracker tracker = new ObjectLatencyTracker();
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		tracker.bindTo(meterRegistry);
+
+		S3ObjectSummary remoteFile = remoteFile("1.test");
+		File localFile = new File("1.test");
+		tracker.listed(Collections.singletonList(remoteFile));
+		tracker.transferred(remoteFile, localFile, System.currentTimeMillis());
+		Message<?> fileMessage = tracker.stamp(MessageBuilder.withPayload(localFile).build());
+
+		DirectChannel output = new DirectChannel();
+		for (String line : new String[] { "Line 1", "Line 2", "Line 3" }) {
+			Message<?> emitted = tracker.preSend(MessageBuilder.withPayload(line)
+					.copyHeaders(fileMessage.getHeaders())
+					.build(), output);
+			assertNotNull(emitted.getHeaders().get(ObjectLatencyTracker.EMITTED_AT_HEADER));
+			assertFalse(emitted.getHeaders().containsKey("s3_emission_recorded"));
+			tracker.afterSendCompletion(emitted, output, true, null);
+		}
+
+		assertEquals(1, timerCount(meterRegistry, "emit"));
+		assertEquals(1, timerCount(meterRegistry, "end-to-end"));
+		assertEquals(3, timerCount(meterRegistry, "send"));
+	}
+
+	@Test
+	public void testStaleListingsAndTransfersForgotten() throws InterruptedException {
+		ObjectLatencyTracker tracker = new ObjectLatencyTracker();
+		tracker.setRetention(1);
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		tracker.bindTo(meterRegistry);
+
+		S3ObjectSummary droppedFile = remoteFile("1.test");
+		S3ObjectSummary rejectedFile = remoteFile("2.test");
+		File rejectedLocalFile = new File("2.test");
+		tracker.listed(Collections.singletonList(droppedFile));
+		tracker.transferred(rejectedFile, rejectedLocalFile, System.currentTimeMillis());
+		Thread.sleep(10);
+
+		tracker.listed(Collections.emptyList());
+
+		Message<File> rejectedMessage = MessageBuilder.withPayload(rejectedLocalFile).build();
+		assertSame(rejectedMessage, tracker.stamp(rejectedMessage));
+
+		File droppedLocalFile = new File("1.test");
+		tracker.transferred(droppedFile, droppedLocalFile, System.currentTimeMillis());
+		assertEquals(0, timerCount(meterRegistry, "queue"));
+		assertNull(tracker.stamp(MessageBuilder.withPayload(droppedLocalFile).build())
+				.getHeaders()
+				.get(ObjectLatencyTracker.LISTED_AT_HEADER));
+	}
+
+	@Test
+	public void testStaleTransfersForgottenWithoutListing() throws InterruptedException {
+		ObjectLatencyTracker tracker = new ObjectLatencyTracker();
+		tracker.setRetention(100);
+		tracker.bindTo(new SimpleMeterRegistry());
+
+		File rejectedLocalFile = new File("1.test");
+		tracker.transferred(remoteFile("1.test"), rejectedLocalFile, System.currentTimeMillis());
+		Thread.sleep(150);
+
+		File localFile = new File("2.test");
+		tracker.transferred(remoteFile("2.test"), localFile, System.currentTimeMillis());
+		Message<File> rejectedMessage = MessageBuilder.withPayload(rejectedLocalFile).build();
+		assertSame(rejectedMessage, tracker.stamp(rejectedMessage));
+		assertNotNull(tracker.stamp(MessageBuilder.withPayload(localFile).build())
+				.getHeaders()
+				.get(ObjectLatencyTracker.DOWNLOAD_FINISHED_AT_HEADER));
+	}
+
+	private static S3ObjectSummary remoteFile(String key) {
+		S3ObjectSummary remoteFile = new S3ObjectSummary();
+		remoteFile.setBucketName("bucket");
+		remoteFile.setKey(key);
+		remoteFile.setLastModified(new Date());
+		return remoteFile;
+	}
+
+	private static long timerCount(MeterRegistry meterRegistry, String stage) {
+		return meterRegistry.get(ObjectLatencyTracker.LATENCY_TIMER_NAME)
+				.tag("stage", stage)
+				.timer()
+				.count();
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.s3.source;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.context.IntegrationContextUtils;
+import org.springframework.integration.expression.ValueExpression;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+
+/**
+ * @author agent
+ */
+public class PartitionedExecutorChannelTests {
+
+	@Test
+	public void testSubscriberFailurePublishedToErrorChannel() throws Exception {
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		QueueChannel errorChannel = new QueueChannel();
+		beanFactory.registerSingleton(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME, errorChannel);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		PartitionedExecutorChannel channel =
+				new PartitionedExecutorChannel(executorService, 2, 10, new ValueExpression<>("key"));
+		channel.setBeanFactory(beanFactory);
+		channel.afterPropertiesSet();
+		channel.subscribe(message -> {
+			throw new IllegalStateException("planned failure");
+		});
+
+		try {
+			assertTrue(channel.send(MessageBuilder.withPayload("test").build()));
+
+			Message<?> errorMessage = errorChannel.receive(10000);
+			assertNotNull(errorMessage);
+			assertThat(errorMessage, instanceOf(ErrorMessage.class));
+			MessagingException exception = (MessagingException) errorMessage.getPayload();
+			assertThat(exception.getFailedMessage().getPayload(), equalTo("test"));
+			assertThat(exception.getFailedMessage().getHeaders().get(PartitionedExecutorChannel.PARTITION_HEADER),
+					equalTo(channel.partitionFor(exception.getFailedMessage())));
+			assertThat(exception.getCause(), instanceOf(IllegalStateException.class));
+		}
+		finally {
+			channel.destroy();
+			executorService.shutdown();
+		}
+	}
+
+}